@@ -0,0 +1,261 @@
+package com.melnick.java7;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * ProjectCoin.switchStrings(), for a few hundred million flags at a time.
+ *
+ * switchStrings() needs a String per flag, then a hashCode() and an equals(). When the flags come
+ * out of a fixed width file, making that String is most of the work. This decoder reads the bytes
+ * where they are, in a byte[] or a ByteBuffer, and looks each flag up in a 256 entry table: Y and T
+ * give TRUE, N and F give FALSE, M gives MAYBE, anything else UNKNOWN. The results go into a
+ * byte[], one code per flag. No String, and no object of any kind, is made.
+ *
+ * A decoder knows where its flag is in a record: fieldOffset bytes into it, width bytes wide, and
+ * records stride bytes apart. In a field wider than one byte the letter can have blanks on either
+ * side ("Y  ", " Y "), a blank being anything String.trim() strips: a space, a tab, any byte up to
+ * 0x20. Anything else in the field (a lower case letter, "YES", "Y N", all blanks) is UNKNOWN. So
+ * the code is always the one for switchStrings(field.trim()), the field read as ISO-8859-1.
+ *
+ * The parallel versions split the records into chunks and decode them with Fork/Join. Each chunk
+ * writes its own part of the output, so nothing is shared.
+ */
+public final class FlagDecoder {
+
+    public static final byte UNKNOWN = 0;
+    public static final byte TRUE = 1;
+    public static final byte FALSE = 2;
+    public static final byte MAYBE = 3;
+
+    private static final int BLANK = ' ';
+    private static final int PARALLEL_THRESHOLD = 1 << 16;
+
+    private static final byte[] TABLE = new byte[256];
+
+    static {
+        TABLE['Y'] = TRUE;
+        TABLE['T'] = TRUE;
+        TABLE['N'] = FALSE;
+        TABLE['F'] = FALSE;
+        TABLE['M'] = MAYBE;
+    }
+
+    private static final String[] RESULTS = {"UNKNOWN", "T", "F", "M"};
+
+    private final int fieldOffset;
+    private final int width;
+    private final int stride;
+
+    /**
+     * @param fieldOffset where the flag starts in each record
+     * @param width       how many bytes the flag field takes
+     * @param stride      how many bytes from one record to the next
+     */
+    public FlagDecoder(int fieldOffset, int width, int stride) {
+        if (fieldOffset < 0 || width < 1 || stride < 1 || fieldOffset + width > stride) {
+            throw new IllegalArgumentException("Field " + fieldOffset + "+" + width
+                + " does not fit a record of " + stride);
+        }
+        this.fieldOffset = fieldOffset;
+        this.width = width;
+        this.stride = stride;
+    }
+
+    /**
+     * For flags packed one byte each, with nothing in between.
+     */
+    public static FlagDecoder packed() {
+        return new FlagDecoder(0, 1, 1);
+    }
+
+    /**
+     * @return the code for a single byte flag
+     */
+    public static byte decode(byte flag) {
+        return TABLE[flag & 0xFF];
+    }
+
+    /**
+     * @return what switchStrings() returns for the flag with this code
+     */
+    public static String toResult(byte code) {
+        return RESULTS[code];
+    }
+
+    /**
+     * @return how many whole records (whole as far as the flag goes) fit in length bytes
+     */
+    public int records(int length) {
+        int lastFieldEnd = length - fieldOffset - width;
+        return lastFieldEnd < 0 ? 0 : lastFieldEnd / stride + 1;
+    }
+
+    /**
+     * Decodes records flags starting at input[inputOffset], into output[outputOffset] onwards.
+     */
+    public void decode(byte[] input, int inputOffset, int records, byte[] output, int outputOffset) {
+        checkRange(input.length, inputOffset, records, output.length, outputOffset);
+        decodeRange(input, inputOffset, 0, records, output, outputOffset);
+    }
+
+    /**
+     * Decodes every record from the buffer's position to its limit. The position does not move.
+     *
+     * @return how many flags were written to output
+     */
+    public int decode(ByteBuffer input, byte[] output, int outputOffset) {
+        int records = records(input.remaining());
+        checkOutput(records, output.length, outputOffset);
+        if (input.hasArray()) {
+            decodeRange(input.array(), input.arrayOffset() + input.position(), 0, records, output,
+                outputOffset);
+        } else {
+            decodeRange(input, input.position(), 0, records, output, outputOffset);
+        }
+        return records;
+    }
+
+    public void parallelDecode(byte[] input, int inputOffset, int records, byte[] output,
+        int outputOffset) {
+        checkRange(input.length, inputOffset, records, output.length, outputOffset);
+        if (records < PARALLEL_THRESHOLD * 2) {
+            decodeRange(input, inputOffset, 0, records, output, outputOffset);
+            return;
+        }
+        ForkJoinPool.commonPool().invoke(
+            new DecodeTask(input, null, inputOffset, 0, records, output, outputOffset));
+    }
+
+    public int parallelDecode(ByteBuffer input, byte[] output, int outputOffset) {
+        int records = records(input.remaining());
+        checkOutput(records, output.length, outputOffset);
+        if (records < PARALLEL_THRESHOLD * 2) {
+            return decode(input, output, outputOffset);
+        }
+        DecodeTask task = input.hasArray()
+            ? new DecodeTask(input.array(), null, input.arrayOffset() + input.position(), 0, records,
+                output, outputOffset)
+            : new DecodeTask(null, input, input.position(), 0, records, output, outputOffset);
+        ForkJoinPool.commonPool().invoke(task);
+        return records;
+    }
+
+    private final class DecodeTask extends RecursiveAction {
+        private static final long serialVersionUID = 1L;
+
+        private final byte[] array;
+        private final ByteBuffer buffer;
+        private final int base;
+        private final int from;
+        private final int to;
+        private final byte[] output;
+        private final int outputOffset;
+
+        DecodeTask(byte[] array, ByteBuffer buffer, int base, int from, int to, byte[] output,
+            int outputOffset) {
+            this.array = array;
+            this.buffer = buffer;
+            this.base = base;
+            this.from = from;
+            this.to = to;
+            this.output = output;
+            this.outputOffset = outputOffset;
+        }
+
+        @Override
+        protected void compute() {
+            if (to - from <= PARALLEL_THRESHOLD) {
+                if (array != null) {
+                    decodeRange(array, base, from, to, output, outputOffset);
+                } else {
+                    decodeRange(buffer, base, from, to, output, outputOffset);
+                }
+                return;
+            }
+            int mid = (from + to) >>> 1;
+            invokeAll(new DecodeTask(array, buffer, base, from, mid, output, outputOffset),
+                new DecodeTask(array, buffer, base, mid, to, output, outputOffset));
+        }
+    }
+
+    /*
+     * Records from (inclusive) to to (exclusive), counted from the record at base.
+     */
+
+    private void decodeRange(byte[] input, int base, int from, int to, byte[] output,
+        int outputOffset) {
+        int position = base + fieldOffset + from * stride;
+        if (width == 1) {
+            for (int record = from; record < to; record++, position += stride) {
+                output[outputOffset + record] = TABLE[input[position] & 0xFF];
+            }
+            return;
+        }
+        for (int record = from; record < to; record++, position += stride) {
+            output[outputOffset + record] = decodeField(input, position);
+        }
+    }
+
+    /*
+     * Trimmed, the field is its one non-blank byte, if it has exactly one. Otherwise it is empty or
+     * longer than a flag, and UNKNOWN either way.
+     */
+    private byte decodeField(byte[] input, int position) {
+        byte code = UNKNOWN;
+        boolean found = false;
+        for (int i = position, end = position + width; i < end; i++) {
+            int b = input[i] & 0xFF;
+            if (b > BLANK) {
+                if (found) {
+                    return UNKNOWN;
+                }
+                found = true;
+                code = TABLE[b];
+            }
+        }
+        return code;
+    }
+
+    private void decodeRange(ByteBuffer input, int base, int from, int to, byte[] output,
+        int outputOffset) {
+        int position = base + fieldOffset + from * stride;
+        for (int record = from; record < to; record++, position += stride) {
+            output[outputOffset + record] = decodeField(input, position);
+        }
+    }
+
+    private byte decodeField(ByteBuffer input, int position) {
+        byte code = UNKNOWN;
+        boolean found = false;
+        for (int i = position, end = position + width; i < end; i++) {
+            int b = input.get(i) & 0xFF;
+            if (b > BLANK) {
+                if (found) {
+                    return UNKNOWN;
+                }
+                found = true;
+                code = TABLE[b];
+            }
+        }
+        return code;
+    }
+
+    private void checkRange(int inputLength, int inputOffset, int records, int outputLength,
+        int outputOffset) {
+        if (inputOffset < 0 || records < 0
+            || (records > 0 && (long) inputOffset + (long) (records - 1) * stride + fieldOffset + width > inputLength)) {
+            throw new IndexOutOfBoundsException("Input offset: " + inputOffset + ", records: "
+                + records + ", input length: " + inputLength);
+        }
+        checkOutput(records, outputLength, outputOffset);
+    }
+
+    private static void checkOutput(int records, int outputLength, int outputOffset) {
+        if (outputOffset < 0 || (long) outputOffset + records > outputLength) {
+            throw new IndexOutOfBoundsException("Output offset: " + outputOffset + ", records: "
+                + records + ", output length: " + outputLength);
+        }
+    }
+}
@@ -1,12 +1,16 @@
 package com.melnick.java7;
 
+import com.melnick.java8.FailurePolicy;
 import org.junit.Assert;
 import org.junit.Test;
 
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
 import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.Random;
 
 /**
  * Project Coin was Java's project to include "nice to have" features that were fairly simple
@@ -19,6 +23,24 @@ public class ProjectCoin {
     private static final String FALSE = "F";
     private static final String MAYBE = "M";
 
+    /*
+     * What classify() returns.
+     */
+    public static final int VALID = 0;
+    public static final int NULL_STRING = 1;
+    public static final int EMPTY_STRING = 2;
+    public static final int ZERO_STRING = 3;
+
+    /*
+     * For FailurePolicy.PREALLOCATED_EXCEPTION: made once, and shared by every call.
+     */
+    private static final FailurePolicy.PreallocatedException NULL_STRING_EXCEPTION =
+        new FailurePolicy.PreallocatedException("String is null");
+    private static final FailurePolicy.PreallocatedException EMPTY_STRING_EXCEPTION =
+        new FailurePolicy.PreallocatedException("String is empty");
+    private static final FailurePolicy.PreallocatedException ZERO_STRING_EXCEPTION =
+        new FailurePolicy.PreallocatedException("Unsupported Operation");
+
 
 
 
@@ -110,6 +132,26 @@ public class ProjectCoin {
 
 
 
+    /**
+     * The same, but the policy decides what a bad string costs. With PREALLOCATED_EXCEPTION one
+     * of three shared, stackless PreallocatedExceptions is thrown instead, and with ERROR_CODE
+     * nothing is thrown at all: the string is returned when it is fine, and null when it is not.
+     * (Use classify() to find out why.)
+     * @param s some String
+     * @param policy what to do with a bad string
+     * @return s, or null
+     */
+    public String preciseRethrow(String s, FailurePolicy policy) throws NullPointerException, ClassCastException, UnsupportedOperationException, FailurePolicy.PreallocatedException {
+        if (policy == FailurePolicy.ERROR_CODE) {
+            return errorCode(s) == VALID ? s : null;
+        }
+        return policy == FailurePolicy.PREALLOCATED_EXCEPTION ? throwsPreallocatedError(s) : throwsError(s);
+    }
+
+
+
+
+
     @Test
     public void multiCatchTest() {
         multiCatch(null);
@@ -154,6 +196,78 @@ public class ProjectCoin {
 
 
 
+    @Test
+    public void classifyTest() {
+        for (FailurePolicy policy : FailurePolicy.values()) {
+            Assert.assertEquals(policy.name(), NULL_STRING, classify(null, policy));
+            Assert.assertEquals(policy.name(), EMPTY_STRING, classify("", policy));
+            Assert.assertEquals(policy.name(), ZERO_STRING, classify("0", policy));
+            Assert.assertEquals(policy.name(), VALID, classify("Hello World", policy));
+        }
+    }
+
+    /**
+     * Everyone shares a preallocated exception, so nobody may be able to change it.
+     */
+    @Test
+    public void preallocatedExceptionsStayEmpty() {
+        FailurePolicy.PreallocatedException first = null;
+        for (int i = 0; i < 2; i++) {
+            try {
+                preciseRethrow("0", FailurePolicy.PREALLOCATED_EXCEPTION);
+                Assert.fail("0 was accepted");
+            } catch (FailurePolicy.PreallocatedException e) {
+                if (first == null) {
+                    first = e;
+                }
+                Assert.assertSame(first, e);
+                e.addSuppressed(new IllegalStateException());
+                e.setStackTrace(new Throwable().getStackTrace());
+                Assert.assertEquals(0, e.getSuppressed().length);
+                Assert.assertEquals(0, e.getStackTrace().length);
+            }
+        }
+    }
+
+
+
+
+
+    /**
+     * multiCatch(), without the printing, for call sites where bad strings are everyday input.
+     * Exceptions are still caught with a multi-catch, unless the policy says not to throw any.
+     * @param string input
+     * @param policy what a bad string costs
+     * @return VALID, NULL_STRING, EMPTY_STRING or ZERO_STRING
+     */
+    public int classify(String string, FailurePolicy policy) {
+        if (policy == FailurePolicy.ERROR_CODE) {
+            return errorCode(string);
+        }
+        try {
+            preciseRethrow(string, policy);
+            return VALID;
+        } catch (NullPointerException | ClassCastException e) {
+            return e instanceof NullPointerException ? NULL_STRING : EMPTY_STRING;
+        } catch (UnsupportedOperationException e) {
+            return ZERO_STRING;
+        } catch (FailurePolicy.PreallocatedException e) {
+            return e == NULL_STRING_EXCEPTION ? NULL_STRING : e == EMPTY_STRING_EXCEPTION ? EMPTY_STRING : ZERO_STRING;
+        }
+    }
+
+
+
+
+
+
+
+
+
+
+
+
+
     /**
      * This is a typical coding paradigm. It is also ugly and hard to read.
      * @param input
@@ -232,6 +346,102 @@ public class ProjectCoin {
     }
 
 
+    /**
+     * switchStrings() one flag at a time, next to FlagDecoder doing a whole fixed width buffer at
+     * once. They must agree, for a byte[], a heap ByteBuffer and a direct one, and for one byte
+     * flags too.
+     */
+    @Test
+    public void flagDecoderMatchesSwitchStrings() {
+        String[] fields = {"Y  ", "T  ", "N  ", "F  ", "M  ", " Y ", "  N", "\tT ", "M\r\n", "y  ", "X  ",
+            "   ", "YE ", "Y N", " M M", "\u00D1  ", "\u00A0Y "};
+        for (int width : new int[] {1, 2, 3}) {
+            byte[] records = new byte[fields.length * (width + 2)]; //"<flag>|\n"
+            for (int i = 0; i < fields.length; i++) {
+                String field = (fields[i] + "   ").substring(0, width);
+                System.arraycopy(field.getBytes(StandardCharsets.ISO_8859_1), 0, records, i * (width + 2), width);
+                records[i * (width + 2) + width] = '|';
+                records[i * (width + 2) + width + 1] = '\n';
+            }
+            FlagDecoder decoder = new FlagDecoder(0, width, width + 2);
+            ByteBuffer direct = ByteBuffer.allocateDirect(records.length);
+            direct.put(records).flip();
+            byte[][] decoded = new byte[4][fields.length];
+            decoder.decode(records, 0, fields.length, decoded[0], 0);
+            Assert.assertEquals(fields.length, decoder.decode(ByteBuffer.wrap(records), decoded[1], 0));
+            Assert.assertEquals(fields.length, decoder.decode(direct, decoded[2], 0));
+            Assert.assertEquals(0, direct.position());
+            decoder.parallelDecode(records, 0, fields.length, decoded[3], 0);
+            for (int i = 0; i < fields.length; i++) {
+                String field = (fields[i] + "   ").substring(0, width);
+                String expected = switchStrings(field.trim());
+                for (byte[] codes : decoded) {
+                    Assert.assertEquals(width + ":" + field, expected, FlagDecoder.toResult(codes[i]));
+                }
+                if (width == 1) {
+                    Assert.assertEquals(field, expected, FlagDecoder.toResult(FlagDecoder.decode(records[i * 3])));
+                }
+            }
+        }
+        byte[] packed = "YTNFMyx ".getBytes(StandardCharsets.ISO_8859_1);
+        byte[] codes = new byte[packed.length + 1];
+        Assert.assertEquals(packed.length, FlagDecoder.packed().decode(ByteBuffer.wrap(packed), codes, 1));
+        Assert.assertArrayEquals(new byte[] {0, 1, 1, 2, 2, 3, 0, 0, 0}, codes);
+    }
+
+    /**
+     * Enough records (over 131,072) for parallelDecode() to split them up, and offsets at both ends,
+     * so every chunk has to land in its own part of the output.
+     */
+    @Test
+    public void flagDecoderParallel() {
+        String[] fields = {"Y ", " T", "N ", "F ", "M ", "  ", "YY", "n "};
+        byte[] fieldCodes = {FlagDecoder.TRUE, FlagDecoder.TRUE, FlagDecoder.FALSE, FlagDecoder.FALSE,
+            FlagDecoder.MAYBE, FlagDecoder.UNKNOWN, FlagDecoder.UNKNOWN, FlagDecoder.UNKNOWN};
+        int records = 300_001;
+        int stride = 5;
+        int inputOffset = 7;
+        int outputOffset = 3;
+        Random random = new Random(21);
+        byte[] input = new byte[inputOffset + records * stride];
+        byte[] expected = new byte[outputOffset + records];
+        for (int record = 0; record < records; record++) {
+            int kind = random.nextInt(fields.length);
+            String field = fields[kind];
+            int position = inputOffset + record * stride;
+            input[position] = '#';
+            input[position + 1] = (byte) field.charAt(0);
+            input[position + 2] = (byte) field.charAt(1);
+            input[position + 3] = '|';
+            input[position + 4] = '\n';
+            expected[outputOffset + record] = fieldCodes[kind];
+        }
+        FlagDecoder decoder = new FlagDecoder(1, 2, stride);
+
+        byte[] output = new byte[outputOffset + records];
+        decoder.parallelDecode(input, inputOffset, records, output, outputOffset);
+        Assert.assertArrayEquals(expected, output);
+
+        ByteBuffer heap = ByteBuffer.wrap(input);
+        heap.position(inputOffset);
+        output = new byte[outputOffset + records];
+        Assert.assertEquals(records, decoder.parallelDecode(heap, output, outputOffset));
+        Assert.assertArrayEquals(expected, output);
+        Assert.assertEquals(inputOffset, heap.position());
+
+        ByteBuffer direct = ByteBuffer.allocateDirect(input.length);
+        direct.put(input).position(inputOffset);
+        output = new byte[outputOffset + records];
+        Assert.assertEquals(records, decoder.parallelDecode(direct, output, outputOffset));
+        Assert.assertArrayEquals(expected, output);
+        Assert.assertEquals(inputOffset, direct.position());
+
+        output = new byte[outputOffset + records];
+        decoder.decode(input, inputOffset, records, output, outputOffset);
+        Assert.assertArrayEquals(expected, output);
+    }
+
+
     private String throwsError(String string) throws NullPointerException, ClassCastException, UnsupportedOperationException {
         if (string == null) {
             throw new NullPointerException("String is null");
@@ -258,6 +468,45 @@ public class ProjectCoin {
 
 
 
+    private String throwsPreallocatedError(String string) throws FailurePolicy.PreallocatedException {
+        switch (errorCode(string)) {
+        case NULL_STRING:
+            throw NULL_STRING_EXCEPTION;
+        case EMPTY_STRING:
+            throw EMPTY_STRING_EXCEPTION;
+        case ZERO_STRING:
+            throw ZERO_STRING_EXCEPTION;
+        default:
+            return string;
+        }
+    }
+
+    private static int errorCode(String string) {
+        if (string == null) {
+            return NULL_STRING;
+        } else if (string.isEmpty()) {
+            return EMPTY_STRING;
+        } else if ("0".equals(string)) {
+            return ZERO_STRING;
+        }
+        return VALID;
+    }
+
+
+
+
+
+
+
+
+
+
+
+
+
+
+
+
     private void someMethod(){}
 
     private void someOtherMethod(){}
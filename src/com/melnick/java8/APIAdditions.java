@@ -3,17 +3,27 @@ package com.melnick.java8;
 import static java.util.stream.Collectors.toList;
 
 import java.util.Collections;
+import org.junit.Assert;
 import org.junit.Test;
 
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collection;
 import java.util.Comparator;
+import java.util.ConcurrentModificationException;
 import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
 import java.util.Objects;
 import java.util.Random;
 import java.util.StringJoiner;
+import java.util.function.Consumer;
 import java.util.stream.Collectors;
 import java.util.stream.Stream;
 
@@ -22,6 +32,7 @@ import java.util.stream.Stream;
  */
 public class APIAdditions {
     private List<Integer> integerList = new Random().ints(100).boxed().collect(toList());
+    private IntList intList = IntList.of(new Random().ints(100)); //same operations, no Integers
 
     /**
      * NOTE: List.sort() actually modifies the underlying data structure. The list is actually sorted.
@@ -63,6 +74,177 @@ public class APIAdditions {
         return integerList;
     }
 
+    /*The same operations on an IntList. It holds an int[], so there is no Integer per element and
+    * no unboxing, and the lambdas are IntPredicate, IntUnaryOperator and IntConsumer.*/
+
+    public IntList intListSort() {
+        IntList listCopy = IntList.of(intList.toArray());
+
+        listCopy.sort(); //radix sort on the int[]
+        System.out.println(listCopy);
+
+        listCopy.sortDescending();
+        System.out.println(listCopy);
+        return listCopy;
+    }
+
+    public int[] intListStreamSort() {
+        return intList.stream().sorted().toArray(); //an IntStream, intList is still unsorted
+    }
+
+    public IntList intListForEach() {
+        intList.forEach(APIAdditions::performAction);
+        return intList;
+    }
+
+    public IntList intListRemoveIf() {
+        intList.removeIf(number -> number % 2 == 0);
+        return intList;
+    }
+
+    public IntList intListReplaceAll() {
+        intList.replaceAll(this::plusOne);
+        return intList;
+    }
+
+    public List<Integer> intListAsList() {
+        return intList.boxed(); //for code that wants a List<Integer>. Boxes on every get()
+    }
+
+    @Test
+    public void intListMatchesIntegerList() {
+        IntList ints = IntList.copyOf(integerList);
+        List<Integer> integers = new ArrayList<>(integerList);
+
+        Assert.assertEquals(integers, ints.boxed());
+        Assert.assertEquals(integers.hashCode(), ints.hashCode());
+
+        integers.sort(null);
+        ints.sort();
+        Assert.assertEquals(integers, ints.boxed());
+
+        integers.sort(Comparator.reverseOrder());
+        ints.sortDescending();
+        Assert.assertEquals(integers, ints.boxed());
+
+        integers.removeIf(APIAdditions::isEven);
+        ints.removeIf(number -> number % 2 == 0);
+        Assert.assertEquals(integers, ints.boxed());
+
+        integers.replaceAll(this::plusOne);
+        ints.replaceAll(this::plusOne);
+        Assert.assertEquals(integers, ints.boxed());
+        Assert.assertEquals(integers.toString(), ints.toString());
+
+        Assert.assertEquals(integers.stream().sorted().collect(toList()),
+                IntList.of(ints.stream().sorted()).boxed());
+    }
+
+    /*The boxed() view is fail fast, like ArrayList: an iterator that was open across any change to
+    * the list, replaceAll() included, throws instead of going on.*/
+    @Test
+    public void intListBoxedViewFailsFast() {
+        List<Integer> integers = IntList.of(1, 2, 3, 4).boxed();
+        List<Consumer<List<Integer>>> changes = Arrays.asList(
+                list -> list.add(5),
+                list -> list.remove(0),
+                list -> list.removeIf(number -> number == 4),
+                list -> list.replaceAll(number -> number * 2),
+                list -> list.sort(Comparator.reverseOrder()),
+                List::clear);
+        for (Consumer<List<Integer>> change : changes) {
+            integers.add(1);
+            Iterator<Integer> iterator = integers.iterator();
+            iterator.next();
+            change.accept(integers);
+            try {
+                iterator.next();
+                Assert.fail("the iterator missed a change");
+            } catch (ConcurrentModificationException expected) {
+            }
+        }
+    }
+
+    /*removeIf() and replaceAll() on every core. Only worth it for big lists: below 65,536 elements
+    * these are the plain sequential calls.*/
+
+    public List<Integer> parallelRemoveIf() {
+        ArrayList<Integer> listCopy = new ArrayList<>(integerList);
+        ParallelListOps.removeIf(listCopy, APIAdditions::isEven); //same survivors, same order
+        return listCopy;
+    }
+
+    public List<Integer> parallelReplaceAll() {
+        ArrayList<Integer> listCopy = new ArrayList<>(integerList);
+        ParallelListOps.replaceAll(listCopy, this::plusOne);
+        return listCopy;
+    }
+
+    public IntList intListParallelRemoveIf() {
+        ParallelListOps.removeIf(intList, number -> number % 2 == 0);
+        return intList;
+    }
+
+    public IntList intListParallelReplaceAll() {
+        ParallelListOps.replaceAll(intList, this::plusOne);
+        return intList;
+    }
+
+    @Test
+    public void parallelListOpsMatchSequential() {
+        IntList ints = IntList.of(new Random(42).ints(1 << 18, 0, 1000));
+        IntList parallelInts = IntList.of(ints.toArray());
+        ArrayList<Integer> integers = new ArrayList<>(ints.boxed());
+        ArrayList<Integer> parallelIntegers = new ArrayList<>(integers);
+
+        ints.removeIf(number -> number % 3 == 0);
+        ParallelListOps.removeIf(parallelInts, number -> number % 3 == 0);
+        Assert.assertEquals(ints, parallelInts);
+
+        integers.removeIf(number -> number % 3 == 0);
+        ParallelListOps.removeIf(parallelIntegers, number -> number % 3 == 0);
+        Assert.assertEquals(integers, parallelIntegers);
+        Assert.assertEquals(integers, ints.boxed());
+
+        ints.replaceAll(this::plusOne);
+        ParallelListOps.replaceAll(parallelInts, this::plusOne);
+        Assert.assertEquals(ints, parallelInts);
+
+        integers.replaceAll(this::plusOne);
+        ParallelListOps.replaceAll(parallelIntegers, this::plusOne);
+        Assert.assertEquals(integers, parallelIntegers);
+    }
+
+    /*A filter that throws leaves the list as it was, below the parallel threshold and above it, for
+    * an IntList and for an ArrayList.*/
+    @Test
+    public void parallelRemoveIfLeavesListWhenFilterThrows() {
+        for (int size : new int[] {1_000, 1 << 17}) {
+            int[] values = new Random(7).ints(size, 0, 1000).toArray();
+            values[size * 3 / 4] = -1;
+            IntList ints = IntList.of(values);
+            ArrayList<Integer> integers = new ArrayList<>(ints.boxed());
+            try {
+                ParallelListOps.removeIf(ints, APIAdditions::isMultipleOfThree);
+                Assert.fail("the filter threw, but removeIf() did not");
+            } catch (IllegalArgumentException expected) {
+            }
+            Assert.assertArrayEquals(values, ints.toArray());
+            try {
+                ParallelListOps.removeIf(integers, APIAdditions::isMultipleOfThree);
+                Assert.fail("the filter threw, but removeIf() did not");
+            } catch (IllegalArgumentException expected) {
+            }
+            Assert.assertEquals(ints.boxed(), integers);
+            try {
+                ints.boxed().removeIf(APIAdditions::isMultipleOfThree);
+                Assert.fail("the filter threw, but removeIf() did not");
+            } catch (IllegalArgumentException expected) {
+            }
+            Assert.assertArrayEquals(values, ints.toArray());
+        }
+    }
+
     public String stringJoiners() {
         String alias1 = "Alias 1";
         String alias2 = "Alias 2";
@@ -84,6 +266,57 @@ public class APIAdditions {
                 .collect(Collectors.joining(", ", "{", "}")); //returns "{Alias 1, Alias 2, Alias 3}"
     }
 
+    /*StreamingJoiner writes the joined aliases out as it goes, instead of building a String. For
+    * millions of entries the memory stays the same as for three.*/
+
+    public void stringJoinersStreaming(OutputStream out) throws IOException {
+        new StreamingJoiner(out, ", ", "{", "}", StandardCharsets.UTF_8)
+                .addAll(Arrays.asList("Alias 1", "Alias 2", "Alias 3"))
+                .finish(); //writes "{Alias 1, Alias 2, Alias 3}", out is left open
+    }
+
+    public void stringJoinersStreamingParallel(OutputStream out) throws IOException {
+        new StreamingJoiner(out, ", ", "{", "}", StandardCharsets.UTF_8)
+                .addAllParallel(integerList, String::valueOf) //encoded on every core, written in order
+                .finish();
+    }
+
+    @Test
+    public void streamingJoinerMatchesStringJoiner() throws IOException {
+        List<String> aliases = new Random(42).ints(100_000, 0, 5000)
+                .mapToObj(number -> number % 7 == 0 ? "Alias \u00e9\u20ac\ud83d\ude00 " + number : "Alias " + number)
+                .collect(toList());
+        String expected = aliases.stream().collect(Collectors.joining(", ", "{", "}"));
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        StreamingJoiner joiner = new StreamingJoiner(out, ", ", "{", "}", StandardCharsets.UTF_8);
+        joiner.addAll(aliases).finish();
+        Assert.assertEquals(expected, new String(out.toByteArray(), StandardCharsets.UTF_8));
+        Assert.assertEquals(out.size(), joiner.bytesWritten());
+
+        out.reset();
+        new StreamingJoiner(out, ", ", "{", "}", StandardCharsets.UTF_8)
+                .addAllParallel(aliases, alias -> alias)
+                .finish();
+        Assert.assertEquals(expected, new String(out.toByteArray(), StandardCharsets.UTF_8));
+
+        out.reset();
+        new StreamingJoiner(out, ", ", "{", "}", StandardCharsets.UTF_8)
+                .addAllParallel(new LinkedList<>(aliases), alias -> alias) //copied, not walked from the head per element
+                .finish();
+        Assert.assertEquals(expected, new String(out.toByteArray(), StandardCharsets.UTF_8));
+
+        out.reset();
+        aliases.parallelStream()
+                .collect(new StreamingJoiner(out, ", ", "{", "}", StandardCharsets.UTF_8).collector())
+                .finish();
+        Assert.assertEquals(expected, new String(out.toByteArray(), StandardCharsets.UTF_8));
+
+        out.reset();
+        new StreamingJoiner(out, ", ", "{", "}", StandardCharsets.UTF_8).finish();
+        Assert.assertEquals("{}", new String(out.toByteArray(), StandardCharsets.UTF_8));
+    }
+
     /*These methods do a lot of null checking! If you are explicitly using nulls for "absent" values,
     * it could screw things up! Consider using Optional.empty() instead to represent absent cases*/
 
@@ -125,6 +358,9 @@ public class APIAdditions {
     private static void performAction(Integer integer) {
     }
 
+    private static void performAction(int number) {
+    }
+
     public static void performAction(Object o1, Object o2) {
 
     }
@@ -132,4 +368,11 @@ public class APIAdditions {
     private static boolean isEven(Integer integer) {
         return integer % 2 == 0;
     }
+
+    private static boolean isMultipleOfThree(int number) {
+        if (number < 0) {
+            throw new IllegalArgumentException("Negative: " + number);
+        }
+        return number % 3 == 0;
+    }
 }
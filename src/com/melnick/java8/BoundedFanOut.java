@@ -0,0 +1,182 @@
+package com.melnick.java8;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.Objects;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
+
+/**
+ * Runs a blocking action once per item, many at a time.
+ *
+ * StreamExample.completeCasePaymentTasks() calls the workflow once per case inside forEach(), so
+ * the whole run takes (number of cases) x (latency of one call). Here every call gets its own
+ * task, and a Semaphore caps how many run at once. {@link #run(Collection, Consumer)} waits at a
+ * CountDownLatch until every task has finished.
+ *
+ * A failing item does not stop the others. Its exception is collected into the {@link Result},
+ * along with the item itself, so the caller can decide what to retry.
+ *
+ * {@link #virtualThreads(int)} runs each task on a virtual thread when the JVM has them (Java 21
+ * and up), which is what makes tens of thousands of concurrent blocking calls cheap. This project
+ * is still built for Java 8, so the virtual thread executor is looked up reflectively. On older
+ * JVMs it falls back to a cached pool of daemon platform threads. The Semaphore keeps that pool
+ * from ever growing past the concurrency limit.
+ */
+public class BoundedFanOut implements AutoCloseable {
+
+    /**
+     * What happened to one run.
+     */
+    public static final class Result<T> {
+        private final int succeeded;
+        private final List<Failure<T>> failures;
+
+        Result(int succeeded, List<Failure<T>> failures) {
+            this.succeeded = succeeded;
+            this.failures = Collections.unmodifiableList(failures);
+        }
+
+        public int getSucceeded() {
+            return succeeded;
+        }
+
+        public List<Failure<T>> getFailures() {
+            return failures;
+        }
+
+        public boolean isSuccess() {
+            return failures.isEmpty();
+        }
+
+        @Override
+        public String toString() {
+            return "Result{succeeded=" + succeeded + ", failed=" + failures.size() + '}';
+        }
+    }
+
+    public static final class Failure<T> {
+        private final T item;
+        private final Throwable error;
+
+        Failure(T item, Throwable error) {
+            this.item = item;
+            this.error = error;
+        }
+
+        public T getItem() {
+            return item;
+        }
+
+        public Throwable getError() {
+            return error;
+        }
+    }
+
+    private final ExecutorService executor;
+    private final int maxConcurrency;
+
+    public BoundedFanOut(ExecutorService executor, int maxConcurrency) {
+        if (maxConcurrency < 1) {
+            throw new IllegalArgumentException("maxConcurrency must be positive: " + maxConcurrency);
+        }
+        this.executor = Objects.requireNonNull(executor);
+        this.maxConcurrency = maxConcurrency;
+    }
+
+    /**
+     * A fan out on virtual threads if this JVM has them, platform threads otherwise.
+     */
+    public static BoundedFanOut virtualThreads(int maxConcurrency) {
+        return new BoundedFanOut(newVirtualThreadExecutor(), maxConcurrency);
+    }
+
+    public static boolean virtualThreadsAvailable() {
+        try {
+            Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+            return true;
+        } catch (NoSuchMethodException e) {
+            return false;
+        }
+    }
+
+    public int getMaxConcurrency() {
+        return maxConcurrency;
+    }
+
+    /**
+     * Runs the action for every item, and returns once all of them have finished.
+     * Items are started in iteration order, but may finish in any order.
+     */
+    public <T> Result<T> run(Collection<? extends T> items, Consumer<? super T> action)
+        throws InterruptedException {
+        Objects.requireNonNull(action);
+        Semaphore permits = new Semaphore(maxConcurrency);
+        CountDownLatch finished = new CountDownLatch(items.size());
+        AtomicInteger succeeded = new AtomicInteger();
+        ConcurrentLinkedQueue<Failure<T>> failures = new ConcurrentLinkedQueue<>();
+
+        int started = 0;
+        try {
+            for (T item : items) {
+                permits.acquire();
+                executor.execute(() -> {
+                    try {
+                        action.accept(item);
+                        succeeded.incrementAndGet();
+                    } catch (Throwable e) {
+                        failures.add(new Failure<>(item, e));
+                    } finally {
+                        permits.release();
+                        finished.countDown();
+                    }
+                });
+                started++;
+            }
+        } finally {
+            // anything never started (the loop was interrupted) must not hold up the barrier
+            for (int i = started; i < items.size(); i++) {
+                finished.countDown();
+            }
+        }
+        finished.await();
+        return new Result<>(succeeded.get(), new ArrayList<>(failures));
+    }
+
+    @Override
+    public void close() {
+        executor.shutdown();
+    }
+
+    private static ExecutorService newVirtualThreadExecutor() {
+        ExecutorService virtualThreads = virtualThreadPerTaskExecutor();
+        if (virtualThreads != null) {
+            return virtualThreads;
+        }
+        return Executors.newCachedThreadPool(runnable -> {
+            Thread thread = new Thread(runnable, "fan-out");
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    /**
+     * Executors.newVirtualThreadPerTaskExecutor(), if it exists.
+     */
+    private static ExecutorService virtualThreadPerTaskExecutor() {
+        try {
+            return (ExecutorService) Executors.class
+                .getMethod("newVirtualThreadPerTaskExecutor")
+                .invoke(null);
+        } catch (ReflectiveOperationException | RuntimeException e) {
+            return null;
+        }
+    }
+}
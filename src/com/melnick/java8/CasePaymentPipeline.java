@@ -0,0 +1,103 @@
+package com.melnick.java8;
+
+import com.melnick.java8.StreamExample.Case;
+
+import java.util.List;
+import java.util.Objects;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+import java.util.function.Function;
+
+/**
+ * A two stage pipeline for StreamExample.completeCasePaymentTasks(): fetch cases, then update
+ * them.
+ *
+ * The original asks the DAO for every case in one call, waits, and only then starts the workflow
+ * updates. Here the receipt numbers are cut into batches. Fetching runs on its own threads, and
+ * while the updates for batch N are running, batches N + 1, N + 2 ... are already being fetched.
+ *
+ * A Semaphore bounds how many batches may be fetched but not yet updated. Once the limit is
+ * reached, no more fetches are started until the updates catch up, so a slow workflow never
+ * piles up an unbounded number of cases in memory.
+ *
+ * Updates run on a single thread, one batch after the other, so they happen in the same order
+ * the serial version would use. The pipeline stops handing out new batches after the first
+ * failure, and {@link #run(List)} rethrows it.
+ *
+ * Both stages are plain functional interfaces, see StreamExample.completeCasePaymentTasksBatched()
+ * for how the DAO and the workflow are plugged in.
+ */
+public class CasePaymentPipeline {
+
+    private final Function<List<String>, List<Case>> fetchCases;
+    private final Consumer<Case> updateCase;
+    private final int batchSize;
+    private final int maxInFlightBatches;
+
+    /**
+     * @param fetchCases looks up the cases for one batch of receipt numbers. Called from several
+     *                   threads at once.
+     * @param updateCase runs the workflow update for one case. Only ever called from one thread.
+     * @param batchSize receipt numbers per fetch
+     * @param maxInFlightBatches how many batches may be fetched ahead of the updates
+     */
+    public CasePaymentPipeline(Function<List<String>, List<Case>> fetchCases,
+        Consumer<Case> updateCase, int batchSize, int maxInFlightBatches) {
+        if (batchSize < 1) {
+            throw new IllegalArgumentException("batchSize must be positive: " + batchSize);
+        }
+        if (maxInFlightBatches < 1) {
+            throw new IllegalArgumentException(
+                "maxInFlightBatches must be positive: " + maxInFlightBatches);
+        }
+        this.fetchCases = Objects.requireNonNull(fetchCases);
+        this.updateCase = Objects.requireNonNull(updateCase);
+        this.batchSize = batchSize;
+        this.maxInFlightBatches = maxInFlightBatches;
+    }
+
+    /**
+     * Runs every batch and waits for the last update to finish.
+     * @return the number of cases handed to the update stage
+     * @throws CompletionException wrapping the first failure of either stage
+     */
+    public long run(List<String> receiptNumbers) throws InterruptedException {
+        ExecutorService fetchers = Executors.newFixedThreadPool(maxInFlightBatches);
+        ExecutorService updater = Executors.newSingleThreadExecutor();
+        Semaphore inFlight = new Semaphore(maxInFlightBatches);
+        AtomicLong updated = new AtomicLong();
+        CompletableFuture<Void> updates = CompletableFuture.completedFuture(null);
+        try {
+            for (int from = 0; from < receiptNumbers.size(); from += batchSize) {
+                List<String> batch =
+                    receiptNumbers.subList(from, Math.min(receiptNumbers.size(), from + batchSize));
+                inFlight.acquire();
+                if (updates.isCompletedExceptionally()) {
+                    inFlight.release();
+                    break;
+                }
+                CompletableFuture<List<Case>> fetched =
+                    CompletableFuture.supplyAsync(() -> fetchCases.apply(batch), fetchers);
+                updates = updates
+                    .thenCombine(fetched, (previous, cases) -> cases)
+                    .thenAcceptAsync(cases -> {
+                        for (Case cisCase : cases) {
+                            updateCase.accept(cisCase);
+                            updated.incrementAndGet();
+                        }
+                    }, updater)
+                    .whenComplete((ignored, failure) -> inFlight.release());
+            }
+            updates.join();
+            return updated.get();
+        } finally {
+            fetchers.shutdownNow();
+            updater.shutdownNow();
+        }
+    }
+}
@@ -0,0 +1,281 @@
+package com.melnick.java8;
+
+import com.melnick.java8.StreamExample.Transaction;
+
+import java.util.AbstractCollection;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.ConcurrentModificationException;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.Objects;
+import java.util.Spliterator;
+import java.util.function.Consumer;
+import java.util.function.Predicate;
+
+/**
+ * A Collection of Transactions kept in fixed size array chunks.
+ *
+ * The point of this class is its Spliterator. A parallel stream is only as good as the
+ * Spliterator underneath it. A HashSet splits by hash bucket, so the halves can be badly uneven,
+ * and a LinkedList cannot split at all without first copying itself into an array. Here every
+ * element has an index, so a split just cuts the index range in half. Both halves know exactly how
+ * big they are (SIZED and SUBSIZED), and the work stays balanced however many times it is split.
+ *
+ * Chunks, rather than one big array, mean growing never copies the elements, only the small
+ * array of chunk references.
+ *
+ * Nulls are not allowed. Removal works, but it has to shift everything after the removed
+ * element, just like an ArrayList.
+ */
+public class ChunkedTransactionArray extends AbstractCollection<Transaction> {
+
+    private static final int CHUNK_SHIFT = 12;
+    private static final int CHUNK_SIZE = 1 << CHUNK_SHIFT;
+    private static final int CHUNK_MASK = CHUNK_SIZE - 1;
+
+    private Transaction[][] chunks = new Transaction[4][];
+    private int size;
+    private int modCount;
+
+    public ChunkedTransactionArray() {
+    }
+
+    public ChunkedTransactionArray(Collection<? extends Transaction> transactions) {
+        addAll(transactions);
+    }
+
+    Transaction get(int index) {
+        return chunks[index >>> CHUNK_SHIFT][index & CHUNK_MASK];
+    }
+
+    private void set(int index, Transaction transaction) {
+        chunks[index >>> CHUNK_SHIFT][index & CHUNK_MASK] = transaction;
+    }
+
+    @Override
+    public boolean add(Transaction transaction) {
+        Objects.requireNonNull(transaction);
+        int chunk = size >>> CHUNK_SHIFT;
+        if (chunk == chunks.length) {
+            chunks = Arrays.copyOf(chunks, chunk << 1);
+        }
+        if (chunks[chunk] == null) {
+            chunks[chunk] = new Transaction[CHUNK_SIZE];
+        }
+        chunks[chunk][size & CHUNK_MASK] = transaction;
+        size++;
+        modCount++;
+        return true;
+    }
+
+    @Override
+    public int size() {
+        return size;
+    }
+
+    @Override
+    public boolean remove(Object o) {
+        return removeIf(new Predicate<Transaction>() {
+            private boolean found;
+
+            @Override
+            public boolean test(Transaction transaction) {
+                if (!found && Objects.equals(o, transaction)) {
+                    found = true;
+                    return true;
+                }
+                return false;
+            }
+        });
+    }
+
+    /**
+     * Like ArrayList.removeIf(), the filter is called once per element, and all the calls come
+     * before anything moves: the removed elements are marked in a bitmap, and then the survivors
+     * are moved down, each once. So if the filter throws, the collection is left as it was.
+     */
+    @Override
+    public boolean removeIf(Predicate<? super Transaction> filter) {
+        Objects.requireNonNull(filter);
+        int end = size;
+        int first = 0;
+        while (first < end && !filter.test(get(first))) {
+            first++;
+        }
+        if (first == end) {
+            return false;
+        }
+        // bit i is the element at first + i
+        long[] removed = new long[(end - first + Long.SIZE - 1) / Long.SIZE];
+        removed[0] = 1L;
+        for (int i = first + 1; i < end; i++) {
+            if (filter.test(get(i))) {
+                int bit = i - first;
+                removed[bit / Long.SIZE] |= 1L << bit;
+            }
+        }
+        int kept = first;
+        for (int i = first + 1; i < end; i++) {
+            int bit = i - first;
+            if ((removed[bit / Long.SIZE] & 1L << bit) == 0) {
+                set(kept++, get(i));
+            }
+        }
+        for (int i = kept; i < end; i++) {
+            set(i, null);
+        }
+        size = kept;
+        modCount++;
+        return true;
+    }
+
+    @Override
+    public void clear() {
+        chunks = new Transaction[4][];
+        size = 0;
+        modCount++;
+    }
+
+    @Override
+    public void forEach(Consumer<? super Transaction> action) {
+        Objects.requireNonNull(action);
+        int expectedModCount = modCount;
+        for (int i = 0; i < size; i++) {
+            action.accept(get(i));
+        }
+        if (modCount != expectedModCount) {
+            throw new ConcurrentModificationException();
+        }
+    }
+
+    @Override
+    public Iterator<Transaction> iterator() {
+        return new Iterator<Transaction>() {
+            private int next;
+            private int last = -1;
+            private int expectedModCount = modCount;
+
+            @Override
+            public boolean hasNext() {
+                return next < size;
+            }
+
+            @Override
+            public Transaction next() {
+                if (modCount != expectedModCount) {
+                    throw new ConcurrentModificationException();
+                }
+                if (next >= size) {
+                    throw new NoSuchElementException();
+                }
+                last = next;
+                return get(next++);
+            }
+
+            @Override
+            public void remove() {
+                if (last < 0) {
+                    throw new IllegalStateException();
+                }
+                if (modCount != expectedModCount) {
+                    throw new ConcurrentModificationException();
+                }
+                for (int i = last; i < size - 1; i++) {
+                    set(i, get(i + 1));
+                }
+                set(--size, null);
+                next = last;
+                last = -1;
+                expectedModCount = ++modCount;
+            }
+        };
+    }
+
+    @Override
+    public Spliterator<Transaction> spliterator() {
+        return new ChunkSpliterator(0, -1, 0);
+    }
+
+    /**
+     * Covers the index range [index, fence). The fence is bound on first use, so a stream built
+     * before the last add still sees it.
+     */
+    private final class ChunkSpliterator implements Spliterator<Transaction> {
+
+        private int index;
+        private int fence;
+        private int expectedModCount;
+
+        ChunkSpliterator(int origin, int fence, int expectedModCount) {
+            this.index = origin;
+            this.fence = fence;
+            this.expectedModCount = expectedModCount;
+        }
+
+        private int getFence() {
+            if (fence < 0) {
+                expectedModCount = modCount;
+                fence = size;
+            }
+            return fence;
+        }
+
+        @Override
+        public Spliterator<Transaction> trySplit() {
+            int hi = getFence();
+            int lo = index;
+            int mid = (lo + hi) >>> 1;
+            if (lo >= mid) {
+                return null;
+            }
+            index = mid;
+            return new ChunkSpliterator(lo, mid, expectedModCount);
+        }
+
+        @Override
+        public boolean tryAdvance(Consumer<? super Transaction> action) {
+            Objects.requireNonNull(action);
+            int hi = getFence();
+            if (index >= hi) {
+                return false;
+            }
+            action.accept(get(index++));
+            if (modCount != expectedModCount) {
+                throw new ConcurrentModificationException();
+            }
+            return true;
+        }
+
+        @Override
+        public void forEachRemaining(Consumer<? super Transaction> action) {
+            Objects.requireNonNull(action);
+            int hi = getFence();
+            int i = index;
+            index = hi;
+            // one chunk at a time, so the inner loop is a plain array walk
+            while (i < hi) {
+                Transaction[] chunk = chunks[i >>> CHUNK_SHIFT];
+                int end = Math.min(hi, (i | CHUNK_MASK) + 1);
+                for (int offset = i & CHUNK_MASK, last = offset + (end - i); offset < last; offset++) {
+                    action.accept(chunk[offset]);
+                }
+                i = end;
+            }
+            if (modCount != expectedModCount) {
+                throw new ConcurrentModificationException();
+            }
+        }
+
+        @Override
+        public long estimateSize() {
+            return getFence() - index;
+        }
+
+        @Override
+        public int characteristics() {
+            return Spliterator.ORDERED | Spliterator.SIZED | Spliterator.SUBSIZED
+                | Spliterator.NONNULL;
+        }
+    }
+}
@@ -1,5 +1,7 @@
 package com.melnick.java8;
 
+import java.io.IOException;
+import java.io.OutputStream;
 import java.time.LocalDate;
 import java.util.ArrayList;
 import java.util.Collection;
@@ -107,6 +109,16 @@ public class DefaultAndStaticMethods {
                     .collect(Collectors.joining(", "));
         }
 
+        /**
+         * getListOfNames(), written straight to out as UTF-8 rather than built up as one String.
+         * Uses the same small buffers however many members there are. Does not close out.
+         */
+        static void writeListOfNames(List<Member> memberList, OutputStream out) throws IOException {
+            new StreamingJoiner(out, ", ")
+                    .addAllParallel(memberList, Member::getName)
+                    .finish();
+        }
+
         static List<LocalDate> getOrderedListOfMeetingDates(List<Member> memberList) {
             Set<LocalDate> meetingDates = new HashSet<>(); //to ensure no duplicates
             for (Member member : memberList) {
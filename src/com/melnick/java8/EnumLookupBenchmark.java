@@ -0,0 +1,141 @@
+package com.melnick.java8;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+
+import static com.melnick.java8.MicroBenchmark.params;
+
+/**
+ * The four ways MoreStreams can turn a display value back into a constant, side by side.
+ *
+ *   valueFrom        loop over values()
+ *   okValueFrom      stream over values(), Optional
+ *   betterValueFrom  stream over values(), orElseThrow()
+ *   fastValueFrom    EnumValueIndex, from a String and from a StringBuilder
+ *   sliceValueFrom   EnumValueIndex, from fields of one comma separated line: by substring(), in
+ *                    place in the String, and in place in a ByteBuffer, exact and ignoring case
+ *
+ * Each call looks up a batch of inputs, a mix of both values, and the time is reported per
+ * lookup. The inputs are all separate String instances, as they would be when parsed from a
+ * message.
+ *
+ * Usage: EnumLookupBenchmark [--json file]
+ * Iteration counts and times come from the bench.* system properties, see
+ * MicroBenchmark.fromSystemProperties(). Add -XX:+UnlockDiagnosticVMOptions or a profiler's
+ * allocation view to see the difference in garbage, which is the bigger part of the story.
+ */
+public class EnumLookupBenchmark {
+
+    private static final int INPUTS = 64;
+
+    public static void main(String[] args) throws IOException {
+        MicroBenchmark benchmark = run(MicroBenchmark.fromSystemProperties());
+        if (args.length > 1 && "--json".equals(args[0])) {
+            Files.write(Paths.get(args[1]), benchmark.toJson().getBytes(StandardCharsets.UTF_8));
+        } else {
+            System.out.println(benchmark.toJson());
+        }
+    }
+
+    static MicroBenchmark run(MicroBenchmark benchmark) {
+        MoreStreams[] constants = MoreStreams.values();
+        String[] strings = new String[INPUTS];
+        StringBuilder[] builders = new StringBuilder[INPUTS];
+        for (int i = 0; i < INPUTS; i++) {
+            String value = constants[i % constants.length].getValue();
+            strings[i] = new String(value.toCharArray());
+            builders[i] = new StringBuilder(value);
+        }
+        String line = String.join(",", strings);
+        ByteBuffer bytes = ByteBuffer.wrap(line.getBytes(StandardCharsets.US_ASCII));
+        int[] starts = new int[INPUTS];
+        int[] ends = new int[INPUTS];
+        for (int i = 0, start = 0; i < INPUTS; i++) {
+            starts[i] = start;
+            ends[i] = start + strings[i].length();
+            start = ends[i] + 1;
+        }
+        benchmark.run("valueFrom", params("input", "String"), INPUTS, () -> {
+            long sum = 0;
+            for (String input : strings) {
+                sum += unchecked(() -> MoreStreams.valueFrom(input)).ordinal();
+            }
+            return sum;
+        });
+        benchmark.run("okValueFrom", params("input", "String"), INPUTS, () -> {
+            long sum = 0;
+            for (String input : strings) {
+                sum += unchecked(() -> MoreStreams.okValueFrom(input)).ordinal();
+            }
+            return sum;
+        });
+        benchmark.run("betterValueFrom", params("input", "String"), INPUTS, () -> {
+            long sum = 0;
+            for (String input : strings) {
+                sum += unchecked(() -> MoreStreams.betterValueFrom(input)).ordinal();
+            }
+            return sum;
+        });
+        benchmark.run("fastValueFrom", params("input", "String"), INPUTS, () -> {
+            long sum = 0;
+            for (String input : strings) {
+                sum += MoreStreams.fastValueFrom(input).ordinal();
+            }
+            return sum;
+        });
+        benchmark.run("fastValueFrom", params("input", "StringBuilder"), INPUTS, () -> {
+            long sum = 0;
+            for (StringBuilder input : builders) {
+                sum += MoreStreams.fastValueFrom(input).ordinal();
+            }
+            return sum;
+        });
+        benchmark.run("sliceValueFrom", params("input", "substring"), INPUTS, () -> {
+            long sum = 0;
+            for (int i = 0; i < INPUTS; i++) {
+                sum += MoreStreams.fastValueFrom(line.substring(starts[i], ends[i])).ordinal();
+            }
+            return sum;
+        });
+        benchmark.run("sliceValueFrom", params("input", "CharSequence"), INPUTS, () -> {
+            long sum = 0;
+            for (int i = 0; i < INPUTS; i++) {
+                sum += MoreStreams.valueFrom(line, starts[i], ends[i], false,
+                    FailurePolicy.FRESH_EXCEPTION).ordinal();
+            }
+            return sum;
+        });
+        benchmark.run("sliceValueFrom", params("input", "ByteBuffer"), INPUTS, () -> {
+            long sum = 0;
+            for (int i = 0; i < INPUTS; i++) {
+                sum += MoreStreams.valueFrom(bytes, starts[i], ends[i] - starts[i], false,
+                    FailurePolicy.FRESH_EXCEPTION).ordinal();
+            }
+            return sum;
+        });
+        benchmark.run("sliceValueFrom", params("input", "ByteBuffer, ignoring case"), INPUTS, () -> {
+            long sum = 0;
+            for (int i = 0; i < INPUTS; i++) {
+                sum += MoreStreams.valueFrom(bytes, starts[i], ends[i] - starts[i], true,
+                    FailurePolicy.FRESH_EXCEPTION).ordinal();
+            }
+            return sum;
+        });
+        return benchmark;
+    }
+
+    private interface Lookup {
+        MoreStreams get() throws Exception;
+    }
+
+    private static MoreStreams unchecked(Lookup lookup) {
+        try {
+            return lookup.get();
+        } catch (Exception e) {
+            throw new IllegalStateException(e);
+        }
+    }
+}
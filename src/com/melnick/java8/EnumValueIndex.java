@@ -0,0 +1,349 @@
+package com.melnick.java8;
+
+import java.nio.ByteBuffer;
+import java.util.HashSet;
+import java.util.NoSuchElementException;
+import java.util.Objects;
+import java.util.Set;
+import java.util.function.Function;
+
+/**
+ * Looks up an enum constant by a string key, like MoreStreams.valueFrom() but without scanning
+ * values() and without allocating.
+ *
+ * values() clones the constants array on every call, and then every constant's key is compared in
+ * turn. Here the keys are put into a hash table once, sized and seeded so that no two keys land in
+ * the same slot. A lookup is then one hash, one slot, and one comparison, which is all it takes to
+ * know whether the key is there or not.
+ *
+ * The hash is String.hashCode()'s own polynomial (h = 31 * h + c), started from a seed. With seed
+ * 0 it gives exactly String.hashCode(), which a String caches, so for String lookups the hash is
+ * usually free. A different seed, or a bigger table, is only tried when the keys collide.
+ *
+ * Lookups from any CharSequence (a StringBuilder, a CharBuffer over a message) work too, and compare
+ * character by character, so no String needs to be made. So do lookups of a slice: chars start to
+ * end of a CharSequence, or length bytes of a ByteBuffer read as ISO-8859-1 (so ASCII). A key
+ * parsed out of a larger buffer is hashed and compared where it is, without a substring().
+ *
+ * Keys are case sensitive, except in getIgnoreCase(), which folds the ASCII letters A-Z to a-z and
+ * nothing else. That uses a second table, of lower cased keys. An enum with two keys that differ
+ * only in case has no such table, and getIgnoreCase() throws IllegalStateException for it.
+ */
+public final class EnumValueIndex<E extends Enum<E>> {
+
+    // How far to look for a collision free table before giving up
+    private static final int MAX_SEED = 1 << 10;
+    private static final int MAX_GROWTH = 3;
+
+    /**
+     * One collision free table. With foldCase its keys are lower cased, and so is every char
+     * looked up in it.
+     */
+    private static final class Table<E> {
+        private final String[] keys;
+        private final E[] constants;
+        private final int mask;
+        private final int seed;
+        private final boolean foldCase;
+
+        Table(String[] keys, E[] constants, int seed, boolean foldCase) {
+            this.keys = keys;
+            this.constants = constants;
+            this.mask = keys.length - 1;
+            this.seed = seed;
+            this.foldCase = foldCase;
+        }
+
+        E get(CharSequence key, int start, int end) {
+            if (key instanceof String) {
+                return get((String) key, start, end);
+            }
+            int hash = seed;
+            for (int i = start; i < end; i++) {
+                hash = 31 * hash + fold(key.charAt(i));
+            }
+            int slot = slot(hash, mask);
+            String candidate = keys[slot];
+            if (candidate == null || candidate.length() != end - start) {
+                return null;
+            }
+            for (int i = start; i < end; i++) {
+                if (candidate.charAt(i - start) != fold(key.charAt(i))) {
+                    return null;
+                }
+            }
+            return constants[slot];
+        }
+
+        /*
+         * The same for a String, where charAt() is a plain array read rather than an interface
+         * call, and the exact compare can be one regionMatches().
+         */
+        private E get(String key, int start, int end) {
+            int hash = seed;
+            if (foldCase) {
+                for (int i = start; i < end; i++) {
+                    hash = 31 * hash + toLowerAscii(key.charAt(i));
+                }
+            } else {
+                for (int i = start; i < end; i++) {
+                    hash = 31 * hash + key.charAt(i);
+                }
+            }
+            int slot = slot(hash, mask);
+            String candidate = keys[slot];
+            int length = end - start;
+            if (candidate == null || candidate.length() != length) {
+                return null;
+            }
+            if (!foldCase) {
+                return candidate.regionMatches(0, key, start, length) ? constants[slot] : null;
+            }
+            for (int i = start; i < end; i++) {
+                if (candidate.charAt(i - start) != toLowerAscii(key.charAt(i))) {
+                    return null;
+                }
+            }
+            return constants[slot];
+        }
+
+        E get(ByteBuffer buffer, int offset, int length) {
+            int end = offset + length;
+            int hash = seed;
+            for (int i = offset; i < end; i++) {
+                hash = 31 * hash + fold((char) (buffer.get(i) & 0xFF));
+            }
+            int slot = slot(hash, mask);
+            String candidate = keys[slot];
+            if (candidate == null || candidate.length() != length) {
+                return null;
+            }
+            for (int i = offset; i < end; i++) {
+                if (candidate.charAt(i - offset) != fold((char) (buffer.get(i) & 0xFF))) {
+                    return null;
+                }
+            }
+            return constants[slot];
+        }
+
+        private char fold(char c) {
+            return foldCase ? toLowerAscii(c) : c;
+        }
+    }
+
+    private final Table<E> exact;
+    private final Table<E> ignoreCase;
+    private final FailurePolicy.PreallocatedException missing;
+
+    private EnumValueIndex(Table<E> exact, Table<E> ignoreCase, String typeName) {
+        this.exact = exact;
+        this.ignoreCase = ignoreCase;
+        this.missing = new FailurePolicy.PreallocatedException("No " + typeName + " for that key");
+    }
+
+    /**
+     * @param key gives each constant's key. Keys must be distinct and not null.
+     */
+    public static <E extends Enum<E>> EnumValueIndex<E> of(Class<E> type, Function<? super E, String> key) {
+        E[] all = type.getEnumConstants();
+        String[] allKeys = new String[all.length];
+        String[] foldedKeys = new String[all.length];
+        Set<String> distinct = new HashSet<>();
+        Set<String> distinctFolded = new HashSet<>();
+        for (int i = 0; i < all.length; i++) {
+            allKeys[i] = Objects.requireNonNull(key.apply(all[i]), "key of " + all[i]);
+            if (!distinct.add(allKeys[i])) {
+                throw new IllegalArgumentException("Duplicate key in " + type.getName() + ": " + allKeys[i]);
+            }
+            foldedKeys[i] = toLowerAscii(allKeys[i]);
+            distinctFolded.add(foldedKeys[i]);
+        }
+        Table<E> exact = build(type, all, allKeys, false);
+        Table<E> ignoreCase = distinctFolded.size() == all.length ? build(type, all, foldedKeys, true) : null;
+        return new EnumValueIndex<>(exact, ignoreCase, type.getSimpleName());
+    }
+
+    private static <E extends Enum<E>> Table<E> build(Class<E> type, E[] all, String[] allKeys,
+        boolean foldCase) {
+        int minimumSize = Integer.highestOneBit(Math.max(1, all.length * 2 - 1)) << 1;
+        for (int seed = 0; seed < MAX_SEED; seed++) {
+            for (int size = minimumSize; size <= minimumSize << MAX_GROWTH; size <<= 1) {
+                Table<E> table = tryBuild(all, allKeys, size, seed, foldCase);
+                if (table != null) {
+                    return table;
+                }
+            }
+        }
+        throw new IllegalArgumentException("No collision free table for " + type.getName());
+    }
+
+    private static <E extends Enum<E>> Table<E> tryBuild(E[] all, String[] allKeys, int size,
+        int seed, boolean foldCase) {
+        String[] keys = new String[size];
+        @SuppressWarnings("unchecked")
+        E[] constants = (E[]) new Enum<?>[size];
+        for (int i = 0; i < all.length; i++) {
+            int slot = slot(hash(allKeys[i], seed), size - 1);
+            if (keys[slot] != null) {
+                return null;
+            }
+            keys[slot] = allKeys[i];
+            constants[slot] = all[i];
+        }
+        return new Table<>(keys, constants, seed, foldCase);
+    }
+
+    /**
+     * @return the constant with this key, or null if there is none (or the key is null)
+     */
+    public E get(CharSequence key) {
+        if (key == null) {
+            return null;
+        }
+        if (key instanceof String && exact.seed == 0) {
+            int slot = slot(key.hashCode(), exact.mask);
+            return key.equals(exact.keys[slot]) ? exact.constants[slot] : null;
+        }
+        return exact.get(key, 0, key.length());
+    }
+
+    /**
+     * @return the constant whose key is the chars from start (inclusive) to end (exclusive), or
+     * null if there is none
+     */
+    public E get(CharSequence key, int start, int end) {
+        checkSlice(key.length(), start, end - start);
+        return exact.get(key, start, end);
+    }
+
+    /**
+     * Reads the bytes with absolute gets, so the buffer's position and limit neither matter nor
+     * move.
+     *
+     * @return the constant whose key is the length bytes at offset, or null if there is none
+     */
+    public E get(ByteBuffer buffer, int offset, int length) {
+        checkSlice(buffer.limit(), offset, length);
+        return exact.get(buffer, offset, length);
+    }
+
+    public E getIgnoreCase(CharSequence key, int start, int end) {
+        checkSlice(key.length(), start, end - start);
+        return ignoreCaseTable().get(key, start, end);
+    }
+
+    public E getIgnoreCase(ByteBuffer buffer, int offset, int length) {
+        checkSlice(buffer.limit(), offset, length);
+        return ignoreCaseTable().get(buffer, offset, length);
+    }
+
+    /**
+     * @throws NoSuchElementException if there is no constant with this key
+     */
+    public E getOrThrow(CharSequence key) {
+        return get(key, FailurePolicy.FRESH_EXCEPTION);
+    }
+
+    /**
+     * A miss is handled the way the policy says. With ERROR_CODE it returns null.
+     *
+     * @throws NoSuchElementException if there is no constant with this key, with FRESH_EXCEPTION
+     * @throws FailurePolicy.PreallocatedException the same, with PREALLOCATED_EXCEPTION
+     */
+    public E get(CharSequence key, FailurePolicy policy) {
+        E constant = get(key);
+        if (constant != null || returnsNull(policy)) {
+            return constant;
+        }
+        throw new NoSuchElementException("No constant for key: " + key);
+    }
+
+    public E get(CharSequence key, int start, int end, boolean ignoreCase, FailurePolicy policy) {
+        E constant = ignoreCase ? getIgnoreCase(key, start, end) : get(key, start, end);
+        if (constant != null || returnsNull(policy)) {
+            return constant;
+        }
+        throw new NoSuchElementException("No constant for key: " + key.subSequence(start, end));
+    }
+
+    public E get(ByteBuffer buffer, int offset, int length, boolean ignoreCase, FailurePolicy policy) {
+        E constant = ignoreCase ? getIgnoreCase(buffer, offset, length) : get(buffer, offset, length);
+        if (constant != null || returnsNull(policy)) {
+            return constant;
+        }
+        StringBuilder key = new StringBuilder(length);
+        for (int i = offset; i < offset + length; i++) {
+            key.append((char) (buffer.get(i) & 0xFF));
+        }
+        throw new NoSuchElementException("No constant for key: " + key);
+    }
+
+    public boolean containsKey(CharSequence key) {
+        return get(key) != null;
+    }
+
+    /**
+     * @return how many slots the table has. The keys took up at most half of them.
+     */
+    int tableSize() {
+        return exact.keys.length;
+    }
+
+    int seed() {
+        return exact.seed;
+    }
+
+    /*
+     * What to do about a miss: true means return null, false means throw a fresh exception, and
+     * the preallocated one is thrown right here.
+     */
+    private boolean returnsNull(FailurePolicy policy) {
+        switch (policy) {
+            case ERROR_CODE:
+                return true;
+            case PREALLOCATED_EXCEPTION:
+                throw missing;
+            case FRESH_EXCEPTION:
+            default:
+                return false;
+        }
+    }
+
+    private Table<E> ignoreCaseTable() {
+        if (ignoreCase == null) {
+            throw new IllegalStateException("Some keys differ only in case");
+        }
+        return ignoreCase;
+    }
+
+    static int hash(CharSequence key, int seed) {
+        int hash = seed;
+        for (int i = 0, length = key.length(); i < length; i++) {
+            hash = 31 * hash + key.charAt(i);
+        }
+        return hash;
+    }
+
+    private static int slot(int hash, int mask) {
+        return (hash ^ (hash >>> 16)) & mask;
+    }
+
+    private static char toLowerAscii(char c) {
+        return c >= 'A' && c <= 'Z' ? (char) (c + ('a' - 'A')) : c;
+    }
+
+    private static String toLowerAscii(String key) {
+        char[] chars = key.toCharArray();
+        for (int i = 0; i < chars.length; i++) {
+            chars[i] = toLowerAscii(chars[i]);
+        }
+        return new String(chars);
+    }
+
+    private static void checkSlice(int length, int offset, int count) {
+        if (offset < 0 || count < 0 || offset > length - count) {
+            throw new IndexOutOfBoundsException("Offset: " + offset + ", count: " + count
+                + ", length: " + length);
+        }
+    }
+}
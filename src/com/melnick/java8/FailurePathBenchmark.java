@@ -0,0 +1,95 @@
+package com.melnick.java8;
+
+import com.melnick.java7.ProjectCoin;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+
+import static com.melnick.java8.MicroBenchmark.params;
+
+/**
+ * What a miss costs: looking up a MoreStreams value that does not exist, and ProjectCoin
+ * classifying a bad string, under each FailurePolicy.
+ *
+ *   moreStreamsMiss  valueFrom() (new Exception()), betterValueFrom() (NoSuchElementException
+ *                    from orElseThrow()), then valueFrom(value, policy) for every policy
+ *   projectCoinMiss  classify(string, policy) for every policy, over null, "" and "0"
+ *
+ * Every call runs a batch of misses, and the time is reported per miss. The stack is only a few
+ * frames deep here. In a real server, under a framework, it is often a hundred or more, and a
+ * fresh exception costs that much more, while the other two policies cost the same.
+ *
+ * Usage: FailurePathBenchmark [--json file]
+ * Iteration counts and times come from the bench.* system properties, see
+ * MicroBenchmark.fromSystemProperties().
+ */
+public class FailurePathBenchmark {
+
+    private static final int BATCH = 64;
+
+    public static void main(String[] args) throws IOException {
+        MicroBenchmark benchmark = run(MicroBenchmark.fromSystemProperties());
+        if (args.length > 1 && "--json".equals(args[0])) {
+            Files.write(Paths.get(args[1]), benchmark.toJson().getBytes(StandardCharsets.UTF_8));
+        } else {
+            System.out.println(benchmark.toJson());
+        }
+    }
+
+    static MicroBenchmark run(MicroBenchmark benchmark) {
+        String missing = "Stream C";
+
+        benchmark.run("moreStreamsMiss", params("method", "valueFrom"), BATCH, () -> {
+            long misses = 0;
+            for (int i = 0; i < BATCH; i++) {
+                try {
+                    MoreStreams.valueFrom(missing);
+                } catch (Exception e) {
+                    misses++;
+                }
+            }
+            return misses;
+        });
+        benchmark.run("moreStreamsMiss", params("method", "betterValueFrom"), BATCH, () -> {
+            long misses = 0;
+            for (int i = 0; i < BATCH; i++) {
+                try {
+                    MoreStreams.betterValueFrom(missing);
+                } catch (Exception e) {
+                    misses++;
+                }
+            }
+            return misses;
+        });
+        for (FailurePolicy policy : FailurePolicy.values()) {
+            benchmark.run("moreStreamsMiss", params("policy", policy.name()), BATCH, () -> {
+                long misses = 0;
+                for (int i = 0; i < BATCH; i++) {
+                    try {
+                        if (MoreStreams.valueFrom(missing, policy) == null) {
+                            misses++;
+                        }
+                    } catch (RuntimeException e) {
+                        misses++;
+                    }
+                }
+                return misses;
+            });
+        }
+
+        ProjectCoin projectCoin = new ProjectCoin();
+        String[] badStrings = {null, "", "0"};
+        for (FailurePolicy policy : FailurePolicy.values()) {
+            benchmark.run("projectCoinMiss", params("policy", policy.name()), BATCH, () -> {
+                long codes = 0;
+                for (int i = 0; i < BATCH; i++) {
+                    codes += projectCoin.classify(badStrings[i % badStrings.length], policy);
+                }
+                return codes;
+            });
+        }
+        return benchmark;
+    }
+}
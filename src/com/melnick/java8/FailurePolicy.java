@@ -0,0 +1,36 @@
+package com.melnick.java8;
+
+/**
+ * What a call site wants to happen when a lookup or a check fails.
+ *
+ * Most of the cost of throwing an exception is not the throw, it is new: the constructor calls
+ * fillInStackTrace(), which walks the whole stack. That is fine when failure is rare, and a
+ * problem when bad input is common, and every miss pays for a stack trace nobody reads. So the
+ * call sites that see a lot of bad input get to choose:
+ *
+ *   FRESH_EXCEPTION         a new exception with a stack trace, every time. The default
+ *                           everywhere, and the right choice when a failure is a bug.
+ *   PREALLOCATED_EXCEPTION  the same PreallocatedException instance every time, made once. It is
+ *                           still a RuntimeException, so catch blocks for that work, but not ones
+ *                           for a more specific type. The message can not say which input failed.
+ *   ERROR_CODE              nothing is thrown. The method returns its documented failure value
+ *                           (null, -1, a code) and the caller checks it.
+ */
+public enum FailurePolicy {
+    FRESH_EXCEPTION,
+    PREALLOCATED_EXCEPTION,
+    ERROR_CODE;
+
+    /**
+     * What PREALLOCATED_EXCEPTION throws. It has no stack trace, and takes no suppressed exceptions
+     * and no new stack trace, so one instance can be thrown from every thread without any of them
+     * changing it. (The JDK's own exception types give no way to turn those off.)
+     */
+    public static final class PreallocatedException extends RuntimeException {
+        private static final long serialVersionUID = 1L;
+
+        public PreallocatedException(String message) {
+            super(message, null, false, false);
+        }
+    }
+}
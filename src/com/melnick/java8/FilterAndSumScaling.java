@@ -0,0 +1,93 @@
+package com.melnick.java8;
+
+import com.melnick.java8.Functional.TransactionCollection;
+import com.melnick.java8.StreamExample.Transaction;
+import com.melnick.java8.StreamExample.TransactionStatus;
+
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.function.Predicate;
+import java.util.function.ToLongFunction;
+
+/**
+ * Measures how Functional.parallelFilterTransactionsAndSum() scales with the number of threads,
+ * for a few different collections underneath a TransactionCollection.
+ *
+ * Each run happens inside its own ForkJoinPool. A parallel stream started from inside a pool uses
+ * that pool instead of the common one, which is how the thread count is controlled.
+ *
+ * Usage: FilterAndSumScaling [transactions] [max threads]
+ * The defaults are 10,000,000 transactions and every available processor. The LinkedList and
+ * HashSet runs use a tenth as many transactions, or they take all day.
+ *
+ * Speedup is reported against the single threaded run of the same collection. Near linear
+ * speedup for the chunked collection needs a machine with that many real cores, and a heap big
+ * enough (-Xmx4g or so) that the collector stays out of the way.
+ */
+public class FilterAndSumScaling {
+
+    private static final int WARMUP_ROUNDS = 5;
+    private static final int MEASURED_ROUNDS = 10;
+
+    private static final Predicate<Transaction> IS_DONE =
+        transaction -> transaction.getStatus() == TransactionStatus.DONE;
+    private static final ToLongFunction<Transaction> SECONDS = Transaction::getTimeInSeconds;
+
+    private static volatile long sink;
+
+    public static void main(String[] args) throws Exception {
+        int size = args.length > 0 ? Integer.parseInt(args[0]) : 10_000_000;
+        int maxThreads = args.length > 1 ? Integer.parseInt(args[1])
+            : Runtime.getRuntime().availableProcessors();
+
+        List<Transaction> transactions = StreamExample.randomTransactions(size);
+        List<Transaction> smallTransactions = transactions.subList(0, size / 10);
+
+        run("chunked", TransactionCollection.chunked(transactions), maxThreads);
+        run("ArrayList", new TransactionCollection(transactions), maxThreads);
+        run("LinkedList", new TransactionCollection(new LinkedList<>(smallTransactions)), maxThreads);
+        run("HashSet", new TransactionCollection(new HashSet<>(smallTransactions)), maxThreads);
+    }
+
+    private static void run(String name, Collection<Transaction> transactions, int maxThreads)
+        throws Exception {
+        double baseline = 0;
+        // 1, 2, 4, ... and then maxThreads itself
+        for (int threads = 1; ; threads = Math.min(threads << 1, maxThreads)) {
+            double millis = time(transactions, threads);
+            if (threads == 1) {
+                baseline = millis;
+            }
+            System.out.printf("%-10s %,12d rows %3d threads %10.2f ms  speedup %5.2fx%n",
+                name, transactions.size(), threads, millis, baseline / millis);
+            if (threads >= maxThreads) {
+                break;
+            }
+        }
+    }
+
+    /**
+     * @return the average milliseconds per call, after warming up
+     */
+    private static double time(Collection<Transaction> transactions, int threads)
+        throws Exception {
+        ForkJoinPool pool = new ForkJoinPool(threads);
+        try {
+            for (int i = 0; i < WARMUP_ROUNDS; i++) {
+                sink += pool.submit(() -> Functional.parallelFilterTransactionsAndSum(
+                    transactions, IS_DONE, SECONDS)).get();
+            }
+            long start = System.nanoTime();
+            for (int i = 0; i < MEASURED_ROUNDS; i++) {
+                sink += pool.submit(() -> Functional.parallelFilterTransactionsAndSum(
+                    transactions, IS_DONE, SECONDS)).get();
+            }
+            return (System.nanoTime() - start) / 1e6 / MEASURED_ROUNDS;
+        } finally {
+            pool.shutdown();
+        }
+    }
+}
@@ -0,0 +1,73 @@
+package com.melnick.java8;
+
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.function.IntConsumer;
+
+/**
+ * Runs one task per chunk of an index range on the common ForkJoinPool.
+ *
+ * The parallel algorithms in this package all work the same way: cut [0, length) into a handful
+ * of contiguous chunks, do something to every chunk at once, and wait. This is that, and nothing
+ * more.
+ */
+final class ForkJoinRanges {
+
+    private ForkJoinRanges() {
+    }
+
+    /**
+     * How many chunks to cut length elements into, so that every chunk has at least minChunk of
+     * them and every worker gets a few chunks to balance the load.
+     */
+    static int chunks(int length, int minChunk) {
+        int byWorkers = ForkJoinPool.getCommonPoolParallelism() * 4;
+        return Math.max(1, Math.min(byWorkers, length / minChunk));
+    }
+
+    /**
+     * @return where chunk number chunk starts. Chunk number chunks is the end of the range.
+     */
+    static int chunkStart(int length, int chunk, int chunks) {
+        return (int) ((long) length * chunk / chunks);
+    }
+
+    /**
+     * Runs action(0) ... action(tasks - 1) in the common pool, and waits for all of them. With no
+     * tasks it does nothing.
+     */
+    static void forEach(int tasks, IntConsumer action) {
+        if (tasks <= 0) {
+            return;
+        }
+        if (tasks == 1) {
+            action.accept(0);
+            return;
+        }
+        ForkJoinPool.commonPool().invoke(new RangeAction(0, tasks, action));
+    }
+
+    private static final class RangeAction extends RecursiveAction {
+        private static final long serialVersionUID = 1L;
+
+        private final int from;
+        private final int to;
+        private final IntConsumer action;
+
+        RangeAction(int from, int to, IntConsumer action) {
+            this.from = from;
+            this.to = to;
+            this.action = action;
+        }
+
+        @Override
+        protected void compute() {
+            if (to - from == 1) {
+                action.accept(from);
+                return;
+            }
+            int mid = (from + to) >>> 1;
+            invokeAll(new RangeAction(from, mid, action), new RangeAction(mid, to, action));
+        }
+    }
+}
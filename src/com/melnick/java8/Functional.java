@@ -2,26 +2,44 @@ package com.melnick.java8;
 
 import com.melnick.java8.StreamExample.Transaction;
 import com.melnick.java8.StreamExample.TransactionStatus;
+import org.junit.Assert;
+import org.junit.Test;
 
 import java.time.Duration;
+import java.util.AbstractCollection;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.BitSet;
 import java.util.Collection;
+import java.util.Collections;
 import java.util.HashSet;
+import java.util.IdentityHashMap;
 import java.util.Iterator;
 import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.Objects;
 import java.util.Optional;
+import java.util.Random;
 import java.util.Set;
 import java.util.Spliterator;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
 import java.util.function.Consumer;
 import java.util.function.Function;
 import java.util.function.Predicate;
 import java.util.function.ToLongBiFunction;
 import java.util.function.ToLongFunction;
 import java.util.stream.Collectors;
+import java.util.stream.DoubleStream;
+import java.util.stream.IntStream;
+import java.util.stream.LongStream;
 import java.util.stream.Stream;
 
 import static com.melnick.java8.StreamExample.createCollection;
+import static com.melnick.java8.StreamExample.randomTransactions;
 
 /**
  * Functional programing allows you to design generic functions and provide that functionality
@@ -39,6 +57,11 @@ public class Functional {
 
     //Let's define some generic behavior. This is something that may occur in many places in a codebase.
     public Set<Transaction> filterTransactions(Collection<Transaction> transactions, Predicate<Transaction> predicate) {
+        if (transactions instanceof TransactionStore.View && predicate instanceof TransactionPredicate) {
+            //the predicate says what it is looking for, so only the matching rows are visited
+            return filterIndexed(((TransactionStore.View) transactions).store(),
+                (TransactionPredicate) predicate);
+        }
         Set<Transaction> set = new HashSet<>();
         for (Transaction transaction : transactions) {
             if (predicate.test(transaction)) {
@@ -48,6 +71,94 @@ public class Functional {
         return set;
     }
 
+    /**
+     * The plan is sampled against these transactions first (only the first time, or after it has
+     * seen the data drift), so that the cheapest and most selective test runs first.
+     */
+    public Set<Transaction> filterTransactions(Collection<Transaction> transactions, PredicatePlan<Transaction> plan) {
+        plan.prepare(transactions);
+        return filterTransactions(transactions, (Predicate<Transaction>) plan);
+    }
+
+    /**
+     * How filterTransactions() hands back what it found. Transaction does not override equals() or
+     * hashCode(), so every mode has identity semantics. They differ in what they cost.
+     */
+    public enum ResultMode {
+        /**
+         * A new HashSet, the same as filterTransactions(transactions, predicate). A hash and an
+         * entry object per match.
+         */
+        HASH_SET,
+        /**
+         * A new Set backed by an IdentityHashMap. That is an open addressing table: keys and values
+         * sit side by side in one Object[], so there is no entry object per match, and hashing is
+         * System.identityHashCode().
+         */
+        IDENTITY_SET,
+        /**
+         * Nothing is copied. The result is a read only view that tests the predicate as it is
+         * iterated, so it sees later changes to the source. size() tests every element, every
+         * time. For callers that go over the matches once.
+         */
+        VIEW,
+        /**
+         * For a TransactionStore's asCollection(): a TransactionStore.RowSet, one bit per matching
+         * row. With a TransactionPredicate the bits come straight from the index. Any other source
+         * gets an IDENTITY_SET instead.
+         */
+        ROW_SET
+    }
+
+    public Collection<Transaction> filterTransactions(Collection<Transaction> transactions,
+        Predicate<Transaction> predicate, ResultMode mode) {
+        switch (mode) {
+            case HASH_SET:
+                return filterTransactions(transactions, predicate);
+            case VIEW:
+                return new FilteredView(transactions, predicate);
+            case ROW_SET:
+                if (transactions instanceof TransactionStore.View) {
+                    return filterRows(((TransactionStore.View) transactions).store(), predicate);
+                }
+                return filterIdentities(transactions, predicate); //not indexable
+            case IDENTITY_SET:
+            default:
+                return filterIdentities(transactions, predicate);
+        }
+    }
+
+    private static Set<Transaction> filterIdentities(Collection<Transaction> transactions, Predicate<Transaction> predicate) {
+        Set<Transaction> set = Collections.newSetFromMap(new IdentityHashMap<>());
+        for (Transaction transaction : transactions) {
+            if (predicate.test(transaction)) {
+                set.add(transaction);
+            }
+        }
+        return set;
+    }
+
+    private static TransactionStore.RowSet filterRows(TransactionStore store, Predicate<Transaction> predicate) {
+        if (predicate instanceof TransactionPredicate) {
+            return store.rowSet(store.index().select((TransactionPredicate) predicate));
+        }
+        BitSet rows = new BitSet(store.size());
+        for (int row = 0; row < store.size(); row++) {
+            if (predicate.test(store.toTransaction(row))) {
+                rows.set(row);
+            }
+        }
+        return store.rowSet(rows);
+    }
+
+    private static Set<Transaction> filterIndexed(TransactionStore store, TransactionPredicate predicate) {
+        TransactionIndex index = store.index();
+        BitSet rows = index.select(predicate);
+        Set<Transaction> set = new HashSet<>();
+        index.forEach(rows, row -> set.add(store.toTransaction(row)));
+        return set;
+    }
+
     public void functionalPrograming() {
         Collection<Transaction> transactions = createCollection();
 
@@ -100,6 +211,61 @@ public class Functional {
         Set<Transaction> identTransactions = filterTransactions(transactions,
                 transaction -> transaction.getType() == StreamExample.TransactionType.IDENT);
 
+        /*
+            A TransactionPredicate is a Predicate that says what it checks. Over a TransactionStore
+            the matching rows come straight out of a bitmap index, nothing else is looked at.
+         */
+        TransactionStore store = TransactionStore.of(transactions);
+        Set<Transaction> inProgressIdents = filterTransactions(store.asCollection(),
+                TransactionPredicate.statusIs(TransactionStatus.IN_PROGRESS)
+                        .and(TransactionPredicate.typeIs(StreamExample.TransactionType.IDENT)));
+
+        /*
+            With several tests and()ed together, the order matters: whichever throws out the most
+            for the least effort should go first. A PredicatePlan works that out from a sample.
+         */
+        PredicatePlan<Transaction> plan = new PredicatePlan<Transaction>()
+                .where("took longer than 10 minutes", tookLongerThan10Minutes())
+                .where("done", Functional::isDone)
+                .where("ident", transaction -> transaction.getType() == StreamExample.TransactionType.IDENT);
+        Set<Transaction> longDoneIdents = filterTransactions(transactions, plan);
+        plan.report().forEach(System.out::println);
+
+        /*
+            Most callers only count or walk over what they filtered, and never need a copy.
+         */
+        int doneCount = filterTransactions(transactions, Functional::isDone, ResultMode.VIEW).size();
+        long inProgressIdentTime = ((TransactionStore.RowSet) filterTransactions(store.asCollection(),
+                TransactionPredicate.is(TransactionStatus.IN_PROGRESS, StreamExample.TransactionType.IDENT),
+                ResultMode.ROW_SET)).sumWaitTime();
+
+        /*
+            The same query over unchanged data gives the same answer. A TransactionCollection
+            remembers the answers until it is changed.
+         */
+        Predicate<Transaction> done = Functional::isDone;
+        long doneTime = transactionCollection.cachedSum(done, Transaction::getTimeInSeconds);
+        Set<Transaction> cachedDone = transactionCollection.cachedFilter(done);
+
+        /*
+            Or, instead of asking again and again, ask once and be told when the answer changes.
+         */
+        StandingQuery toResend = transactionCollection.register(tookLongerThan10Minutes(),
+            new StandingQuery.Listener() {
+                @Override
+                public void entered(Transaction transaction) {
+                    System.out.println("Resend: " + transaction);
+                }
+
+                @Override
+                public void left(Transaction transaction) {
+                    System.out.println("No longer needs a resend: " + transaction);
+                }
+            });
+        transactionCollection.add(new Transaction(TransactionStatus.IN_PROGRESS,
+            StreamExample.TransactionType.IDENT, (int) Duration.ofMinutes(15).getSeconds()));
+        toResend.close();
+
         Long totalDoneTransactionTime = filterTransactionsAndSum(transactions, Functional::isDone,
             Transaction::getTimeInSeconds);
 
@@ -143,13 +309,7 @@ public class Functional {
         final Predicate<T> filter,
         final Function<T, R> function) {
 
-        List<R> returnList = new ArrayList<>();
-        for (T item : inputList) {
-            if (filter.test(item)) {
-                returnList.add(function.apply(item));
-            }
-        }
-        return returnList.isEmpty() ? Optional.empty() : Optional.of(returnList);
+        return FusedOperators.filterThenMap(inputList, filter, function); //one sized list, one loop
     }
 
 
@@ -168,12 +328,7 @@ public class Functional {
         final Function<T, R> mappingFunction,
         final Predicate<R> filter) {
 
-        List<R> returnList = inputList.stream()
-            .map(mappingFunction)
-            .filter(filter)
-            .collect(Collectors.toList());
-
-        return returnList.isEmpty() ? Optional.empty() : Optional.of(returnList);
+        return FusedOperators.mapThenFilter(inputList, mappingFunction, filter); //map and filter in one loop
     }
 
 
@@ -200,6 +355,297 @@ public class Functional {
             name -> name.toLowerCase().contains("l"));
     }
 
+    /*
+    * The fused loops, sequential and parallel, against the stream pipelines they replace. Nothing
+    * matching is an empty Optional (or an empty array), not an empty list.
+    * */
+    @Test
+    public void fusedOperatorsMatchStreams() {
+        ForkJoinRanges.forEach(0, chunk -> Assert.fail("no chunks, nothing to run"));
+        for (int size : new int[] {0, 10, 200_000}) {
+            List<Integer> numbers = new Random(size).ints(size, -1000, 1000).boxed()
+                .collect(Collectors.toList());
+            Predicate<Integer> even = number -> number % 2 == 0;
+            Function<Integer, String> name = number -> "#" + number;
+            Optional<List<String>> expected = optional(numbers.stream().filter(even).map(name)
+                .collect(Collectors.toList()));
+            Assert.assertEquals(expected, filterThenMap(numbers, even, name));
+            Assert.assertEquals(expected, FusedOperators.parallelFilterThenMap(numbers, even, name));
+            Assert.assertEquals(optional(numbers.stream().map(name).filter(text -> text.endsWith("7"))
+                .collect(Collectors.toList())), mapThenFilter(numbers, name, text -> text.endsWith("7")));
+
+            Assert.assertEquals(Optional.empty(), filterThenMap(numbers, number -> number > 1000, name));
+            Assert.assertEquals(Optional.empty(),
+                FusedOperators.parallelFilterThenMap(numbers, number -> number > 1000, name));
+            Assert.assertEquals(Optional.empty(), mapThenFilter(numbers, name, String::isEmpty));
+
+            int[] ints = numbers.stream().mapToInt(Integer::intValue).toArray();
+            int[] filteredThenMapped = IntStream.of(ints).filter(i -> i > 0).map(i -> i * 3).toArray();
+            Assert.assertArrayEquals(filteredThenMapped,
+                FusedOperators.filterThenMap(ints, i -> i > 0, i -> i * 3));
+            Assert.assertArrayEquals(filteredThenMapped,
+                FusedOperators.parallelFilterThenMap(ints, i -> i > 0, i -> i * 3));
+            Assert.assertArrayEquals(filteredThenMapped,
+                FusedOperators.filterThenMapToInt(numbers, number -> number > 0, number -> number * 3));
+            int[] mappedThenFiltered = IntStream.of(ints).map(i -> i - 7).filter(i -> i % 5 == 0).toArray();
+            Assert.assertArrayEquals(mappedThenFiltered,
+                FusedOperators.mapThenFilter(ints, i -> i - 7, i -> i % 5 == 0));
+            Assert.assertArrayEquals(mappedThenFiltered,
+                FusedOperators.parallelMapThenFilter(ints, i -> i - 7, i -> i % 5 == 0));
+            Assert.assertArrayEquals(new int[0], FusedOperators.parallelFilterThenMap(ints, i -> false, i -> i));
+
+            long[] longs = LongStream.of(FusedOperators.filterThenMapToLong(numbers, even, number -> number * 10L))
+                .toArray();
+            Assert.assertArrayEquals(numbers.stream().filter(even).mapToLong(number -> number * 10L).toArray(), longs);
+            Assert.assertArrayEquals(LongStream.of(longs).map(l -> l + 1).filter(l -> l > 0).toArray(),
+                FusedOperators.mapThenFilter(longs, l -> l + 1, l -> l > 0));
+            double[] doubles = FusedOperators.filterThenMapToDouble(numbers, even, number -> number / 4.0);
+            Assert.assertArrayEquals(numbers.stream().filter(even).mapToDouble(number -> number / 4.0).toArray(),
+                doubles, 0);
+            Assert.assertArrayEquals(DoubleStream.of(doubles).filter(d -> d < 0).map(Math::abs).toArray(),
+                FusedOperators.filterThenMap(doubles, d -> d < 0, Math::abs), 0);
+        }
+    }
+
+    private static <T> Optional<List<T>> optional(List<T> list) {
+        return list.isEmpty() ? Optional.empty() : Optional.of(list);
+    }
+
+    /*
+    * The most selective test goes first. "Under a minute" and "under two minutes" pick out nearly
+    * the same transactions, so the second one passes almost everything the first lets through;
+    * that is not drift. Data where everything is under a minute is.
+    * */
+    @Test
+    public void predicatePlanOrderAndDrift() {
+        List<Transaction> transactions = randomTransactions(20_000);
+        Predicate<Transaction> underAMinute = transaction -> transaction.getTimeInSeconds() < 60;
+        Predicate<Transaction> underTwoMinutes = transaction -> transaction.getTimeInSeconds() < 120;
+        Predicate<Transaction> notIafis = transaction -> transaction.getType() != StreamExample.TransactionType.IAFIS;
+        //the same cost for all three, so the order comes from selectivity alone and not from timing
+        PredicatePlan<Transaction> plan = new PredicatePlan<Transaction>()
+                .where("not IAFIS", notIafis, 1)
+                .where("under two minutes", underTwoMinutes, 1)
+                .where("under a minute", underAMinute, 1)
+                .setReplanInterval(4096);
+        Predicate<Transaction> inOrder = notIafis.and(underTwoMinutes).and(underAMinute);
+
+        for (int i = 0; i < 3; i++) {
+            Assert.assertEquals(filterTransactions(transactions, inOrder), filterTransactions(transactions, plan));
+        }
+        //the sample is fixed (seed 42), and has transactions between one and two minutes
+        Assert.assertEquals(Arrays.asList("under a minute", "under two minutes", "not IAFIS"), names(plan));
+        Assert.assertFalse(plan.isStale());
+        Assert.assertTrue(plan.report().get(0).getActualSelectivity() < 0.1);
+
+        List<Transaction> quick = new ArrayList<>();
+        for (Transaction transaction : transactions) {
+            quick.add(new Transaction(transaction.getStatus(), transaction.getType(),
+                    transaction.getTimeInSeconds() % 60));
+        }
+        Assert.assertEquals(filterTransactions(quick, inOrder), filterTransactions(quick, plan));
+        Assert.assertTrue(plan.isStale());
+        Assert.assertEquals("not IAFIS", names(plan).get(0));
+
+        plan.prepare(quick);
+        Assert.assertFalse(plan.isStale());
+        Assert.assertEquals("not IAFIS", names(plan).get(0));
+        Assert.assertEquals(filterTransactions(quick, inOrder), filterTransactions(quick, plan));
+        Assert.assertFalse(plan.isStale());
+    }
+
+    private static List<String> names(PredicatePlan<?> plan) {
+        List<String> names = new ArrayList<>();
+        for (PredicatePlan.ConjunctReport conjunct : plan.report()) {
+            names.add(conjunct.getName());
+        }
+        return names;
+    }
+
+    /*
+    * Every mode finds the same transactions as a HashSet would. A VIEW sees later changes, a
+    * ROW_SET only comes out of a TransactionStore, and from anywhere else it is an IDENTITY_SET.
+    * */
+    @Test
+    public void resultModes() {
+        List<Transaction> transactions = new ArrayList<>(createCollection());
+        Predicate<Transaction> done = Functional::isDone;
+        Set<Transaction> expected = filterTransactions(transactions, done);
+
+        Collection<Transaction> view = filterTransactions(transactions, done, ResultMode.VIEW);
+        Assert.assertEquals(expected, new HashSet<>(view));
+        Assert.assertEquals(expected.size(), view.size());
+        Transaction late = new Transaction(TransactionStatus.DONE, StreamExample.TransactionType.IDENT, 10);
+        transactions.add(late);
+        Assert.assertEquals(expected.size() + 1, view.size());
+        Assert.assertTrue(view.contains(late));
+        transactions.remove(late);
+
+        Collection<Transaction> identities = filterTransactions(transactions, done, ResultMode.IDENTITY_SET);
+        Assert.assertEquals(expected, identities);
+        Assert.assertEquals(expected, filterTransactions(transactions, done, ResultMode.ROW_SET));
+        Assert.assertFalse(filterTransactions(transactions, done, ResultMode.ROW_SET) instanceof TransactionStore.RowSet);
+
+        TransactionStore store = TransactionStore.of(transactions);
+        for (Predicate<Transaction> predicate : Arrays.<Predicate<Transaction>>asList(done,
+                TransactionPredicate.statusIs(TransactionStatus.DONE))) {
+            Collection<Transaction> rows = filterTransactions(store.asCollection(), predicate, ResultMode.ROW_SET);
+            Assert.assertTrue(rows instanceof TransactionStore.RowSet);
+            Assert.assertEquals(expected.size(), rows.size());
+            Assert.assertEquals(store.sumWaitTime(TransactionStatus.DONE), ((TransactionStore.RowSet) rows).sumWaitTime());
+            for (Transaction transaction : rows) {
+                Assert.assertEquals(TransactionStatus.DONE, transaction.getStatus());
+            }
+        }
+    }
+
+    /*
+    * The same query at the same version is a hit and the very same result. Any change through the
+    * collection is a new version, so the next ask is a miss that sees the change.
+    * */
+    @Test
+    public void cachedQueries() {
+        TransactionCollection transactions = new TransactionCollection(new ArrayList<>(createCollection()));
+        Predicate<Transaction> done = Functional::isDone;
+        ToLongFunction<Transaction> seconds = Transaction::getTimeInSeconds;
+
+        Set<Transaction> doneSet = transactions.cachedFilter(done);
+        long doneTime = transactions.cachedSum(done, seconds);
+        Assert.assertEquals(filterTransactions(transactions, done), doneSet);
+        Assert.assertEquals(90, doneTime);
+        Assert.assertEquals(0, transactions.getCacheHits());
+        Assert.assertEquals(2, transactions.getCacheMisses());
+
+        Assert.assertSame(doneSet, transactions.cachedFilter(done));
+        Assert.assertEquals(doneTime, transactions.cachedSum(done, seconds));
+        Assert.assertEquals(2, transactions.getCacheHits());
+        transactions.cachedFilter(Functional::isDone);  //a different lambda is a different query
+        Assert.assertEquals(3, transactions.getCacheMisses());
+
+        long version = transactions.version();
+        transactions.add(new Transaction(TransactionStatus.DONE, StreamExample.TransactionType.ABIS, 15));
+        Assert.assertEquals(version + 1, transactions.version());
+        Assert.assertEquals(105, transactions.cachedSum(done, seconds));
+        Assert.assertEquals(doneSet.size() + 1, transactions.cachedFilter(done).size());
+        Assert.assertEquals(5, transactions.getCacheMisses());
+
+        transactions.update(doneSet.iterator().next(), transaction -> transaction.setStatus(TransactionStatus.SENDING));
+        Assert.assertEquals(doneSet.size(), transactions.cachedFilter(done).size());
+        Assert.assertEquals(2, transactions.getCacheHits());
+
+        QueryCache cache = new QueryCache(2);
+        Object query = new Object();
+        Assert.assertEquals("v1", cache.get("kind", query, null, 1, () -> "v1"));
+        Assert.assertEquals("v2", cache.get("kind", query, null, 2, () -> "v2"));
+        Assert.assertEquals("v1", cache.get("kind", query, null, 1, () -> "recomputed"));
+        Assert.assertEquals("v3", cache.get("kind", query, null, 3, () -> "v3"));  //pushes out v2
+        Assert.assertEquals(2, cache.size());
+        Assert.assertEquals("recomputed", cache.get("kind", query, null, 2, () -> "recomputed"));
+        Assert.assertEquals(1, cache.hits());
+        Assert.assertEquals(4, cache.misses());
+    }
+
+    /*
+    * A standing query only tells its listener when a transaction really moves in or out. One that
+    * is in the collection twice stays in the result until both copies are gone.
+    * */
+    @Test
+    public void standingQueryDeltas() {
+        List<Transaction> list = new ArrayList<>(createCollection());
+        Transaction twice = new Transaction(TransactionStatus.DONE, StreamExample.TransactionType.IDENT, 40);
+        list.add(twice);
+        list.add(twice);
+        TransactionCollection transactions = new TransactionCollection(list);
+        List<Transaction> entered = new ArrayList<>();
+        List<Transaction> left = new ArrayList<>();
+        StandingQuery done = transactions.register(Functional::isDone, new StandingQuery.Listener() {
+            @Override
+            public void entered(Transaction transaction) {
+                entered.add(transaction);
+            }
+
+            @Override
+            public void left(Transaction transaction) {
+                left.add(transaction);
+            }
+        });
+        Assert.assertEquals(filterTransactions(transactions, Functional::isDone), done.results());
+        Assert.assertEquals(3, done.size());
+        Assert.assertTrue(entered.isEmpty());
+
+        Transaction late = new Transaction(TransactionStatus.DONE, StreamExample.TransactionType.ABIS, 15);
+        transactions.add(late);
+        transactions.add(new Transaction(TransactionStatus.SENDING, StreamExample.TransactionType.ABIS, 15));
+        Assert.assertEquals(Collections.singletonList(late), entered);
+
+        transactions.remove(twice);
+        Assert.assertTrue(left.isEmpty());
+        Assert.assertTrue(done.results().contains(twice));
+        transactions.remove(twice);
+        Assert.assertEquals(Collections.singletonList(twice), left);
+        Assert.assertFalse(done.results().contains(twice));
+
+        Transaction sending = list.get(4);
+        transactions.update(sending, transaction -> transaction.setStatus(TransactionStatus.DONE));
+        transactions.update(sending, transaction -> transaction.setStatus(TransactionStatus.DONE));
+        Assert.assertEquals(Arrays.asList(late, sending), entered);
+        transactions.update(late, transaction -> transaction.setStatus(TransactionStatus.IN_PROGRESS));
+        Assert.assertEquals(Arrays.asList(twice, late), left);
+        transactions.update(twice, transaction -> transaction.setStatus(TransactionStatus.DONE)); //gone already
+        Assert.assertEquals(filterTransactions(transactions, Functional::isDone), done.results());
+        Assert.assertEquals(2, entered.size());
+
+        done.close();
+        transactions.add(new Transaction(TransactionStatus.DONE, StreamExample.TransactionType.ABIS, 15));
+        Assert.assertEquals(2, entered.size());
+    }
+
+    /*
+    * Threads adding while queries are registered: every query ends up with exactly the matches,
+    * and hears about each one that came after it no more than once.
+    * */
+    @Test
+    public void standingQueryConcurrentAdds() throws InterruptedException {
+        TransactionCollection transactions = TransactionCollection.concurrent(Collections.emptyList());
+        List<StandingQuery> queries = new ArrayList<>();
+        List<Set<Transaction>> entered = new ArrayList<>();
+        List<Transaction> all = randomTransactions(40_000);
+        Thread[] adders = new Thread[4];
+        for (int i = 0; i < adders.length; i++) {
+            List<Transaction> share = all.subList(i * 10_000, (i + 1) * 10_000);
+            adders[i] = new Thread(() -> share.forEach(transactions::add));
+        }
+        for (Thread adder : adders) {
+            adder.start();
+        }
+        for (int i = 0; i < 20; i++) {
+            Set<Transaction> heard = Collections.newSetFromMap(new IdentityHashMap<>());
+            entered.add(heard);
+            queries.add(transactions.register(Functional::isDone, new StandingQuery.Listener() {
+                @Override
+                public void entered(Transaction transaction) {
+                    Assert.assertTrue(heard.add(transaction));
+                }
+
+                @Override
+                public void left(Transaction transaction) {
+                    Assert.fail("nothing is removed");
+                }
+            }));
+            Thread.yield();
+        }
+        for (Thread adder : adders) {
+            adder.join();
+        }
+
+        Set<Transaction> expected = Collections.newSetFromMap(new IdentityHashMap<>());
+        expected.addAll(filterTransactions(all, Functional::isDone));
+        for (int i = 0; i < queries.size(); i++) {
+            Assert.assertEquals(expected, queries.get(i).results());
+            Assert.assertTrue(expected.containsAll(entered.get(i)));
+        }
+    }
+
 
 
 
@@ -221,7 +667,7 @@ public class Functional {
 
 
 
-    private static Long filterTransactionsAndSum(Collection<Transaction> transactions,
+    static Long filterTransactionsAndSum(Collection<Transaction> transactions,
         Predicate<Transaction> predicate, ToLongFunction<Transaction> function) {
         return transactions.stream()
             .filter(predicate)
@@ -229,6 +675,17 @@ public class Functional {
             .sum();
     }
 
+    /*
+     * The same, in parallel. How well this scales depends almost entirely on how well the
+     * collection's Spliterator splits. See TransactionCollection.chunked().
+     */
+    static Long parallelFilterTransactionsAndSum(Collection<Transaction> transactions,
+        Predicate<Transaction> predicate, ToLongFunction<Transaction> function) {
+        return transactions.parallelStream()
+            .filter(predicate)
+            .mapToLong(function)
+            .sum();
+    }
 
 
 
@@ -236,12 +693,175 @@ public class Functional {
 
 
 
-    class TransactionCollection implements Collection<Transaction> {
+
+    /**
+     * The elements of a collection that pass a predicate, worked out as they are asked for.
+     */
+    private static final class FilteredView extends AbstractCollection<Transaction> {
+
+        private final Collection<Transaction> source;
+        private final Predicate<Transaction> predicate;
+
+        FilteredView(Collection<Transaction> source, Predicate<Transaction> predicate) {
+            this.source = source;
+            this.predicate = predicate;
+        }
+
+        @Override
+        public Iterator<Transaction> iterator() {
+            Iterator<Transaction> iterator = source.iterator();
+            return new Iterator<Transaction>() {
+                private Transaction next;
+                private boolean hasNext;
+
+                @Override
+                public boolean hasNext() {
+                    while (!hasNext && iterator.hasNext()) {
+                        Transaction transaction = iterator.next();
+                        if (predicate.test(transaction)) {
+                            next = transaction;
+                            hasNext = true;
+                        }
+                    }
+                    return hasNext;
+                }
+
+                @Override
+                public Transaction next() {
+                    if (!hasNext()) {
+                        throw new NoSuchElementException();
+                    }
+                    hasNext = false;
+                    return next;
+                }
+            };
+        }
+
+        @Override
+        public void forEach(Consumer<? super Transaction> action) {
+            source.forEach(transaction -> {
+                if (predicate.test(transaction)) {
+                    action.accept(transaction);
+                }
+            });
+        }
+
+        @Override
+        public int size() {
+            int size = 0;
+            for (Transaction transaction : source) {
+                if (predicate.test(transaction)) {
+                    size++;
+                }
+            }
+            return size;
+        }
+
+        @Override
+        public Stream<Transaction> stream() {
+            return source.stream().filter(predicate);
+        }
+
+        @Override
+        public Stream<Transaction> parallelStream() {
+            return source.parallelStream().filter(predicate);
+        }
+    }
+
+    static class TransactionCollection implements Collection<Transaction> {
+
+        private static final Object FILTER = "filter";
+        private static final Object SUM = "sum";
 
         private final Collection<Transaction> collection;
+        //the same collection when it is a SegmentedTransactionCollection, whose adds take no lock
+        private final SegmentedTransactionCollection segmented;
+        private final QueryCache cache;
+
+        //bumped on every change made through this collection, possibly from several threads. Only
+        //ever compared for equality, which a LongAdder's sum is good enough for
+        private final LongAdder version = new LongAdder();
+
+        private final List<Registration> listeners = new CopyOnWriteArrayList<>();
+
+        //every change holds the read lock while it is made and heard about, so that register()
+        //(the write lock) never sees half of one. Except adds to a segmented collection, see
+        //addConcurrently()
+        private final ReadWriteLock changeLock = new ReentrantReadWriteLock();
+
+        /**
+         * Hears about every change made through a TransactionCollection, as it is made. Called on
+         * the thread making the change, so keep it quick.
+         */
+        public interface ChangeListener {
+            void added(Transaction transaction);
+
+            void removed(Transaction transaction);
+
+            /**
+             * @param before a copy of the transaction as it was before the update
+             */
+            void updated(Transaction transaction, Transaction before);
+        }
 
         public TransactionCollection(Collection<Transaction> collection) {
+            this(collection, QueryCache.DEFAULT_CAPACITY);
+        }
+
+        /**
+         * @param cacheCapacity how many query results cachedFilter() and cachedSum() keep
+         */
+        public TransactionCollection(Collection<Transaction> collection, int cacheCapacity) {
             this.collection = collection;
+            this.segmented = collection instanceof SegmentedTransactionCollection
+                ? (SegmentedTransactionCollection) collection : null;
+            this.cache = new QueryCache(cacheCapacity);
+        }
+
+        /**
+         * A listener, and the index in a segmented collection from which it hears about adds.
+         * Anything before that was in the scan it started with.
+         */
+        private static final class Registration {
+            private static final int PENDING = -1;
+
+            final ChangeListener listener;
+            private volatile int from;
+
+            Registration(ChangeListener listener, int from) {
+                this.listener = listener;
+                this.from = from;
+            }
+
+            boolean hears(int index) {
+                int from;
+                //only for the few instructions between publishing a registration and reading the size
+                while ((from = this.from) == PENDING) {
+                    Thread.yield();
+                }
+                return index >= from;
+            }
+        }
+
+        /**
+         * Copies the transactions into a ChunkedTransactionArray, whatever they came in. Its
+         * Spliterator splits evenly, so parallelStream() scales with the number of cores no
+         * matter if the source was a HashSet, a LinkedList, or anything else.
+         */
+        public static TransactionCollection chunked(Collection<Transaction> transactions) {
+            return new TransactionCollection(new ChunkedTransactionArray(transactions));
+        }
+
+        /**
+         * Backed by a SegmentedTransactionCollection, so any number of threads may add at once
+         * without a lock, and reads and streams see a snapshot. Removing is not supported. Any
+         * listeners are called from the adding threads, so they must be thread safe themselves.
+         *
+         * Registering a query does not stop the adders either: it scans the transactions added
+         * before it, and hears about every one added after. Updates still wait for it.
+         */
+        public static TransactionCollection concurrent(Collection<Transaction> transactions) {
+            return new TransactionCollection(new SegmentedTransactionCollection(transactions));
         }
 
 
@@ -249,6 +869,152 @@ public class Functional {
             return transaction.getTimeInSeconds() > Duration.ofMinutes(10).getSeconds();
         }
 
+        /**
+         * Counts the changes made through this collection. Changes made straight to the collection
+         * it wraps are not seen, so don't make any if you use the cached queries.
+         */
+        public long version() {
+            return version.sum();
+        }
+
+        /**
+         * The same as filterTransactions(this, predicate), but cached until this collection
+         * changes. The set is shared with other callers, so it can not be modified.
+         */
+        public Set<Transaction> cachedFilter(Predicate<Transaction> predicate) {
+            return cache.get(FILTER, predicate, null, version(), () -> {
+                Set<Transaction> set = new HashSet<>();
+                for (Transaction transaction : collection) {
+                    if (predicate.test(transaction)) {
+                        set.add(transaction);
+                    }
+                }
+                return Collections.unmodifiableSet(set);
+            });
+        }
+
+        /**
+         * The same as filterTransactionsAndSum(this, predicate, function), but cached until this
+         * collection changes.
+         */
+        public long cachedSum(Predicate<Transaction> predicate, ToLongFunction<Transaction> function) {
+            return cache.get(SUM, predicate, function, version(),
+                () -> filterTransactionsAndSum(collection, predicate, function));
+        }
+
+        public long getCacheHits() {
+            return cache.hits();
+        }
+
+        public long getCacheMisses() {
+            return cache.misses();
+        }
+
+        public void addListener(ChangeListener listener) {
+            listeners.add(new Registration(Objects.requireNonNull(listener), 0));
+        }
+
+        public void removeListener(ChangeListener listener) {
+            listeners.removeIf(registration -> registration.listener == listener);
+        }
+
+        /**
+         * Registers a query that keeps its result up to date as this collection changes, instead
+         * of being run again. The current matches are its starting result, without notifications.
+         * Every change after that costs each registered query a predicate test and a hash lookup,
+         * however large the collection is.
+         *
+         * Changes wait while the collection is scanned, so none is missed or counted twice.
+         */
+        public StandingQuery register(Predicate<Transaction> predicate, StandingQuery.Listener listener) {
+            StandingQuery query = new StandingQuery(this, predicate, listener);
+            addListener(query, query::initial);
+            return query;
+        }
+
+        /**
+         * Adds the listener, and hands initial exactly the transactions it will not hear about,
+         * before it hears about anything. Use it to start from what is in the collection now: a
+         * scan followed by addListener(listener) misses whatever is added in between.
+         *
+         * Changes wait while initial runs, except adds to a concurrent() collection.
+         */
+        public void addListener(ChangeListener listener, Consumer<Iterable<Transaction>> initial) {
+            Objects.requireNonNull(listener);
+            Lock lock = changeLock.writeLock();
+            lock.lock();
+            try {
+                if (segmented == null) {
+                    listeners.add(new Registration(listener, 0));
+                    initial.accept(collection);
+                    return;
+                }
+                //an adder that misses the registration claimed its index before the size is read
+                //below, so the scan has it. One that sees the registration waits for the size
+                Registration registration = new Registration(listener, Registration.PENDING);
+                listeners.add(registration);
+                int end = segmented.size();
+                registration.from = end;
+                initial.accept(() -> segmented.iterator(end));
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        /**
+         * Changes a transaction in this collection, and tells the listeners what it was before.
+         * Transactions changed any other way are not noticed.
+         */
+        public void update(Transaction transaction, Consumer<? super Transaction> mutation) {
+            Lock lock = changeLock.readLock();
+            lock.lock();
+            try {
+                if (listeners.isEmpty()) {
+                    mutation.accept(transaction);
+                    version.increment();
+                    return;
+                }
+                Transaction before = new Transaction(transaction.getStatus(), transaction.getType(),
+                    transaction.getTimeInSeconds());
+                before.setRecord(transaction.getRecord());
+                mutation.accept(transaction);
+                version.increment();
+                for (Registration registration : listeners) {
+                    registration.listener.updated(transaction, before);
+                }
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        private void added(Transaction transaction) {
+            version.increment();
+            for (Registration registration : listeners) {
+                registration.listener.added(transaction);
+            }
+        }
+
+        /**
+         * No lock at all: the index an add lands at says which listeners already have it.
+         */
+        private boolean addConcurrently(Transaction transaction) {
+            int index = segmented.append(transaction);
+            version.increment();
+            for (Registration registration : listeners) {
+                if (registration.hears(index)) {
+                    registration.listener.added(transaction);
+                }
+            }
+            return true;
+        }
+
+        private void removed(Transaction transaction) {
+            version.increment();
+            for (Registration registration : listeners) {
+                registration.listener.removed(transaction);
+            }
+        }
+
 
         @Override
         public int size() {
@@ -267,7 +1033,32 @@ public class Functional {
 
         @Override
         public Iterator<Transaction> iterator() {
-            return collection.iterator();
+            Iterator<Transaction> iterator = collection.iterator();
+            return new Iterator<Transaction>() {
+                private Transaction last;
+
+                @Override
+                public boolean hasNext() {
+                    return iterator.hasNext();
+                }
+
+                @Override
+                public Transaction next() {
+                    return last = iterator.next();
+                }
+
+                @Override
+                public void remove() {
+                    Lock lock = changeLock.readLock();
+                    lock.lock();
+                    try {
+                        iterator.remove();
+                        removed(last);
+                    } finally {
+                        lock.unlock();
+                    }
+                }
+            };
         }
 
         @Override
@@ -287,12 +1078,35 @@ public class Functional {
 
         @Override
         public boolean add(Transaction t) {
-            return collection.add(t);
+            if (segmented != null) {
+                return addConcurrently(t);
+            }
+            Lock lock = changeLock.readLock();
+            lock.lock();
+            try {
+                if (!collection.add(t)) {
+                    return false;
+                }
+                added(t);
+                return true;
+            } finally {
+                lock.unlock();
+            }
         }
 
         @Override
         public boolean remove(Object o) {
-            return collection.remove(o);
+            Lock lock = changeLock.readLock();
+            lock.lock();
+            try {
+                if (!collection.remove(o)) {
+                    return false;
+                }
+                removed((Transaction) o);
+                return true;
+            } finally {
+                lock.unlock();
+            }
         }
 
         @Override
@@ -302,27 +1116,66 @@ public class Functional {
 
         @Override
         public boolean addAll(Collection<? extends Transaction> c) {
-            return collection.addAll(c);
+            boolean modified = false;
+            for (Transaction t : c) {
+                modified |= add(t);
+            }
+            return modified;
         }
 
         @Override
         public boolean removeAll(Collection<?> c) {
-            return collection.removeAll(c);
+            return removeIf(c::contains);
         }
 
         @Override
         public boolean removeIf(Predicate<? super Transaction> filter) {
-            return collection.removeIf(filter);
+            Lock lock = changeLock.readLock();
+            lock.lock();
+            try {
+                if (listeners.isEmpty()) {
+                    if (!collection.removeIf(filter)) {
+                        return false;
+                    }
+                    version.increment();
+                    return true;
+                }
+                List<Transaction> removed = new ArrayList<>();
+                collection.removeIf(t -> {
+                    if (filter.test(t)) {
+                        removed.add(t);
+                        return true;
+                    }
+                    return false;
+                });
+                removed.forEach(this::removed);
+                return !removed.isEmpty();
+            } finally {
+                lock.unlock();
+            }
         }
 
         @Override
         public boolean retainAll(Collection<?> c) {
-            return collection.retainAll(c);
+            return removeIf(t -> !c.contains(t));
         }
 
         @Override
         public void clear() {
-            collection.clear();
+            Lock lock = changeLock.readLock();
+            lock.lock();
+            try {
+                if (listeners.isEmpty()) {
+                    collection.clear();
+                    version.increment();
+                    return;
+                }
+                List<Transaction> removed = new ArrayList<>(collection);
+                collection.clear();
+                removed.forEach(this::removed);
+            } finally {
+                lock.unlock();
+            }
         }
 
         @Override
@@ -0,0 +1,299 @@
+package com.melnick.java8;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Optional;
+import java.util.RandomAccess;
+import java.util.function.DoublePredicate;
+import java.util.function.DoubleUnaryOperator;
+import java.util.function.Function;
+import java.util.function.IntPredicate;
+import java.util.function.IntUnaryOperator;
+import java.util.function.LongPredicate;
+import java.util.function.LongUnaryOperator;
+import java.util.function.Predicate;
+import java.util.function.ToDoubleFunction;
+import java.util.function.ToIntFunction;
+import java.util.function.ToLongFunction;
+
+/**
+ * Filter and map fused into a single loop, for Functional.filterThenMap() and mapThenFilter()
+ * style code in hot loops.
+ *
+ * There are three families:
+ *
+ * The generic ones are what Functional.filterThenMap() and mapThenFilter() call. They return an
+ * empty Optional when nothing matched, and size the result list from the input up front, so it
+ * never has to grow.
+ *
+ * The primitive ones take IntPredicate, ToIntFunction and friends, so nothing is boxed. They
+ * return a trimmed array, empty when nothing matched. Matches are written into an array the size
+ * of the input and copied once at the end, so the whole call allocates two arrays no matter how
+ * many elements there are. (One, when everything matches.)
+ *
+ * The parallel ones cut the input into chunks and run them on the common ForkJoinPool. Each chunk
+ * collects its matches, then the chunks are stitched together in order, so the result is the same
+ * as the sequential one. Below PARALLEL_THRESHOLD elements they just run sequentially. The
+ * functions passed in will be called from several threads at once.
+ */
+public final class FusedOperators {
+
+    static final int PARALLEL_THRESHOLD = 1 << 14;
+
+    private FusedOperators() {
+    }
+
+    /*
+     * Generic, behind Functional.filterThenMap() and mapThenFilter().
+     */
+
+    public static <T, R> Optional<List<R>> filterThenMap(List<T> inputList,
+        Predicate<? super T> filter, Function<? super T, ? extends R> function) {
+        List<R> returnList = new ArrayList<>(inputList.size());
+        for (T item : inputList) {
+            if (filter.test(item)) {
+                returnList.add(function.apply(item));
+            }
+        }
+        return returnList.isEmpty() ? Optional.empty() : Optional.of(returnList);
+    }
+
+    public static <T, R> Optional<List<R>> mapThenFilter(List<T> inputList,
+        Function<? super T, ? extends R> mappingFunction, Predicate<? super R> filter) {
+        List<R> returnList = new ArrayList<>(inputList.size());
+        for (T item : inputList) {
+            R mapped = mappingFunction.apply(item);
+            if (filter.test(mapped)) {
+                returnList.add(mapped);
+            }
+        }
+        return returnList.isEmpty() ? Optional.empty() : Optional.of(returnList);
+    }
+
+    /*
+     * From objects to primitives.
+     */
+
+    public static <T> int[] filterThenMapToInt(List<T> inputList, Predicate<? super T> filter,
+        ToIntFunction<? super T> function) {
+        int[] result = new int[inputList.size()];
+        int count = 0;
+        for (T item : inputList) {
+            if (filter.test(item)) {
+                result[count++] = function.applyAsInt(item);
+            }
+        }
+        return trim(result, count);
+    }
+
+    public static <T> long[] filterThenMapToLong(List<T> inputList, Predicate<? super T> filter,
+        ToLongFunction<? super T> function) {
+        long[] result = new long[inputList.size()];
+        int count = 0;
+        for (T item : inputList) {
+            if (filter.test(item)) {
+                result[count++] = function.applyAsLong(item);
+            }
+        }
+        return trim(result, count);
+    }
+
+    public static <T> double[] filterThenMapToDouble(List<T> inputList,
+        Predicate<? super T> filter, ToDoubleFunction<? super T> function) {
+        double[] result = new double[inputList.size()];
+        int count = 0;
+        for (T item : inputList) {
+            if (filter.test(item)) {
+                result[count++] = function.applyAsDouble(item);
+            }
+        }
+        return trim(result, count);
+    }
+
+    /*
+     * Primitive to primitive.
+     */
+
+    public static int[] filterThenMap(int[] input, IntPredicate filter, IntUnaryOperator function) {
+        return filterThenMap(input, 0, input.length, filter, function);
+    }
+
+    public static int[] mapThenFilter(int[] input, IntUnaryOperator function, IntPredicate filter) {
+        return mapThenFilter(input, 0, input.length, function, filter);
+    }
+
+    public static long[] filterThenMap(long[] input, LongPredicate filter,
+        LongUnaryOperator function) {
+        long[] result = new long[input.length];
+        int count = 0;
+        for (long value : input) {
+            if (filter.test(value)) {
+                result[count++] = function.applyAsLong(value);
+            }
+        }
+        return trim(result, count);
+    }
+
+    public static long[] mapThenFilter(long[] input, LongUnaryOperator function,
+        LongPredicate filter) {
+        long[] result = new long[input.length];
+        int count = 0;
+        for (long value : input) {
+            long mapped = function.applyAsLong(value);
+            if (filter.test(mapped)) {
+                result[count++] = mapped;
+            }
+        }
+        return trim(result, count);
+    }
+
+    public static double[] filterThenMap(double[] input, DoublePredicate filter,
+        DoubleUnaryOperator function) {
+        double[] result = new double[input.length];
+        int count = 0;
+        for (double value : input) {
+            if (filter.test(value)) {
+                result[count++] = function.applyAsDouble(value);
+            }
+        }
+        return trim(result, count);
+    }
+
+    public static double[] mapThenFilter(double[] input, DoubleUnaryOperator function,
+        DoublePredicate filter) {
+        double[] result = new double[input.length];
+        int count = 0;
+        for (double value : input) {
+            double mapped = function.applyAsDouble(value);
+            if (filter.test(mapped)) {
+                result[count++] = mapped;
+            }
+        }
+        return trim(result, count);
+    }
+
+    /*
+     * Parallel.
+     */
+
+    public static <T, R> Optional<List<R>> parallelFilterThenMap(List<T> inputList,
+        Predicate<? super T> filter, Function<? super T, ? extends R> function) {
+        int length = inputList.size();
+        int chunks = ForkJoinRanges.chunks(length, PARALLEL_THRESHOLD);
+        if (chunks < 2) {
+            return filterThenMap(inputList, filter, function);
+        }
+        List<T> input = inputList instanceof RandomAccess ? inputList : new ArrayList<>(inputList);
+        Object[][] chunkResults = new Object[chunks][];
+        int[] counts = new int[chunks];
+        ForkJoinRanges.forEach(chunks, chunk -> {
+            int from = ForkJoinRanges.chunkStart(length, chunk, chunks);
+            int to = ForkJoinRanges.chunkStart(length, chunk + 1, chunks);
+            Object[] matches = new Object[to - from];
+            int count = 0;
+            for (int i = from; i < to; i++) {
+                T item = input.get(i);
+                if (filter.test(item)) {
+                    matches[count++] = function.apply(item);
+                }
+            }
+            chunkResults[chunk] = matches;
+            counts[chunk] = count;
+        });
+        int total = 0;
+        for (int count : counts) {
+            total += count;
+        }
+        if (total == 0) {
+            return Optional.empty();
+        }
+        List<R> returnList = new ArrayList<>(total);
+        for (int chunk = 0; chunk < chunks; chunk++) {
+            for (int i = 0; i < counts[chunk]; i++) {
+                @SuppressWarnings("unchecked")
+                R mapped = (R) chunkResults[chunk][i];
+                returnList.add(mapped);
+            }
+        }
+        return Optional.of(returnList);
+    }
+
+    public static int[] parallelFilterThenMap(int[] input, IntPredicate filter,
+        IntUnaryOperator function) {
+        int chunks = ForkJoinRanges.chunks(input.length, PARALLEL_THRESHOLD);
+        if (chunks < 2) {
+            return filterThenMap(input, filter, function);
+        }
+        int[][] chunkResults = new int[chunks][];
+        ForkJoinRanges.forEach(chunks, chunk -> chunkResults[chunk] = filterThenMap(input,
+            ForkJoinRanges.chunkStart(input.length, chunk, chunks),
+            ForkJoinRanges.chunkStart(input.length, chunk + 1, chunks), filter, function));
+        return concat(chunkResults);
+    }
+
+    public static int[] parallelMapThenFilter(int[] input, IntUnaryOperator function,
+        IntPredicate filter) {
+        int chunks = ForkJoinRanges.chunks(input.length, PARALLEL_THRESHOLD);
+        if (chunks < 2) {
+            return mapThenFilter(input, function, filter);
+        }
+        int[][] chunkResults = new int[chunks][];
+        ForkJoinRanges.forEach(chunks, chunk -> chunkResults[chunk] = mapThenFilter(input,
+            ForkJoinRanges.chunkStart(input.length, chunk, chunks),
+            ForkJoinRanges.chunkStart(input.length, chunk + 1, chunks), function, filter));
+        return concat(chunkResults);
+    }
+
+    private static int[] filterThenMap(int[] input, int from, int to, IntPredicate filter,
+        IntUnaryOperator function) {
+        int[] result = new int[to - from];
+        int count = 0;
+        for (int i = from; i < to; i++) {
+            int value = input[i];
+            if (filter.test(value)) {
+                result[count++] = function.applyAsInt(value);
+            }
+        }
+        return trim(result, count);
+    }
+
+    private static int[] mapThenFilter(int[] input, int from, int to, IntUnaryOperator function,
+        IntPredicate filter) {
+        int[] result = new int[to - from];
+        int count = 0;
+        for (int i = from; i < to; i++) {
+            int mapped = function.applyAsInt(input[i]);
+            if (filter.test(mapped)) {
+                result[count++] = mapped;
+            }
+        }
+        return trim(result, count);
+    }
+
+    private static int[] concat(int[][] parts) {
+        int total = 0;
+        for (int[] part : parts) {
+            total += part.length;
+        }
+        int[] result = new int[total];
+        int offset = 0;
+        for (int[] part : parts) {
+            System.arraycopy(part, 0, result, offset, part.length);
+            offset += part.length;
+        }
+        return result;
+    }
+
+    private static int[] trim(int[] values, int count) {
+        return count == values.length ? values : Arrays.copyOf(values, count);
+    }
+
+    private static long[] trim(long[] values, int count) {
+        return count == values.length ? values : Arrays.copyOf(values, count);
+    }
+
+    private static double[] trim(double[] values, int count) {
+        return count == values.length ? values : Arrays.copyOf(values, count);
+    }
+}
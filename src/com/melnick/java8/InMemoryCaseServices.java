@@ -0,0 +1,147 @@
+package com.melnick.java8;
+
+import com.melnick.java8.StreamExample.BenefitRequest;
+import com.melnick.java8.StreamExample.Case;
+import com.melnick.java8.StreamExample.SomeDAO;
+import com.melnick.java8.StreamExample.SomeWorkflow;
+import com.melnick.java8.StreamExample.TaskEventKeyHolder;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Stand-ins for the case DAO and the workflow service, so completeCasePaymentTasks() can be run
+ * and timed without either.
+ *
+ * Both just sleep to pretend to be a remote call. The DAO sleeps a fixed amount per call plus an
+ * amount per receipt number, the workflow sleeps a fixed amount per update.
+ *
+ * Run main() to compare the one-shot version with the batched pipeline:
+ *
+ *   InMemoryCaseServices [cases] [batch size] [max in flight batches]
+ *
+ * or, with "fan-out" as the first argument, to time the concurrent workflow updates with a 50ms
+ * workflow:
+ *
+ *   InMemoryCaseServices fan-out [cases] [max concurrency]
+ */
+public class InMemoryCaseServices {
+
+    static class LatencyCaseDAO extends SomeDAO {
+        private final long latencyPerCallNanos;
+        private final long latencyPerReceiptNanos;
+        private final AtomicLong calls = new AtomicLong();
+
+        LatencyCaseDAO(long latencyPerCall, long latencyPerReceipt, TimeUnit unit) {
+            this.latencyPerCallNanos = unit.toNanos(latencyPerCall);
+            this.latencyPerReceiptNanos = unit.toNanos(latencyPerReceipt);
+        }
+
+        @Override
+        @SuppressWarnings("unchecked")
+        List<Case> findCasesByReceiptList(Object receiptNumbers) {
+            List<String> receipts = (List<String>) receiptNumbers;
+            calls.incrementAndGet();
+            pause(latencyPerCallNanos + latencyPerReceiptNanos * receipts.size());
+            List<Case> cases = new ArrayList<>(receipts.size());
+            for (String receipt : receipts) {
+                String caseIdentifier = "CASE-" + receipt;
+                cases.add(() -> caseIdentifier);
+            }
+            return cases;
+        }
+
+        long getCalls() {
+            return calls.get();
+        }
+    }
+
+    static class LatencyWorkflow extends SomeWorkflow {
+        private final long latencyNanos;
+        private final AtomicLong updates = new AtomicLong();
+
+        LatencyWorkflow(long latency, TimeUnit unit) {
+            this.latencyNanos = unit.toNanos(latency);
+        }
+
+        @Override
+        void updateTaskAfterEvent(TaskEventKeyHolder event, String caseIdentifier, Object bar) {
+            pause(latencyNanos);
+            updates.incrementAndGet();
+        }
+
+        long getUpdates() {
+            return updates.get();
+        }
+    }
+
+    static List<BenefitRequest> benefitRequests(int count) {
+        List<BenefitRequest> requests = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            String receiptNumber = String.format("IOE%010d", i);
+            requests.add(() -> receiptNumber);
+        }
+        return requests;
+    }
+
+    private static void pause(long nanos) {
+        if (nanos <= 0) {
+            return;
+        }
+        try {
+            TimeUnit.NANOSECONDS.sleep(nanos);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted while pretending to be remote", e);
+        }
+    }
+
+    public static void main(String[] args) throws InterruptedException {
+        if (args.length > 0 && "fan-out".equals(args[0])) {
+            int cases = args.length > 1 ? Integer.parseInt(args[1]) : 100_000;
+            int maxConcurrency = args.length > 2 ? Integer.parseInt(args[2]) : 10_000;
+            timeFanOut(benefitRequests(cases), cases, maxConcurrency);
+            return;
+        }
+        int cases = args.length > 0 ? Integer.parseInt(args[0]) : 5_000;
+        int batchSize = args.length > 1 ? Integer.parseInt(args[1]) : 500;
+        int maxInFlight = args.length > 2 ? Integer.parseInt(args[2]) : 4;
+        Collection<BenefitRequest> requests = benefitRequests(cases);
+
+        // One call for everything, then every update: what completeCasePaymentTasks() does today
+        time("one shot", requests, cases, cases, 1);
+        time("batched", requests, cases, batchSize, maxInFlight);
+    }
+
+    private static void time(String name, Collection<BenefitRequest> requests, int cases,
+        int batchSize, int maxInFlight) throws InterruptedException {
+        // 20ms per DAO call, plus 1ms per receipt. 1ms per workflow update.
+        LatencyCaseDAO dao = new LatencyCaseDAO(20, 1, TimeUnit.MILLISECONDS);
+        LatencyWorkflow workflow = new LatencyWorkflow(1, TimeUnit.MILLISECONDS);
+        StreamExample example = new StreamExample(dao, workflow);
+
+        long start = System.nanoTime();
+        example.completeCasePaymentTasksBatched(requests, batchSize, maxInFlight);
+        double seconds = (System.nanoTime() - start) / 1e9;
+        System.out.printf("%-9s %,d cases, %,d DAO calls, %,d updates in %.2f s (%,.0f cases/s)%n",
+            name, cases, dao.getCalls(), workflow.getUpdates(), seconds, cases / seconds);
+    }
+
+    private static void timeFanOut(Collection<BenefitRequest> requests, int cases,
+        int maxConcurrency) throws InterruptedException {
+        LatencyCaseDAO dao = new LatencyCaseDAO(0, 0, TimeUnit.MILLISECONDS);
+        LatencyWorkflow workflow = new LatencyWorkflow(50, TimeUnit.MILLISECONDS);
+        StreamExample example = new StreamExample(dao, workflow);
+
+        long start = System.nanoTime();
+        BoundedFanOut.Result<String> result =
+            example.completeCasePaymentTasksConcurrently(requests, maxConcurrency);
+        double seconds = (System.nanoTime() - start) / 1e9;
+        System.out.printf("fan-out (%s threads) %,d cases, %s in %.2f s (serial: %.0f s)%n",
+            BoundedFanOut.virtualThreadsAvailable() ? "virtual" : "platform",
+            cases, result, seconds, cases * 0.05);
+    }
+}
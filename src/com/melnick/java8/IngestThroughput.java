@@ -0,0 +1,100 @@
+package com.melnick.java8;
+
+import com.melnick.java8.StreamExample.TransactionStatus;
+import com.melnick.java8.StreamExample.TransactionType;
+import com.melnick.java8.TransactionRingBuffer.BatchConsumer;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Measures how many events a second a TransactionRingBuffer moves from one producer into a
+ * TransactionStore, a TransactionLedger and a set of WaitTimeHistograms, each filled by its own
+ * consumer thread.
+ *
+ * Usage: IngestThroughput [events] [ring size] [busy-spin|yielding|sleeping|blocking]
+ * The defaults are 50,000,000 events, a ring of 65,536, and yielding. Busy spinning needs a free
+ * core per thread (four here), or it is slower than anything else.
+ *
+ * The producer cycles through a small table of precomputed values, so the measurement is of the
+ * ring and the handlers, not of making up transactions. Each round is timed from the first
+ * publish until the slowest consumer has seen the last event.
+ */
+public class IngestThroughput {
+
+    private static final int ROUNDS = 5;
+
+    public static void main(String[] args) throws InterruptedException {
+        int events = args.length > 0 ? Integer.parseInt(args[0].replace("_", "")) : 50_000_000;
+        int ringSize = args.length > 1 ? Integer.parseInt(args[1]) : 1 << 16;
+        String strategyName = args.length > 2 ? args[2] : "yielding";
+
+        Random random = new Random(42);
+        int valueCount = 1 << 10;
+        TransactionStatus[] statuses = new TransactionStatus[valueCount];
+        TransactionType[] types = new TransactionType[valueCount];
+        int[] seconds = new int[valueCount];
+        for (int i = 0; i < valueCount; i++) {
+            statuses[i] = TransactionStatus.values()[random.nextInt(TransactionStatus.values().length)];
+            types[i] = TransactionType.values()[random.nextInt(TransactionType.values().length)];
+            seconds[i] = random.nextInt(3600);
+        }
+
+        for (int round = 1; round <= ROUNDS; round++) {
+            TransactionRingBuffer ring = new TransactionRingBuffer(ringSize, waitStrategy(strategyName));
+            TransactionStore store = new TransactionStore(events);
+            TransactionLedger ledger = new TransactionLedger();
+            WaitTimeHistograms histograms = new WaitTimeHistograms();
+
+            List<BatchConsumer> consumers = new ArrayList<>();
+            consumers.add(ring.newConsumer(TransactionRingBuffer.EventHandler.appendTo(store)));
+            consumers.add(ring.newConsumer(TransactionRingBuffer.EventHandler.addTo(ledger)));
+            consumers.add(ring.newConsumer(TransactionRingBuffer.EventHandler.recordIn(histograms)));
+            List<Thread> threads = new ArrayList<>();
+            for (BatchConsumer consumer : consumers) {
+                Thread thread = new Thread(consumer, "ingest-consumer-" + threads.size());
+                thread.start();
+                threads.add(thread);
+            }
+
+            long start = System.nanoTime();
+            for (int i = 0; i < events; i++) {
+                int value = i & (valueCount - 1);
+                long sequence = ring.next();
+                ring.get(sequence).set(statuses[value], types[value], seconds[value], null);
+                ring.publish(sequence);
+            }
+            for (BatchConsumer consumer : consumers) {
+                consumer.halt();
+            }
+            for (Thread thread : threads) {
+                thread.join();
+            }
+            long elapsed = System.nanoTime() - start;
+
+            if (store.size() != events || ledger.totalCount() != events
+                || histograms.total().count() != events) {
+                throw new IllegalStateException("Lost events: store " + store.size() + ", ledger "
+                    + ledger.totalCount() + ", histograms " + histograms.total().count());
+            }
+            System.out.printf("Round %d: %,d events in %d ms, %,.0f events/sec (%s, ring of %,d)%n",
+                round, events, elapsed / 1_000_000, events * 1e9 / elapsed, strategyName, ringSize);
+        }
+    }
+
+    private static WaitStrategy waitStrategy(String name) {
+        switch (name) {
+            case "busy-spin":
+                return WaitStrategy.busySpin();
+            case "yielding":
+                return WaitStrategy.yielding();
+            case "sleeping":
+                return WaitStrategy.sleeping();
+            case "blocking":
+                return WaitStrategy.blocking();
+            default:
+                throw new IllegalArgumentException("Unknown wait strategy: " + name);
+        }
+    }
+}
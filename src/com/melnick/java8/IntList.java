@@ -0,0 +1,401 @@
+package com.melnick.java8;
+
+import java.util.AbstractList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Objects;
+import java.util.RandomAccess;
+import java.util.function.IntConsumer;
+import java.util.function.IntPredicate;
+import java.util.function.IntUnaryOperator;
+import java.util.function.Predicate;
+import java.util.function.UnaryOperator;
+import java.util.stream.IntStream;
+
+/**
+ * A growable list of ints, kept in an int[]. The List&lt;Integer&gt; operations APIAdditions shows
+ * off (sort, forEach, removeIf, replaceAll, stream) without an Integer anywhere.
+ *
+ * An ArrayList&lt;Integer&gt; holds a reference per element, and each one points to a 16 byte
+ * Integer somewhere else on the heap. That is about 20 bytes an element against 4 here, and every
+ * read has to follow the reference and unbox. The functional methods take IntPredicate,
+ * IntUnaryOperator and IntConsumer, so nothing is boxed on the way in or out either.
+ *
+ * sort() is IntRadixSort (in parallel for big lists), and stream() is an IntStream straight over
+ * the array. For code that wants a List&lt;Integer&gt;, {@link #boxed()} is a view that boxes one
+ * element at a time, as it is asked for.
+ *
+ * Not thread safe, like ArrayList.
+ */
+public final class IntList {
+
+    private static final int DEFAULT_CAPACITY = 10;
+    private static final int PARALLEL_SORT_THRESHOLD = 1 << 16;
+    // Some VMs reserve a few header words in an array
+    private static final int MAX_CAPACITY = Integer.MAX_VALUE - 8;
+
+    private int[] elements;
+    private int size;
+
+    public IntList() {
+        this(DEFAULT_CAPACITY);
+    }
+
+    public IntList(int initialCapacity) {
+        if (initialCapacity < 0) {
+            throw new IllegalArgumentException("Illegal capacity: " + initialCapacity);
+        }
+        this.elements = new int[initialCapacity];
+    }
+
+    private IntList(int[] elements, int size) {
+        this.elements = elements;
+        this.size = size;
+    }
+
+    public static IntList of(int... values) {
+        return new IntList(values.clone(), values.length);
+    }
+
+    /**
+     * Drains the stream, which may be parallel, into a new list in encounter order.
+     */
+    public static IntList of(IntStream stream) {
+        int[] values = stream.toArray();
+        return new IntList(values, values.length);
+    }
+
+    /**
+     * @throws NullPointerException if the collection holds a null
+     */
+    public static IntList copyOf(Collection<Integer> collection) {
+        int[] values = new int[collection.size()];
+        int i = 0;
+        for (Integer value : collection) {
+            values[i++] = value;
+        }
+        return new IntList(values, i);
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    public int get(int index) {
+        checkIndex(index);
+        return elements[index];
+    }
+
+    /**
+     * @return the value that was there
+     */
+    public int set(int index, int value) {
+        checkIndex(index);
+        int old = elements[index];
+        elements[index] = value;
+        return old;
+    }
+
+    public void add(int value) {
+        if (size == elements.length) {
+            grow(size + 1);
+        }
+        elements[size++] = value;
+    }
+
+    /**
+     * Inserts value at index, moving everything from there on one place up.
+     */
+    public void add(int index, int value) {
+        if (index < 0 || index > size) {
+            throw new IndexOutOfBoundsException("Index: " + index + ", Size: " + size);
+        }
+        if (size == elements.length) {
+            grow(size + 1);
+        }
+        System.arraycopy(elements, index, elements, index + 1, size - index);
+        elements[index] = value;
+        size++;
+    }
+
+    public void addAll(int... values) {
+        if (size + values.length > elements.length) {
+            grow(size + values.length);
+        }
+        System.arraycopy(values, 0, elements, size, values.length);
+        size += values.length;
+    }
+
+    /**
+     * Removes the element at index, moving everything after it one place down. (Not remove(int),
+     * which List&lt;Integer&gt; has made ambiguous.)
+     *
+     * @return the element that was removed
+     */
+    public int removeAt(int index) {
+        checkIndex(index);
+        int old = elements[index];
+        System.arraycopy(elements, index + 1, elements, index, size - index - 1);
+        size--;
+        return old;
+    }
+
+    public void clear() {
+        size = 0;
+    }
+
+    public int indexOf(int value) {
+        for (int i = 0; i < size; i++) {
+            if (elements[i] == value) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    public boolean contains(int value) {
+        return indexOf(value) >= 0;
+    }
+
+    public int[] toArray() {
+        return Arrays.copyOf(elements, size);
+    }
+
+    /**
+     * Sorts the list in ascending order, the same as list.sort(null) on a List&lt;Integer&gt;.
+     */
+    public void sort() {
+        if (size >= PARALLEL_SORT_THRESHOLD) {
+            IntRadixSort.parallelSort(elements, 0, size);
+        } else {
+            IntRadixSort.sort(elements, 0, size);
+        }
+    }
+
+    /**
+     * The same as list.sort(Comparator.reverseOrder()).
+     */
+    public void sortDescending() {
+        sort();
+        for (int i = 0, j = size - 1; i < j; i++, j--) {
+            int swap = elements[i];
+            elements[i] = elements[j];
+            elements[j] = swap;
+        }
+    }
+
+    public void forEach(IntConsumer action) {
+        Objects.requireNonNull(action);
+        for (int i = 0, end = size; i < end; i++) {
+            action.accept(elements[i]);
+        }
+    }
+
+    /**
+     * Removes every element the filter accepts. Like ArrayList.removeIf(), the filter is called
+     * once per element, and all the calls come before anything moves: the removed elements are
+     * marked in a bitmap, and then the survivors are moved down, each once. So if the filter
+     * throws, the list is left as it was. Nothing is allocated until the first element is removed.
+     *
+     * @return true if anything was removed
+     */
+    public boolean removeIf(IntPredicate filter) {
+        Objects.requireNonNull(filter);
+        int end = size;
+        int first = 0;
+        while (first < end && !filter.test(elements[first])) {
+            first++;
+        }
+        if (first == end) {
+            return false;
+        }
+        // bit i is the element at first + i
+        long[] removed = new long[(end - first + Long.SIZE - 1) / Long.SIZE];
+        removed[0] = 1L;
+        for (int i = first + 1; i < end; i++) {
+            if (filter.test(elements[i])) {
+                int bit = i - first;
+                removed[bit / Long.SIZE] |= 1L << bit;
+            }
+        }
+        int write = first;
+        for (int i = first + 1; i < end; i++) {
+            int bit = i - first;
+            if ((removed[bit / Long.SIZE] & 1L << bit) == 0) {
+                elements[write++] = elements[i];
+            }
+        }
+        size = write;
+        return true;
+    }
+
+    public void replaceAll(IntUnaryOperator operator) {
+        Objects.requireNonNull(operator);
+        for (int i = 0, end = size; i < end; i++) {
+            elements[i] = operator.applyAsInt(elements[i]);
+        }
+    }
+
+    /**
+     * A stream straight over the array. The list must not be changed while the stream runs.
+     */
+    public IntStream stream() {
+        return Arrays.stream(elements, 0, size);
+    }
+
+    public IntStream parallelStream() {
+        return stream().parallel();
+    }
+
+    /**
+     * A List&lt;Integer&gt; that reads and writes this list. Each get() boxes; each set() or add()
+     * unboxes, and throws a NullPointerException for a null. sort(null) and
+     * sort(Comparator.reverseOrder()) on the view use the int sorts.
+     */
+    public List<Integer> boxed() {
+        return new Boxed();
+    }
+
+    private final class Boxed extends AbstractList<Integer> implements RandomAccess {
+
+        @Override
+        public Integer get(int index) {
+            return IntList.this.get(index);
+        }
+
+        @Override
+        public Integer set(int index, Integer value) {
+            return IntList.this.set(index, value);
+        }
+
+        @Override
+        public void add(int index, Integer value) {
+            IntList.this.add(index, (int) value);
+            modCount++;
+        }
+
+        @Override
+        public Integer remove(int index) {
+            int old = removeAt(index);
+            modCount++;
+            return old;
+        }
+
+        @Override
+        public void clear() {
+            IntList.this.clear();
+            modCount++;
+        }
+
+        @Override
+        public int size() {
+            return size;
+        }
+
+        @Override
+        public void sort(Comparator<? super Integer> comparator) {
+            if (comparator == null || comparator == Comparator.naturalOrder()) {
+                IntList.this.sort();
+            } else if (comparator == Comparator.reverseOrder()) {
+                sortDescending();
+            } else {
+                super.sort(comparator);
+            }
+            modCount++;
+        }
+
+        @Override
+        public boolean removeIf(Predicate<? super Integer> filter) {
+            Objects.requireNonNull(filter);
+            boolean removed = IntList.this.removeIf(filter::test);
+            if (removed) {
+                modCount++;
+            }
+            return removed;
+        }
+
+        @Override
+        public void replaceAll(UnaryOperator<Integer> operator) {
+            Objects.requireNonNull(operator);
+            IntList.this.replaceAll(operator::apply);
+            modCount++;
+        }
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) {
+            return true;
+        }
+        if (!(o instanceof IntList)) {
+            return false;
+        }
+        IntList other = (IntList) o;
+        if (size != other.size) {
+            return false;
+        }
+        for (int i = 0; i < size; i++) {
+            if (elements[i] != other.elements[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * The same as List.hashCode() for the same values, so the boxed() view agrees with it.
+     */
+    @Override
+    public int hashCode() {
+        int hash = 1;
+        for (int i = 0; i < size; i++) {
+            hash = 31 * hash + elements[i];
+        }
+        return hash;
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder builder = new StringBuilder(size * 4 + 2).append('[');
+        for (int i = 0; i < size; i++) {
+            if (i > 0) {
+                builder.append(", ");
+            }
+            builder.append(elements[i]);
+        }
+        return builder.append(']').toString();
+    }
+
+    /*
+     * For ParallelListOps, which works on the array directly.
+     */
+
+    int[] array() {
+        return elements;
+    }
+
+    void truncate(int newSize) {
+        size = newSize;
+    }
+
+    private void grow(int minCapacity) {
+        if (minCapacity < 0 || minCapacity > MAX_CAPACITY) {
+            throw new OutOfMemoryError("IntList too large: " + minCapacity);
+        }
+        long grown = Math.max((long) elements.length + (elements.length >> 1), DEFAULT_CAPACITY);
+        int capacity = (int) Math.min(Math.max(grown, minCapacity), MAX_CAPACITY);
+        elements = Arrays.copyOf(elements, capacity);
+    }
+
+    private void checkIndex(int index) {
+        if (index < 0 || index >= size) {
+            throw new IndexOutOfBoundsException("Index: " + index + ", Size: " + size);
+        }
+    }
+}
@@ -0,0 +1,257 @@
+package com.melnick.java8;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.ListIterator;
+import java.util.stream.IntStream;
+
+/**
+ * Least significant digit radix sort for int[].
+ *
+ * Arrays.sort() and Stream.sorted() compare elements. A radix sort never compares anything: it
+ * looks at one byte of every value at a time, counts how many values have each byte, and uses
+ * the counts to move every value straight to its place in a second array. Four passes (one per
+ * byte) sort any int[], and each pass is two straight walks over the data. A pass is skipped when
+ * every value has the same byte there, which is common for small or clustered values.
+ *
+ * The price is a second array the size of the input.
+ *
+ * Negative values: the top byte is read with its sign bit flipped, so negatives sort before
+ * positives exactly as Integer.compare would have it.
+ *
+ * The parallel version splits the array into one chunk per worker. Per pass, every chunk counts
+ * its own bytes in parallel, one thread turns the counts into where each chunk writes each byte,
+ * and then every chunk moves its own values in parallel. The sort is stable, so the result is
+ * identical to the sequential one.
+ *
+ * There are adapters for IntStream and List&lt;Integer&gt; too. The list one still has to unbox
+ * and rebox every element, but it does the sorting itself on an int[].
+ */
+public final class IntRadixSort {
+
+    private static final int BITS = 8;
+    private static final int RADIX = 1 << BITS;
+    private static final int MASK = RADIX - 1;
+    private static final int PASSES = Integer.SIZE / BITS;
+
+    // Below these sizes the simpler approach wins
+    private static final int INSERTION_SORT_THRESHOLD = 64;
+    private static final int PARALLEL_THRESHOLD = 1 << 16;
+
+    private IntRadixSort() {
+    }
+
+    public static void sort(int[] values) {
+        sort(values, 0, values.length);
+    }
+
+    /**
+     * Sorts values[from, to) in ascending order.
+     */
+    public static void sort(int[] values, int from, int to) {
+        checkRange(values.length, from, to);
+        int length = to - from;
+        if (length < INSERTION_SORT_THRESHOLD) {
+            Arrays.sort(values, from, to);
+            return;
+        }
+        int[] source = Arrays.copyOfRange(values, from, to);
+        int[] target = new int[length];
+        int[] counts = new int[RADIX];
+        for (int pass = 0; pass < PASSES; pass++) {
+            int shift = pass * BITS;
+            int flip = pass == PASSES - 1 ? 0x80 : 0;
+            Arrays.fill(counts, 0);
+            for (int value : source) {
+                counts[((value >>> shift) & MASK) ^ flip]++;
+            }
+            if (isSingleDigit(counts, length)) {
+                continue;
+            }
+            int offset = 0;
+            for (int digit = 0; digit < RADIX; digit++) {
+                int count = counts[digit];
+                counts[digit] = offset;
+                offset += count;
+            }
+            for (int value : source) {
+                target[counts[((value >>> shift) & MASK) ^ flip]++] = value;
+            }
+            int[] swap = source;
+            source = target;
+            target = swap;
+        }
+        System.arraycopy(source, 0, values, from, length);
+    }
+
+    public static void parallelSort(int[] values) {
+        parallelSort(values, 0, values.length);
+    }
+
+    /**
+     * Sorts values[from, to) in ascending order, using the common ForkJoinPool.
+     */
+    public static void parallelSort(int[] values, int from, int to) {
+        checkRange(values.length, from, to);
+        int length = to - from;
+        int chunks = ForkJoinRanges.chunks(length, PARALLEL_THRESHOLD / 4);
+        if (length < PARALLEL_THRESHOLD || chunks < 2) {
+            sort(values, from, to);
+            return;
+        }
+        int[][] source = {Arrays.copyOfRange(values, from, to)};
+        int[][] target = {new int[length]};
+        int[][] counts = new int[chunks][RADIX];
+        int[] chunkStarts = new int[chunks + 1];
+        for (int chunk = 0; chunk <= chunks; chunk++) {
+            chunkStarts[chunk] = ForkJoinRanges.chunkStart(length, chunk, chunks);
+        }
+
+        for (int pass = 0; pass < PASSES; pass++) {
+            int shift = pass * BITS;
+            int flip = pass == PASSES - 1 ? 0x80 : 0;
+            int[] in = source[0];
+            ForkJoinRanges.forEach(chunks, chunk -> {
+                int[] chunkCounts = counts[chunk];
+                Arrays.fill(chunkCounts, 0);
+                for (int i = chunkStarts[chunk]; i < chunkStarts[chunk + 1]; i++) {
+                    chunkCounts[((in[i] >>> shift) & MASK) ^ flip]++;
+                }
+            });
+
+            // Turn counts into write positions: by digit first, then by chunk within a digit
+            int offset = 0;
+            boolean singleDigit = false;
+            for (int digit = 0; digit < RADIX; digit++) {
+                int digitStart = offset;
+                for (int chunk = 0; chunk < chunks; chunk++) {
+                    int count = counts[chunk][digit];
+                    counts[chunk][digit] = offset;
+                    offset += count;
+                }
+                if (offset - digitStart == length) {
+                    singleDigit = true;
+                }
+            }
+            if (singleDigit) {
+                continue;
+            }
+
+            int[] out = target[0];
+            ForkJoinRanges.forEach(chunks, chunk -> {
+                int[] positions = counts[chunk];
+                for (int i = chunkStarts[chunk]; i < chunkStarts[chunk + 1]; i++) {
+                    int value = in[i];
+                    out[positions[((value >>> shift) & MASK) ^ flip]++] = value;
+                }
+            });
+            source[0] = out;
+            target[0] = in;
+        }
+        System.arraycopy(source[0], 0, values, from, length);
+    }
+
+    /**
+     * Sorts then reverses, for the Comparator.reverseOrder() case.
+     */
+    public static void sortDescending(int[] values) {
+        sort(values);
+        reverse(values);
+    }
+
+    public static void parallelSortDescending(int[] values) {
+        parallelSort(values);
+        reverse(values);
+    }
+
+    /**
+     * The same elements as stream.sorted(). The stream is drained into an array, sorted (in
+     * parallel if the stream was parallel), and streamed back out.
+     */
+    public static IntStream sorted(IntStream stream) {
+        boolean parallel = stream.isParallel();
+        int[] values = stream.toArray();
+        if (parallel) {
+            parallelSort(values);
+            return Arrays.stream(values).parallel();
+        }
+        sort(values);
+        return Arrays.stream(values);
+    }
+
+    /**
+     * Sorts the list in place, the same as list.sort(null). Throws a NullPointerException if the
+     * list holds a null, like the natural ordering would.
+     */
+    public static void sort(List<Integer> list) {
+        int[] values = toArray(list);
+        if (values.length >= PARALLEL_THRESHOLD) {
+            parallelSort(values);
+        } else {
+            sort(values);
+        }
+        writeBack(list, values);
+    }
+
+    /**
+     * The same as list.sort(Comparator.reverseOrder()).
+     */
+    public static void sortDescending(List<Integer> list) {
+        int[] values = toArray(list);
+        if (values.length >= PARALLEL_THRESHOLD) {
+            parallelSortDescending(values);
+        } else {
+            sortDescending(values);
+        }
+        writeBack(list, values);
+    }
+
+    private static int[] toArray(List<Integer> list) {
+        int[] values = new int[list.size()];
+        int i = 0;
+        for (Integer value : list) {
+            values[i++] = value;
+        }
+        return values;
+    }
+
+    private static void writeBack(List<Integer> list, int[] values) {
+        ListIterator<Integer> iterator = list.listIterator();
+        for (int value : values) {
+            iterator.next();
+            iterator.set(value);
+        }
+    }
+
+    private static boolean isSingleDigit(int[] counts, int length) {
+        for (int count : counts) {
+            if (count != 0) {
+                return count == length;
+            }
+        }
+        return true;
+    }
+
+    private static void reverse(int[] values) {
+        for (int i = 0, j = values.length - 1; i < j; i++, j--) {
+            int swap = values[i];
+            values[i] = values[j];
+            values[j] = swap;
+        }
+    }
+
+    /*
+     * The same checks, in the same order, as Arrays.sort(int[], int, int).
+     */
+    private static void checkRange(int length, int from, int to) {
+        if (from > to) {
+            throw new IllegalArgumentException("from: " + from + " > to: " + to);
+        }
+        if (from < 0) {
+            throw new ArrayIndexOutOfBoundsException("from: " + from);
+        }
+        if (to > length) {
+            throw new ArrayIndexOutOfBoundsException("to: " + to + ", length: " + length);
+        }
+    }
+}
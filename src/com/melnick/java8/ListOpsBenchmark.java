@@ -0,0 +1,101 @@
+package com.melnick.java8;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import static com.melnick.java8.MicroBenchmark.params;
+
+/**
+ * Sequential and parallel removeIf() and replaceAll(), on an ArrayList&lt;Integer&gt; and an
+ * IntList, the measurements behind ParallelListOps.
+ *
+ *   removeIf      list.removeIf(even), and ParallelListOps.removeIf()
+ *   replaceAll    list.replaceAll(plus one), and ParallelListOps.replaceAll()
+ *
+ * Every call works on a fresh copy of the same random list, made in the untimed setup. The copy
+ * has the list's exact size as its capacity, as a list built and then worked on usually does not,
+ * but that only matters to the IntList.
+ *
+ * Usage: ListOpsBenchmark [--json file] [sizes...]
+ * The default sizes are 100,000 to 10,000,000 in powers of ten. 100,000,000 needs a few GB of
+ * heap for the ArrayList (-Xmx4g), or pass "int" first to measure only the IntList. Iteration
+ * counts and times come from the bench.* system properties, see
+ * MicroBenchmark.fromSystemProperties().
+ */
+public class ListOpsBenchmark {
+
+    private static final int[] DEFAULT_SIZES = {100_000, 1_000_000, 10_000_000};
+
+    public static void main(String[] args) throws IOException {
+        String jsonFile = null;
+        boolean intOnly = false;
+        List<Integer> sizes = new ArrayList<>();
+        for (int i = 0; i < args.length; i++) {
+            if ("--json".equals(args[i]) && i + 1 < args.length) {
+                jsonFile = args[++i];
+            } else if ("int".equals(args[i])) {
+                intOnly = true;
+            } else {
+                sizes.add(Integer.parseInt(args[i].replace("_", "")));
+            }
+        }
+        int[] sizeArray = sizes.isEmpty() ? DEFAULT_SIZES
+            : sizes.stream().mapToInt(Integer::intValue).toArray();
+
+        MicroBenchmark benchmark = run(MicroBenchmark.fromSystemProperties(), intOnly, sizeArray);
+        if (jsonFile != null) {
+            Files.write(Paths.get(jsonFile), benchmark.toJson().getBytes(StandardCharsets.UTF_8));
+        } else {
+            System.out.println(benchmark.toJson());
+        }
+    }
+
+    static MicroBenchmark run(MicroBenchmark benchmark, boolean intOnly, int... sizes) {
+        for (int size : sizes) {
+            int[] source = new Random(42).ints(size).toArray();
+            String n = String.valueOf(size);
+
+            benchmark.run("removeIf", params("list", "IntList", "size", n),
+                () -> IntList.of(source), list -> list.removeIf(value -> (value & 1) == 0));
+            benchmark.run("parallelRemoveIf", params("list", "IntList", "size", n),
+                () -> IntList.of(source),
+                list -> ParallelListOps.removeIf(list, value -> (value & 1) == 0));
+            benchmark.run("replaceAll", params("list", "IntList", "size", n),
+                () -> IntList.of(source), list -> {
+                    list.replaceAll(value -> value + 1);
+                    return list;
+                });
+            benchmark.run("parallelReplaceAll", params("list", "IntList", "size", n),
+                () -> IntList.of(source), list -> {
+                    ParallelListOps.replaceAll(list, value -> value + 1);
+                    return list;
+                });
+            if (intOnly) {
+                continue;
+            }
+
+            ArrayList<Integer> boxed = new ArrayList<>(IntList.of(source).boxed());
+            benchmark.run("removeIf", params("list", "ArrayList", "size", n),
+                () -> new ArrayList<>(boxed), list -> list.removeIf(value -> (value & 1) == 0));
+            benchmark.run("parallelRemoveIf", params("list", "ArrayList", "size", n),
+                () -> new ArrayList<>(boxed),
+                list -> ParallelListOps.removeIf(list, value -> (value & 1) == 0));
+            benchmark.run("replaceAll", params("list", "ArrayList", "size", n),
+                () -> new ArrayList<>(boxed), list -> {
+                    list.replaceAll(value -> value + 1);
+                    return list;
+                });
+            benchmark.run("parallelReplaceAll", params("list", "ArrayList", "size", n),
+                () -> new ArrayList<>(boxed), list -> {
+                    ParallelListOps.replaceAll(list, value -> value + 1);
+                    return list;
+                });
+        }
+        return benchmark;
+    }
+}
@@ -0,0 +1,302 @@
+package com.melnick.java8;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.function.Function;
+import java.util.function.Supplier;
+
+/**
+ * A small benchmark harness, for code that used to be timed with LocalTime.now() and
+ * Duration.between().
+ *
+ * That style of timing has three problems:
+ *  - No warmup. The first calls run in the interpreter, and the JIT compiles the code partway
+ *    through, so the number mostly measures the JIT.
+ *  - No dead code protection. If the result is never used, the JIT is allowed to skip the work.
+ *    (Even without the JIT: since Java 9, count() on a SIZED stream does not run the pipeline at
+ *    all, so Random().ints(n).sorted().count() never sorts anything.)
+ *  - LocalTime has millisecond resolution on many platforms, and a single sample says nothing
+ *    about the noise.
+ *
+ * Here every benchmark runs a number of warmup iterations that are thrown away, then a number of
+ * measured iterations. Each iteration calls the body over and over for a fixed amount of time, and
+ * records the average nanoseconds per call. Whatever the body returns is handed to a
+ * {@link Blackhole}, so it cannot be optimized away. Setup (for example copying an array that
+ * will be sorted in place) runs before each call and is not timed.
+ *
+ * Results carry a mean, a 99.9% confidence interval, and the min and max iteration, and print as
+ * JSON. The interval uses Student's t for n - 1 degrees of freedom, as JMH does, since with five or
+ * ten iterations the normal distribution's 3.29 would make it two or three times too narrow.
+ *
+ * Each result is also printed as a line of a table as soon as it is done, to stderr, so that
+ * stdout only ever has the JSON on it.
+ *
+ * This is not JMH. There is no forking, so run one benchmark class per JVM when comparing numbers,
+ * and keep the machine otherwise idle.
+ */
+public class MicroBenchmark {
+
+    /**
+     * Keeps values alive so the JIT cannot prove they are unused.
+     */
+    public static final class Blackhole {
+        private volatile Object lastObject;
+        private volatile long lastLong;
+        private long accumulator;
+
+        public void consume(Object value) {
+            lastObject = value;
+        }
+
+        public void consume(long value) {
+            accumulator += value;
+            if (accumulator == 0x5DEECE66DL) {
+                lastLong = accumulator;
+            }
+        }
+    }
+
+    /**
+     * The outcome of one benchmark, for one set of parameters.
+     */
+    public static final class Result {
+        private final String name;
+        private final Map<String, String> params;
+        private final double[] samples;
+        private final double mean;
+        private final double error;
+
+        Result(String name, Map<String, String> params, double[] samples) {
+            this.name = name;
+            this.params = Collections.unmodifiableMap(new LinkedHashMap<>(params));
+            this.samples = samples;
+            double sum = 0;
+            for (double sample : samples) {
+                sum += sample;
+            }
+            this.mean = sum / samples.length;
+            double squares = 0;
+            for (double sample : samples) {
+                squares += (sample - mean) * (sample - mean);
+            }
+            double standardDeviation =
+                samples.length > 1 ? Math.sqrt(squares / (samples.length - 1)) : 0;
+            this.error = tQuantile999(samples.length - 1) * standardDeviation / Math.sqrt(samples.length);
+        }
+
+        public String getName() {
+            return name;
+        }
+
+        public Map<String, String> getParams() {
+            return params;
+        }
+
+        /**
+         * @return the average nanoseconds per call
+         */
+        public double getMean() {
+            return mean;
+        }
+
+        /**
+         * @return half the width of the 99.9% confidence interval around the mean, in nanoseconds
+         */
+        public double getError() {
+            return error;
+        }
+
+        public double getMin() {
+            double min = Double.MAX_VALUE;
+            for (double sample : samples) {
+                min = Math.min(min, sample);
+            }
+            return min;
+        }
+
+        public double getMax() {
+            double max = 0;
+            for (double sample : samples) {
+                max = Math.max(max, sample);
+            }
+            return max;
+        }
+
+        public String toJson() {
+            StringBuilder json = new StringBuilder("{\"benchmark\":\"").append(name)
+                .append("\",\"params\":{");
+            String separator = "";
+            for (Map.Entry<String, String> param : params.entrySet()) {
+                json.append(separator).append('"').append(param.getKey()).append("\":\"")
+                    .append(param.getValue()).append('"');
+                separator = ",";
+            }
+            json.append("},\"unit\":\"ns/op\"")
+                .append(",\"score\":").append(mean)
+                .append(",\"error\":").append(error)
+                .append(",\"min\":").append(getMin())
+                .append(",\"max\":").append(getMax())
+                .append(",\"samples\":[");
+            for (int i = 0; i < samples.length; i++) {
+                json.append(i == 0 ? "" : ",").append(samples[i]);
+            }
+            return json.append("]}").toString();
+        }
+
+        @Override
+        public String toString() {
+            return String.format("%-40s %-24s %,16.1f +- %,12.1f ns/op", name, params, mean, error);
+        }
+    }
+
+    private final int warmupIterations;
+    private final int measurementIterations;
+    private final long iterationNanos;
+    private final Blackhole blackhole = new Blackhole();
+    private final List<Result> results = new ArrayList<>();
+
+    public MicroBenchmark() {
+        this(5, 10, 1000);
+    }
+
+    public MicroBenchmark(int warmupIterations, int measurementIterations, long iterationMillis) {
+        if (warmupIterations < 0 || measurementIterations < 1 || iterationMillis < 1) {
+            throw new IllegalArgumentException("Need at least one measured iteration of 1ms");
+        }
+        this.warmupIterations = warmupIterations;
+        this.measurementIterations = measurementIterations;
+        this.iterationNanos = iterationMillis * 1_000_000;
+    }
+
+    /**
+     * Reads -Dbench.warmup, -Dbench.iterations and -Dbench.time (milliseconds per iteration).
+     */
+    public static MicroBenchmark fromSystemProperties() {
+        return new MicroBenchmark(Integer.getInteger("bench.warmup", 5),
+            Integer.getInteger("bench.iterations", 10),
+            Long.getLong("bench.time", 1000L));
+    }
+
+    /**
+     * Benchmarks a body that needs no setup.
+     */
+    public Result run(String name, Map<String, String> params, Supplier<?> body) {
+        return run(name, params, () -> null, ignored -> body.get());
+    }
+
+    /**
+     * @param setup called before every call to the body, and not timed
+     * @param body  the code being measured. Its result goes to the blackhole.
+     */
+    public <S> Result run(String name, Map<String, String> params, Supplier<S> setup,
+        Function<? super S, ?> body) {
+        return run(name, params, setup, body, 1);
+    }
+
+    /**
+     * For bodies too quick to time one call at a time, since reading the clock costs tens of
+     * nanoseconds itself. The body should do the operation the given number of times (in a loop,
+     * folding the results into what it returns), and the result is reported per operation.
+     */
+    public Result run(String name, Map<String, String> params, int operations, Supplier<?> body) {
+        if (operations < 1) {
+            throw new IllegalArgumentException("operations must be positive: " + operations);
+        }
+        return run(name, params, () -> null, ignored -> body.get(), operations);
+    }
+
+    private <S> Result run(String name, Map<String, String> params, Supplier<S> setup,
+        Function<? super S, ?> body, int operations) {
+        Objects.requireNonNull(setup);
+        Objects.requireNonNull(body);
+        for (int i = 0; i < warmupIterations; i++) {
+            iteration(setup, body);
+        }
+        double[] samples = new double[measurementIterations];
+        for (int i = 0; i < measurementIterations; i++) {
+            samples[i] = iteration(setup, body) / operations;
+        }
+        Result result = new Result(name, params, samples);
+        results.add(result);
+        System.err.println(result);
+        return result;
+    }
+
+    /**
+     * @return the average nanoseconds per call over one iteration
+     */
+    private <S> double iteration(Supplier<S> setup, Function<? super S, ?> body) {
+        long measured = 0;
+        long calls = 0;
+        long deadline = System.nanoTime() + iterationNanos;
+        do {
+            S state = setup.get();
+            long start = System.nanoTime();
+            Object value = body.apply(state);
+            measured += System.nanoTime() - start;
+            blackhole.consume(value);
+            calls++;
+        } while (System.nanoTime() < deadline);
+        return (double) measured / calls;
+    }
+
+    public List<Result> getResults() {
+        return Collections.unmodifiableList(results);
+    }
+
+    public Blackhole getBlackhole() {
+        return blackhole;
+    }
+
+    /**
+     * Every result so far, as a JSON array.
+     */
+    public String toJson() {
+        StringBuilder json = new StringBuilder("[\n");
+        for (int i = 0; i < results.size(); i++) {
+            json.append("  ").append(results.get(i).toJson())
+                .append(i < results.size() - 1 ? ",\n" : "\n");
+        }
+        return json.append(']').toString();
+    }
+
+    // Student's t at 0.9995, for 1 to 30 degrees of freedom
+    private static final double[] T_999 = {
+        636.619, 31.599, 12.924, 8.610, 6.869, 5.959, 5.408, 5.041, 4.781, 4.587,
+        4.437, 4.318, 4.221, 4.140, 4.073, 4.015, 3.965, 3.922, 3.883, 3.850,
+        3.819, 3.792, 3.768, 3.745, 3.725, 3.707, 3.690, 3.674, 3.659, 3.646};
+
+    /**
+     * @return how many standard errors either side of the mean make a 99.9% interval, for this
+     * many degrees of freedom
+     */
+    static double tQuantile999(int degreesOfFreedom) {
+        if (degreesOfFreedom < 1) {
+            return 0; // a single sample says nothing about the spread
+        }
+        if (degreesOfFreedom <= T_999.length) {
+            return T_999[degreesOfFreedom - 1];
+        }
+        // Cornish-Fisher expansion around the normal quantile, good to three decimals past 30
+        double z = 3.2905267314919;
+        double v = degreesOfFreedom;
+        double z2 = z * z;
+        return z
+            + z * (z2 + 1) / (4 * v)
+            + z * ((5 * z2 + 16) * z2 + 3) / (96 * v * v)
+            + z * (((3 * z2 + 19) * z2 + 17) * z2 - 15) / (384 * v * v * v)
+            + z * ((((79 * z2 + 776) * z2 + 1482) * z2 - 1920) * z2 - 945) / (92160 * v * v * v * v);
+    }
+
+    static Map<String, String> params(String... keysAndValues) {
+        Map<String, String> params = new LinkedHashMap<>();
+        for (int i = 0; i + 1 < keysAndValues.length; i += 2) {
+            params.put(keysAndValues[i], keysAndValues[i + 1]);
+        }
+        return params;
+    }
+}
@@ -1,5 +1,6 @@
 package com.melnick.java8;
 
+import java.nio.ByteBuffer;
 import java.util.Arrays;
 import java.util.NoSuchElementException;
 import java.util.Objects;
@@ -9,6 +10,9 @@ public enum MoreStreams {
     STREAM_A("Stream A"),
     STREAM_B("Stream B");
 
+    private static final EnumValueIndex<MoreStreams> BY_VALUE =
+            EnumValueIndex.of(MoreStreams.class, MoreStreams::getValue);
+
     private final String value;
 
     MoreStreams(String value) {
@@ -115,4 +119,83 @@ public enum MoreStreams {
                 .orElseThrow(NoSuchElementException::new);
     }
 
+
+
+
+
+
+
+
+
+
+
+
+
+
+
+
+
+
+
+
+    /**
+     * No scan, no stream, no allocation. The values are put in a hash table once, see
+     * EnumValueIndex. Works from any CharSequence, so the text does not have to be a String first.
+     * @param value
+     * @return
+     */
+    public static MoreStreams fastValueFrom(final CharSequence value) {
+        Objects.requireNonNull(value, "Passed in value was null. Provide a non-null value");
+        return BY_VALUE.getOrThrow(value);
+    }
+
+    /**
+     * fastValueFrom(), for call sites where a bad value is everyday input rather than a bug. The
+     * policy says what a miss costs: see FailurePolicy. With ERROR_CODE a miss, or a null value,
+     * returns null.
+     * @param value
+     * @param policy
+     * @return
+     */
+    public static MoreStreams valueFrom(final CharSequence value, final FailurePolicy policy) {
+        if (value == null && policy == FailurePolicy.ERROR_CODE) {
+            return null;
+        }
+        Objects.requireNonNull(value, "Passed in value was null. Provide a non-null value");
+        return BY_VALUE.get(value, policy);
+    }
+
+    /**
+     * valueFrom() for a value inside a larger text, such as a field of a line being parsed. Looks
+     * at the chars from start (inclusive) to end (exclusive) where they are, without a substring().
+     * With ignoreCase, ASCII letters match either case ("stream a" finds STREAM_A).
+     * @param value
+     * @param start
+     * @param end
+     * @param ignoreCase
+     * @param policy
+     * @return
+     */
+    public static MoreStreams valueFrom(final CharSequence value, final int start, final int end,
+            final boolean ignoreCase, final FailurePolicy policy) {
+        Objects.requireNonNull(value, "Passed in value was null. Provide a non-null value");
+        return BY_VALUE.get(value, start, end, ignoreCase, policy);
+    }
+
+    /**
+     * valueFrom() for length bytes of ASCII at offset in a buffer, straight off the wire or out of
+     * a file. No String and no byte[] copy is made. The buffer's position does not move.
+     * @param buffer
+     * @param offset
+     * @param length
+     * @param ignoreCase
+     * @param policy
+     * @return
+     */
+    public static MoreStreams valueFrom(final ByteBuffer buffer, final int offset, final int length,
+            final boolean ignoreCase, final FailurePolicy policy) {
+        Objects.requireNonNull(buffer, "Passed in buffer was null. Provide a non-null buffer");
+        return BY_VALUE.get(buffer, offset, length, ignoreCase, policy);
+    }
+
 }
@@ -0,0 +1,219 @@
+package com.melnick.java8;
+
+import java.util.ArrayList;
+import java.util.Objects;
+import java.util.function.IntPredicate;
+import java.util.function.IntUnaryOperator;
+import java.util.function.Predicate;
+import java.util.function.UnaryOperator;
+
+/**
+ * replaceAll() and removeIf() for big ArrayLists and IntLists, on every core.
+ *
+ * replaceAll() is the easy one: every element is replaced where it is, so each chunk of the list
+ * can be done by a different worker.
+ *
+ * removeIf() moves the survivors down to close the gaps, and where a survivor goes depends on how
+ * many were removed before it. So it takes four parallel steps with a short sequential one in the
+ * middle:
+ *
+ *   mark     every chunk tests its elements, once each, and sets a bit for every survivor
+ *   count    a prefix sum over the chunks' survivor counts says where each chunk's survivors start
+ *   scatter  every chunk copies its survivors to their places in a new array
+ *   write    every chunk copies its part of that array back into the list, which is then truncated
+ *
+ * The chunks are whole multiples of 64 elements, so no two ever share a word of the bitmap.
+ *
+ * The results are exactly what the sequential methods give, survivors in their original order.
+ * Like ArrayList.removeIf(), the filter is called once per element, and if it throws, the list is
+ * left as it was. (If a replaceAll() operator throws, some elements may already be replaced, as
+ * with the sequential method.)
+ *
+ * The functions are called from several threads at once, so they must be thread safe and should
+ * not care about order. Nothing else may touch the list until the call returns. Small lists just
+ * use the sequential methods.
+ */
+public final class ParallelListOps {
+
+    private static final int MIN_CHUNK = 1 << 14;
+    private static final int PARALLEL_THRESHOLD = 1 << 16;
+    private static final int WORD_BITS = Long.SIZE;
+
+    private ParallelListOps() {
+    }
+
+    public static void replaceAll(IntList list, IntUnaryOperator operator) {
+        Objects.requireNonNull(operator);
+        int size = list.size();
+        if (size < PARALLEL_THRESHOLD) {
+            list.replaceAll(operator);
+            return;
+        }
+        int[] elements = list.array();
+        int[] bounds = bounds(size);
+        ForkJoinRanges.forEach(bounds.length - 1, chunk -> {
+            for (int i = bounds[chunk], end = bounds[chunk + 1]; i < end; i++) {
+                elements[i] = operator.applyAsInt(elements[i]);
+            }
+        });
+    }
+
+    /**
+     * The same as list.replaceAll(operator). ArrayList.set() is a plain array store, so chunks can
+     * set their own elements at the same time.
+     */
+    public static <E> void replaceAll(ArrayList<E> list, UnaryOperator<E> operator) {
+        Objects.requireNonNull(operator);
+        int size = list.size();
+        if (size < PARALLEL_THRESHOLD) {
+            list.replaceAll(operator);
+            return;
+        }
+        int[] bounds = bounds(size);
+        ForkJoinRanges.forEach(bounds.length - 1, chunk -> {
+            for (int i = bounds[chunk], end = bounds[chunk + 1]; i < end; i++) {
+                list.set(i, operator.apply(list.get(i)));
+            }
+        });
+    }
+
+    /**
+     * @return true if anything was removed
+     */
+    public static boolean removeIf(IntList list, IntPredicate filter) {
+        Objects.requireNonNull(filter);
+        int size = list.size();
+        if (size < PARALLEL_THRESHOLD) {
+            return list.removeIf(filter);
+        }
+        int[] elements = list.array();
+        int[] bounds = bounds(size);
+        int chunks = bounds.length - 1;
+        long[] survivors = new long[(size + WORD_BITS - 1) / WORD_BITS];
+        int[] starts = new int[chunks + 1];
+
+        ForkJoinRanges.forEach(chunks, chunk -> {
+            int count = 0;
+            for (int i = bounds[chunk], end = bounds[chunk + 1]; i < end; i++) {
+                if (!filter.test(elements[i])) {
+                    survivors[i / WORD_BITS] |= 1L << i;
+                    count++;
+                }
+            }
+            starts[chunk + 1] = count;
+        });
+        int kept = prefixSum(starts);
+        if (kept == size) {
+            return false;
+        }
+
+        int[] compacted = new int[kept];
+        ForkJoinRanges.forEach(chunks, chunk -> {
+            int write = starts[chunk];
+            for (int i = nextSurvivor(survivors, bounds[chunk], bounds[chunk + 1]); i >= 0;
+                 i = nextSurvivor(survivors, i + 1, bounds[chunk + 1])) {
+                compacted[write++] = elements[i];
+            }
+        });
+        ForkJoinRanges.forEach(chunks, chunk -> System.arraycopy(compacted, starts[chunk], elements,
+            starts[chunk], starts[chunk + 1] - starts[chunk]));
+        list.truncate(kept);
+        return true;
+    }
+
+    /**
+     * The same as list.removeIf(filter).
+     *
+     * @return true if anything was removed
+     */
+    public static <E> boolean removeIf(ArrayList<E> list, Predicate<? super E> filter) {
+        Objects.requireNonNull(filter);
+        int size = list.size();
+        if (size < PARALLEL_THRESHOLD) {
+            return list.removeIf(filter);
+        }
+        int[] bounds = bounds(size);
+        int chunks = bounds.length - 1;
+        long[] survivors = new long[(size + WORD_BITS - 1) / WORD_BITS];
+        int[] starts = new int[chunks + 1];
+
+        ForkJoinRanges.forEach(chunks, chunk -> {
+            int count = 0;
+            for (int i = bounds[chunk], end = bounds[chunk + 1]; i < end; i++) {
+                if (!filter.test(list.get(i))) {
+                    survivors[i / WORD_BITS] |= 1L << i;
+                    count++;
+                }
+            }
+            starts[chunk + 1] = count;
+        });
+        int kept = prefixSum(starts);
+        if (kept == size) {
+            return false;
+        }
+
+        Object[] compacted = new Object[kept];
+        ForkJoinRanges.forEach(chunks, chunk -> {
+            int write = starts[chunk];
+            for (int i = nextSurvivor(survivors, bounds[chunk], bounds[chunk + 1]); i >= 0;
+                 i = nextSurvivor(survivors, i + 1, bounds[chunk + 1])) {
+                compacted[write++] = list.get(i);
+            }
+        });
+        ForkJoinRanges.forEach(chunks, chunk -> {
+            for (int i = starts[chunk], end = starts[chunk + 1]; i < end; i++) {
+                @SuppressWarnings("unchecked")
+                E element = (E) compacted[i];
+                list.set(i, element);
+            }
+        });
+        list.subList(kept, size).clear();
+        return true;
+    }
+
+    /**
+     * Cuts [0, length) into chunks that start on a multiple of 64.
+     *
+     * @return the chunk boundaries, chunk c being [bounds[c], bounds[c + 1])
+     */
+    private static int[] bounds(int length) {
+        int chunks = ForkJoinRanges.chunks(length, MIN_CHUNK);
+        int[] bounds = new int[chunks + 1];
+        for (int chunk = 1; chunk < chunks; chunk++) {
+            bounds[chunk] = ForkJoinRanges.chunkStart(length, chunk, chunks) & -WORD_BITS;
+        }
+        bounds[chunks] = length;
+        return bounds;
+    }
+
+    /**
+     * Turns counts[1..] into where each chunk starts, in place.
+     *
+     * @return the total
+     */
+    private static int prefixSum(int[] counts) {
+        for (int chunk = 1; chunk < counts.length; chunk++) {
+            counts[chunk] += counts[chunk - 1];
+        }
+        return counts[counts.length - 1];
+    }
+
+    /**
+     * @return the index of the first set bit in [from, to), or -1
+     */
+    private static int nextSurvivor(long[] bits, int from, int to) {
+        if (from >= to) {
+            return -1;
+        }
+        int word = from / WORD_BITS;
+        long current = bits[word] & (-1L << from);
+        while (current == 0) {
+            if (++word * WORD_BITS >= to) {
+                return -1;
+            }
+            current = bits[word];
+        }
+        int index = word * WORD_BITS + Long.numberOfTrailingZeros(current);
+        return index < to ? index : -1;
+    }
+}
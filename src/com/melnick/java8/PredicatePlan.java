@@ -0,0 +1,387 @@
+package com.melnick.java8;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Objects;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Predicate;
+
+/**
+ * A chain of and()ed predicates that decides for itself what order to test them in.
+ *
+ * a.and(b).and(c) always tests a first, then b, then c. If a is slow and almost always true, and
+ * c is cheap and almost always false, that is the worst order there is. The best order puts
+ * first whatever has the lowest cost / (1 - selectivity): predicates that are cheap, or that
+ * throw most of the elements out, or both. (Selectivity here is the fraction of elements that
+ * pass.)
+ *
+ * {@link #plan(Collection)} works the numbers out from a sample of the data. Every predicate is
+ * tested against every sampled element, and timed. Then they are sorted by that rank. A predicate
+ * whose cost is already known can be given it with {@link #where(String, Predicate, double)}, and
+ * is not timed: a single timed pass is easily thrown off by the JIT or a GC.
+ *
+ * While filtering, a predicate only sees what the ones before it let through, so how many of those
+ * pass says little about its selectivity on its own (two predicates that pick out the same
+ * elements would look like 1.0 for the second one). So every 64th element is audited instead:
+ * tested against every predicate, the way the sample was, and counted. Every
+ * {@link #setReplanInterval(int) replanInterval} tests the plan compares the selectivities of the
+ * elements audited since the last check to the estimates. If any has moved by more than the drift
+ * threshold, it reorders on the spot with what it has seen, and asks for a fresh sample the next
+ * time {@link #prepare(Collection)} is called.
+ *
+ * {@link #report()} lists every predicate with its estimated and actual numbers.
+ *
+ * A plan is a Predicate, so it works anywhere one does. Functional.filterTransactions() has an
+ * overload that prepares the plan against the collection first. The predicates may be called from
+ * several threads at once, and must not have side effects, since their order is not fixed.
+ */
+public class PredicatePlan<T> implements Predicate<T> {
+
+    private static final int DEFAULT_SAMPLE_SIZE = 1024;
+    private static final int DEFAULT_REPLAN_INTERVAL = 1 << 16;
+    private static final double DEFAULT_DRIFT_THRESHOLD = 0.2;
+    private static final int AUDIT_INTERVAL = 64;
+
+    /**
+     * One and()ed predicate with its numbers.
+     */
+    private static final class Conjunct<T> {
+        private final String name;
+        private final Predicate<? super T> predicate;
+        private volatile double estimatedSelectivity = 1;
+        private volatile double estimatedCostNanos;
+        // NaN when the cost is to be timed
+        private final double fixedCostNanos;
+        private final LongAdder evaluated = new LongAdder();
+        // From the audited elements only, which every predicate sees
+        private final LongAdder audited = new LongAdder();
+        private final LongAdder auditPassed = new LongAdder();
+
+        Conjunct(String name, Predicate<? super T> predicate, double fixedCostNanos) {
+            this.name = name;
+            this.predicate = predicate;
+            this.fixedCostNanos = fixedCostNanos;
+            if (!Double.isNaN(fixedCostNanos)) {
+                this.estimatedCostNanos = fixedCostNanos;
+            }
+        }
+
+        double actualSelectivity() {
+            long seen = audited.sum();
+            return seen == 0 ? Double.NaN : (double) auditPassed.sum() / seen;
+        }
+
+        void reset() {
+            evaluated.reset();
+            audited.reset();
+            auditPassed.reset();
+        }
+
+        /**
+         * Lower runs first. Something that passes everything filters nothing, so it goes last.
+         */
+        static double rank(double costNanos, double selectivity) {
+            double rejected = 1 - selectivity;
+            return rejected <= 0 ? Double.MAX_VALUE : (costNanos + 1) / rejected;
+        }
+    }
+
+    /**
+     * What the plan knows about one of its predicates.
+     */
+    public static final class ConjunctReport {
+        private final String name;
+        private final int position;
+        private final double estimatedSelectivity;
+        private final double actualSelectivity;
+        private final double estimatedCostNanos;
+        private final long evaluated;
+
+        ConjunctReport(String name, int position, double estimatedSelectivity,
+            double actualSelectivity, double estimatedCostNanos, long evaluated) {
+            this.name = name;
+            this.position = position;
+            this.estimatedSelectivity = estimatedSelectivity;
+            this.actualSelectivity = actualSelectivity;
+            this.estimatedCostNanos = estimatedCostNanos;
+            this.evaluated = evaluated;
+        }
+
+        public String getName() {
+            return name;
+        }
+
+        /**
+         * @return where this predicate is tested, 0 is first
+         */
+        public int getPosition() {
+            return position;
+        }
+
+        public double getEstimatedSelectivity() {
+            return estimatedSelectivity;
+        }
+
+        /**
+         * @return the fraction of the audited elements that passed since the last drift check, or
+         * NaN if none have been audited yet
+         */
+        public double getActualSelectivity() {
+            return actualSelectivity;
+        }
+
+        public double getEstimatedCostNanos() {
+            return estimatedCostNanos;
+        }
+
+        /**
+         * @return how many times it was tested since the last plan, audits included
+         */
+        public long getEvaluated() {
+            return evaluated;
+        }
+
+        @Override
+        public String toString() {
+            return String.format("%d. %s: estimated %.3f, actual %.3f over %,d, cost %.1f ns",
+                position + 1, name, estimatedSelectivity, actualSelectivity, evaluated,
+                estimatedCostNanos);
+        }
+    }
+
+    private final List<Conjunct<T>> conjuncts = new ArrayList<>();
+    private volatile Conjunct<T>[] order;
+    private volatile boolean planned;
+    private volatile boolean stale;
+    private int sampleSize = DEFAULT_SAMPLE_SIZE;
+    private int replanInterval = DEFAULT_REPLAN_INTERVAL;
+    private double driftThreshold = DEFAULT_DRIFT_THRESHOLD;
+
+    // Only a hint for when to look for drift. Lost updates from racing threads do not matter.
+    private int testsSinceCheck;
+
+    public PredicatePlan() {
+        order = newArray(0);
+    }
+
+    /**
+     * Adds a predicate to the chain. Until the plan has been planned they run in the order added.
+     */
+    public PredicatePlan<T> where(String name, Predicate<? super T> predicate) {
+        return add(name, predicate, Double.NaN);
+    }
+
+    /**
+     * Adds a predicate whose cost per test is known, so that plan() only samples its selectivity.
+     * Giving every predicate the same cost orders them by selectivity alone.
+     */
+    public PredicatePlan<T> where(String name, Predicate<? super T> predicate, double costNanos) {
+        if (!(costNanos >= 0) || Double.isInfinite(costNanos)) {
+            throw new IllegalArgumentException("costNanos must be finite and not negative: " + costNanos);
+        }
+        return add(name, predicate, costNanos);
+    }
+
+    private synchronized PredicatePlan<T> add(String name, Predicate<? super T> predicate,
+        double fixedCostNanos) {
+        conjuncts.add(new Conjunct<>(Objects.requireNonNull(name), Objects.requireNonNull(predicate),
+            fixedCostNanos));
+        order = conjuncts.toArray(newArray(conjuncts.size()));
+        planned = false;
+        return this;
+    }
+
+    public PredicatePlan<T> setSampleSize(int sampleSize) {
+        if (sampleSize < 1) {
+            throw new IllegalArgumentException("sampleSize must be positive: " + sampleSize);
+        }
+        this.sampleSize = sampleSize;
+        return this;
+    }
+
+    public PredicatePlan<T> setReplanInterval(int replanInterval) {
+        if (replanInterval < 1) {
+            throw new IllegalArgumentException("replanInterval must be positive: " + replanInterval);
+        }
+        this.replanInterval = replanInterval;
+        return this;
+    }
+
+    public PredicatePlan<T> setDriftThreshold(double driftThreshold) {
+        this.driftThreshold = driftThreshold;
+        return this;
+    }
+
+    /**
+     * Plans against the source if the plan has never been planned, or if drift was seen since.
+     */
+    public void prepare(Collection<? extends T> source) {
+        if (!planned || stale) {
+            plan(source);
+        }
+    }
+
+    /**
+     * Samples the source, estimates every predicate, and reorders. Clears the actual numbers.
+     */
+    public synchronized void plan(Collection<? extends T> source) {
+        List<T> sample = sample(source);
+        if (sample.isEmpty()) {
+            return;
+        }
+        for (Conjunct<T> conjunct : conjuncts) {
+            int passed;
+            if (Double.isNaN(conjunct.fixedCostNanos)) {
+                // once to warm up, once to time
+                measure(conjunct, sample);
+                long start = System.nanoTime();
+                passed = measure(conjunct, sample);
+                conjunct.estimatedCostNanos = (double) (System.nanoTime() - start) / sample.size();
+            } else {
+                passed = measure(conjunct, sample);
+            }
+            conjunct.estimatedSelectivity = (double) passed / sample.size();
+            conjunct.reset();
+        }
+        List<Conjunct<T>> sorted = new ArrayList<>(conjuncts);
+        sorted.sort(Comparator.comparingDouble(
+            conjunct -> Conjunct.rank(conjunct.estimatedCostNanos, conjunct.estimatedSelectivity)));
+        order = sorted.toArray(newArray(sorted.size()));
+        testsSinceCheck = 0;
+        planned = true;
+        stale = false;
+    }
+
+    @Override
+    public boolean test(T t) {
+        int tests = ++testsSinceCheck;
+        if (tests >= replanInterval) {
+            checkDrift();
+        }
+        if (tests % AUDIT_INTERVAL == 0) {
+            return audit(t);
+        }
+        for (Conjunct<T> conjunct : order) {
+            conjunct.evaluated.increment();
+            if (!conjunct.predicate.test(t)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * The predicates in the order they are currently tested.
+     */
+    public List<ConjunctReport> report() {
+        Conjunct<T>[] current = order;
+        List<ConjunctReport> report = new ArrayList<>(current.length);
+        for (int i = 0; i < current.length; i++) {
+            Conjunct<T> conjunct = current[i];
+            report.add(new ConjunctReport(conjunct.name, i, conjunct.estimatedSelectivity,
+                conjunct.actualSelectivity(), conjunct.estimatedCostNanos,
+                conjunct.evaluated.sum()));
+        }
+        return Collections.unmodifiableList(report);
+    }
+
+    public boolean isPlanned() {
+        return planned;
+    }
+
+    /**
+     * @return true if drift has been seen since the last plan
+     */
+    public boolean isStale() {
+        return stale;
+    }
+
+    private synchronized void checkDrift() {
+        if (testsSinceCheck < replanInterval) {
+            return; // another thread got here first
+        }
+        testsSinceCheck = 0;
+        if (!planned) {
+            return;
+        }
+        // Each check looks at its own interval's audits, so older data cannot hide new drift
+        boolean drifted = false;
+        double[] ranks = new double[conjuncts.size()];
+        for (int i = 0; i < ranks.length; i++) {
+            Conjunct<T> conjunct = conjuncts.get(i);
+            double actual = conjunct.actualSelectivity();
+            conjunct.audited.reset();
+            conjunct.auditPassed.reset();
+            if (!Double.isNaN(actual)
+                && Math.abs(actual - conjunct.estimatedSelectivity) > driftThreshold) {
+                drifted = true;
+            }
+            ranks[i] = Conjunct.rank(conjunct.estimatedCostNanos,
+                Double.isNaN(actual) ? conjunct.estimatedSelectivity : actual);
+        }
+        if (!drifted) {
+            return;
+        }
+        // Reorder with what has actually been seen until a new sample can be taken
+        Conjunct<T>[] reordered = order.clone();
+        Arrays.sort(reordered, Comparator.comparingDouble(
+            conjunct -> ranks[conjuncts.indexOf(conjunct)]));
+        order = reordered;
+        stale = true;
+    }
+
+    /*
+     * Tests every predicate, whatever the earlier ones said, so the counts are the same kind of
+     * number as the sampled estimates.
+     */
+    private boolean audit(T t) {
+        boolean all = true;
+        for (Conjunct<T> conjunct : order) {
+            conjunct.evaluated.increment();
+            conjunct.audited.increment();
+            if (conjunct.predicate.test(t)) {
+                conjunct.auditPassed.increment();
+            } else {
+                all = false;
+            }
+        }
+        return all;
+    }
+
+    private int measure(Conjunct<T> conjunct, List<T> sample) {
+        int passed = 0;
+        for (T t : sample) {
+            if (conjunct.predicate.test(t)) {
+                passed++;
+            }
+        }
+        return passed;
+    }
+
+    /**
+     * Every n-th element, so the whole source is represented and not just its start.
+     */
+    private List<T> sample(Collection<? extends T> source) {
+        int size = source.size();
+        int stride = Math.max(1, size / sampleSize);
+        List<T> sample = new ArrayList<>(Math.min(size, sampleSize));
+        Iterator<? extends T> iterator = source.iterator();
+        for (int i = 0; iterator.hasNext() && sample.size() < sampleSize; i++) {
+            T t = iterator.next();
+            if (i % stride == 0) {
+                sample.add(t);
+            }
+        }
+        return sample;
+    }
+
+    @SuppressWarnings("unchecked")
+    private static <T> Conjunct<T>[] newArray(int length) {
+        return (Conjunct<T>[]) new Conjunct<?>[length];
+    }
+}
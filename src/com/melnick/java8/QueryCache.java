@@ -0,0 +1,129 @@
+package com.melnick.java8;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.function.Supplier;
+
+/**
+ * A small least recently used cache of query results.
+ *
+ * A query is identified by what it is (any object, "filter" or "sum" say) and the functions that
+ * make it up, compared with ==. Lambdas and method references do not override equals(), so two
+ * separately written but identical lambdas are two different queries. Keep the Predicate in a
+ * field or a constant to get hits.
+ *
+ * Every key also carries the version of the data it was computed from. Whoever owns the data
+ * bumps its version on every change, so results for old versions are simply never asked for
+ * again, and drop out of the end of the LRU order as new ones come in.
+ *
+ * A lookup that hits is a hash and a few == comparisons. The cache is safe to use from several
+ * threads, but two threads that miss on the same query at once will both compute it.
+ */
+public final class QueryCache {
+
+    public static final int DEFAULT_CAPACITY = 64;
+
+    private static final class Key {
+        private final Object kind;
+        private final Object first;
+        private final Object second;
+        private final long version;
+
+        Key(Object kind, Object first, Object second, long version) {
+            this.kind = kind;
+            this.first = first;
+            this.second = second;
+            this.version = version;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (!(o instanceof Key)) {
+                return false;
+            }
+            Key key = (Key) o;
+            return kind == key.kind && first == key.first && second == key.second
+                && version == key.version;
+        }
+
+        @Override
+        public int hashCode() {
+            int hash = System.identityHashCode(kind);
+            hash = 31 * hash + System.identityHashCode(first);
+            hash = 31 * hash + System.identityHashCode(second);
+            return 31 * hash + Long.hashCode(version);
+        }
+    }
+
+    private final int capacity;
+    private final Map<Key, Object> results;
+    private long hits;
+    private long misses;
+
+    public QueryCache() {
+        this(DEFAULT_CAPACITY);
+    }
+
+    public QueryCache(int capacity) {
+        if (capacity < 1) {
+            throw new IllegalArgumentException("Illegal capacity: " + capacity);
+        }
+        this.capacity = capacity;
+        this.results = new LinkedHashMap<Key, Object>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<Key, Object> eldest) {
+                return size() > QueryCache.this.capacity;
+            }
+        };
+    }
+
+    /**
+     * @return the cached result of the query at this version, or what query computes (which is
+     * then cached). The query is run outside of any lock.
+     */
+    public <R> R get(Object kind, Object first, Object second, long version, Supplier<R> query) {
+        Key key = new Key(kind, first, second, version);
+        synchronized (this) {
+            @SuppressWarnings("unchecked")
+            R result = (R) results.get(key);
+            if (result != null) {
+                hits++;
+                return result;
+            }
+            misses++;
+        }
+        R result = query.get();
+        if (result != null) {
+            synchronized (this) {
+                results.put(key, result);
+            }
+        }
+        return result;
+    }
+
+    public synchronized void clear() {
+        results.clear();
+    }
+
+    public synchronized int size() {
+        return results.size();
+    }
+
+    public int capacity() {
+        return capacity;
+    }
+
+    public synchronized long hits() {
+        return hits;
+    }
+
+    public synchronized long misses() {
+        return misses;
+    }
+
+    @Override
+    public synchronized String toString() {
+        return "QueryCache{size=" + results.size() + ", capacity=" + capacity + ", hits=" + hits
+            + ", misses=" + misses + '}';
+    }
+}
@@ -0,0 +1,191 @@
+package com.melnick.java8;
+
+import com.melnick.java8.StreamExample.Record;
+import com.melnick.java8.StreamExample.Transaction;
+import com.melnick.java8.StreamExample.TransactionStatus;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Collection;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.function.Predicate;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+
+/**
+ * The Transaction to Record to Transaction graph behind StreamExample.streamOperations().
+ *
+ * That pipeline goes transaction -> parent record -> the record's transactions, filters, then
+ * calls distinct(). Two things make it slow. Every Transaction that reaches distinct() gets hashed
+ * into a HashSet. And a Record with n Transactions in the source is expanded n times, producing
+ * n copies of the same children only for distinct() to throw n - 1 of them away.
+ *
+ * The graph is built once. Every Transaction and every Record gets a dense int id, and the
+ * children of each Record are stored as one int[] slice (compressed sparse rows). A traversal then
+ * expands every Record exactly once, and remembers what it has seen in BitSets instead of a
+ * HashSet.
+ *
+ * Results come out in exactly the order the stream pipeline produces them. That includes the
+ * parallel traversal.
+ *
+ * Statuses are read from the Transactions themselves when traversing, so status changes after
+ * the graph was built are seen. Changes to which Transactions belong to which Record are not.
+ *
+ * A source Transaction with no Record is skipped. (The stream would throw a NullPointerException.)
+ */
+public class RecordGraph {
+
+    // Record ids are handed out in order of first appearance in the source, so walking the ids in
+    // order is the same as walking the source and skipping records already expanded.
+    private final Transaction[] transactions;
+    private final int[] childOffsets;
+    private final int[] children;
+
+    private RecordGraph(Transaction[] transactions, int[] childOffsets, int[] children) {
+        this.transactions = transactions;
+        this.childOffsets = childOffsets;
+        this.children = children;
+    }
+
+    /**
+     * Builds the graph reachable from the source. This is the only step that hashes anything.
+     */
+    public static RecordGraph of(Collection<Transaction> source) {
+        Map<Transaction, Integer> transactionIds = new IdentityHashMap<>();
+        Map<Record, Integer> recordIds = new IdentityHashMap<>();
+        List<Transaction> transactions = new ArrayList<>();
+        int[] childOffsets = new int[16];
+        int[] children = new int[16];
+        int childCount = 0;
+
+        for (Transaction transaction : source) {
+            Record record = transaction.getRecord();
+            if (record != null && !recordIds.containsKey(record)) {
+                int recordId = recordIds.size();
+                recordIds.put(record, recordId);
+                for (Transaction child : record.getTransactions()) {
+                    Integer childId = transactionIds.get(child);
+                    if (childId == null) {
+                        childId = transactions.size();
+                        transactionIds.put(child, childId);
+                        transactions.add(child);
+                    }
+                    if (childCount == children.length) {
+                        children = Arrays.copyOf(children, childCount << 1);
+                    }
+                    children[childCount++] = childId;
+                }
+                if (recordId + 2 > childOffsets.length) {
+                    childOffsets = Arrays.copyOf(childOffsets, childOffsets.length << 1);
+                }
+                childOffsets[recordId + 1] = childCount;
+            }
+        }
+        return new RecordGraph(transactions.toArray(new Transaction[0]),
+            Arrays.copyOf(childOffsets, recordIds.size() + 1),
+            Arrays.copyOf(children, childCount));
+    }
+
+    public int transactionCount() {
+        return transactions.length;
+    }
+
+    public int recordCount() {
+        return childOffsets.length - 1;
+    }
+
+    /**
+     * The same as
+     * <pre>
+     *     source.stream()
+     *         .flatMap(transaction -> transaction.getRecord().getTransactions().stream())
+     *         .filter(filter)
+     *         .distinct()
+     * </pre>
+     */
+    public List<Transaction> expand(Predicate<? super Transaction> filter) {
+        Objects.requireNonNull(filter);
+        List<Transaction> result = new ArrayList<>();
+        BitSet seen = new BitSet(transactions.length);
+        for (int recordId = 0; recordId < recordCount(); recordId++) {
+            for (int i = childOffsets[recordId]; i < childOffsets[recordId + 1]; i++) {
+                int child = children[i];
+                if (!seen.get(child)) {
+                    seen.set(child);
+                    if (filter.test(transactions[child])) {
+                        result.add(transactions[child]);
+                    }
+                }
+            }
+        }
+        return result;
+    }
+
+    public List<Transaction> expand(TransactionStatus status) {
+        return expand(transaction -> transaction.getStatus() == status);
+    }
+
+    /**
+     * {@link #expand(Predicate)}, with the records split between the threads of the common
+     * ForkJoinPool. Each worker de-duplicates its own share, then the shares are merged in order
+     * with one more pass, so the result is identical to the sequential one.
+     *
+     * The filter will be called from several threads at once.
+     */
+    public List<Transaction> parallelExpand(Predicate<? super Transaction> filter) {
+        Objects.requireNonNull(filter);
+        int records = recordCount();
+        int partitions = Math.min(records, Runtime.getRuntime().availableProcessors() * 4);
+        if (partitions <= 1) {
+            return expand(filter);
+        }
+        List<int[]> matches = IntStream.range(0, partitions)
+            .parallel()
+            .mapToObj(partition -> expandPartition(
+                (int) ((long) records * partition / partitions),
+                (int) ((long) records * (partition + 1) / partitions), filter))
+            .collect(Collectors.toList());
+
+        List<Transaction> result = new ArrayList<>();
+        BitSet seen = new BitSet(transactions.length);
+        for (int[] partitionMatches : matches) {
+            for (int child : partitionMatches) {
+                if (!seen.get(child)) {
+                    seen.set(child);
+                    result.add(transactions[child]);
+                }
+            }
+        }
+        return result;
+    }
+
+    public List<Transaction> parallelExpand(TransactionStatus status) {
+        return parallelExpand(transaction -> transaction.getStatus() == status);
+    }
+
+    private int[] expandPartition(int fromRecord, int toRecord,
+        Predicate<? super Transaction> filter) {
+        BitSet seen = new BitSet(transactions.length);
+        int[] matches = new int[16];
+        int count = 0;
+        for (int recordId = fromRecord; recordId < toRecord; recordId++) {
+            for (int i = childOffsets[recordId]; i < childOffsets[recordId + 1]; i++) {
+                int child = children[i];
+                if (!seen.get(child)) {
+                    seen.set(child);
+                    if (filter.test(transactions[child])) {
+                        if (count == matches.length) {
+                            matches = Arrays.copyOf(matches, count << 1);
+                        }
+                        matches[count++] = child;
+                    }
+                }
+            }
+        }
+        return Arrays.copyOf(matches, count);
+    }
+}
@@ -0,0 +1,233 @@
+package com.melnick.java8;
+
+import com.melnick.java8.StreamExample.Transaction;
+
+import java.util.AbstractCollection;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.Objects;
+import java.util.Spliterator;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.function.Consumer;
+
+/**
+ * An append only collection of Transactions that any number of threads can add to at once,
+ * while others read.
+ *
+ * Wrapping an ArrayList in Collections.synchronizedCollection() puts every add and every read
+ * behind one lock. Here an add claims the next index by a compareAndSet on a tail counter, and
+ * then writes its Transaction into that slot. Adders retry rather than wait for each other, except
+ * at a segment boundary (see below), and readers never hold anything up.
+ *
+ * The slots live in segments that double in size: 1024, 2048, 4096 and so on. Nothing is ever
+ * copied as the collection grows, and a segment, once made, never moves. The segment an index
+ * falls in is made before the index is claimed, so a failed allocation (an OutOfMemoryError) leaves
+ * no claimed slot behind for readers to wait on forever. Making one takes a lock, the only one
+ * there is, about twenty times in the life of the collection, so that racing adders make it once
+ * rather than each throwing a large array away. Adders that reach a new segment together wait on
+ * that lock for the one making it, so every boundary briefly serializes them.
+ *
+ * Every read works on a snapshot: the elements from 0 up to the tail at the moment it started.
+ * iterator(), spliterator(), stream() and parallelStream() all see exactly that many elements, in
+ * the order they were added, no matter how many are added meanwhile. A slot that has been claimed
+ * but not yet written is waited for, which takes no longer than one array store in the adding
+ * thread.
+ *
+ * Nothing can be removed. Nulls are not allowed.
+ */
+public class SegmentedTransactionCollection extends AbstractCollection<Transaction> {
+
+    private static final int FIRST_SEGMENT_BITS = 10;
+    private static final int FIRST_SEGMENT_SIZE = 1 << FIRST_SEGMENT_BITS;
+    private static final int MAX_SEGMENTS = Integer.SIZE - FIRST_SEGMENT_BITS;
+    private static final int MAX_SIZE = Integer.MAX_VALUE - 8;
+
+    private final AtomicReferenceArray<AtomicReferenceArray<Transaction>> segments =
+        new AtomicReferenceArray<>(MAX_SEGMENTS);
+    private final AtomicInteger tail = new AtomicInteger();
+
+    public SegmentedTransactionCollection() {
+    }
+
+    public SegmentedTransactionCollection(Collection<Transaction> transactions) {
+        addAll(transactions);
+    }
+
+    @Override
+    public boolean add(Transaction transaction) {
+        append(transaction);
+        return true;
+    }
+
+    /**
+     * @return the index the transaction was added at
+     */
+    int append(Transaction transaction) {
+        Objects.requireNonNull(transaction, "transaction");
+        while (true) {
+            int index = tail.get();
+            if (index >= MAX_SIZE) {
+                throw new IllegalStateException("SegmentedTransactionCollection is full");
+            }
+            int segment = segmentOf(index);
+            AtomicReferenceArray<Transaction> slots = segments.get(segment);
+            if (slots == null) {
+                slots = newSegment(segment);
+            }
+            if (tail.compareAndSet(index, index + 1)) {
+                // nothing between the claim and the write can fail
+                slots.lazySet(offsetOf(index, segment), transaction);
+                return index;
+            }
+        }
+    }
+
+    /**
+     * @return the transaction added as the index-th, waiting for it if it is still being written
+     */
+    public Transaction get(int index) {
+        int size = size();
+        if (index < 0 || index >= size) {
+            throw new IndexOutOfBoundsException("Index: " + index + ", Size: " + size);
+        }
+        return await(index);
+    }
+
+    /**
+     * @return how many transactions have been added, including any still being written
+     */
+    @Override
+    public int size() {
+        return Math.min(tail.get(), MAX_SIZE);
+    }
+
+    @Override
+    public Iterator<Transaction> iterator() {
+        return iterator(size());
+    }
+
+    /**
+     * @return the first end transactions, all of which must have been claimed already
+     */
+    Iterator<Transaction> iterator(int end) {
+        return new Iterator<Transaction>() {
+            private int index;
+
+            @Override
+            public boolean hasNext() {
+                return index < end;
+            }
+
+            @Override
+            public Transaction next() {
+                if (index >= end) {
+                    throw new NoSuchElementException();
+                }
+                return await(index++);
+            }
+        };
+    }
+
+    @Override
+    public void forEach(Consumer<? super Transaction> action) {
+        Objects.requireNonNull(action);
+        int end = size();
+        for (int index = 0; index < end; index++) {
+            action.accept(await(index));
+        }
+    }
+
+    @Override
+    public Spliterator<Transaction> spliterator() {
+        return new SnapshotSpliterator(0, size());
+    }
+
+    private final class SnapshotSpliterator implements Spliterator<Transaction> {
+        private int index;
+        private final int end;
+
+        SnapshotSpliterator(int index, int end) {
+            this.index = index;
+            this.end = end;
+        }
+
+        @Override
+        public boolean tryAdvance(Consumer<? super Transaction> action) {
+            if (index >= end) {
+                return false;
+            }
+            action.accept(await(index++));
+            return true;
+        }
+
+        @Override
+        public void forEachRemaining(Consumer<? super Transaction> action) {
+            for (; index < end; index++) {
+                action.accept(await(index));
+            }
+        }
+
+        @Override
+        public Spliterator<Transaction> trySplit() {
+            int mid = (index + end) >>> 1;
+            if (mid <= index) {
+                return null;
+            }
+            Spliterator<Transaction> prefix = new SnapshotSpliterator(index, mid);
+            index = mid;
+            return prefix;
+        }
+
+        @Override
+        public long estimateSize() {
+            return end - index;
+        }
+
+        @Override
+        public int characteristics() {
+            return ORDERED | SIZED | SUBSIZED | NONNULL | IMMUTABLE;
+        }
+    }
+
+    private Transaction await(int index) {
+        int segment = segmentOf(index);
+        // a claimed index always has its segment
+        AtomicReferenceArray<Transaction> slots = segments.get(segment);
+        int offset = offsetOf(index, segment);
+        Transaction transaction;
+        while ((transaction = slots.get(offset)) == null) {
+            Thread.yield();
+        }
+        return transaction;
+    }
+
+    private AtomicReferenceArray<Transaction> newSegment(int segment) {
+        synchronized (segments) {
+            AtomicReferenceArray<Transaction> slots = segments.get(segment);
+            if (slots == null) {
+                long start = ((long) FIRST_SEGMENT_SIZE << segment) - FIRST_SEGMENT_SIZE;
+                // the last segment only goes as far as MAX_SIZE
+                int length = (int) Math.min((long) FIRST_SEGMENT_SIZE << segment, MAX_SIZE - start);
+                slots = new AtomicReferenceArray<>(length);
+                segments.set(segment, slots);
+            }
+            return slots;
+        }
+    }
+
+    /*
+     * Segment k holds indexes FIRST_SEGMENT_SIZE * (2^k - 1) up to FIRST_SEGMENT_SIZE *
+     * (2^(k+1) - 1), so adding FIRST_SEGMENT_SIZE to an index puts its segment in the top bit.
+     */
+
+    private static int segmentOf(int index) {
+        long shifted = (long) index + FIRST_SEGMENT_SIZE;
+        return Long.SIZE - 1 - Long.numberOfLeadingZeros(shifted) - FIRST_SEGMENT_BITS;
+    }
+
+    private static int offsetOf(int index, int segment) {
+        return (int) ((long) index + FIRST_SEGMENT_SIZE - ((long) FIRST_SEGMENT_SIZE << segment));
+    }
+}
@@ -0,0 +1,91 @@
+package com.melnick.java8;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+import static com.melnick.java8.MicroBenchmark.params;
+
+/**
+ * Sequential and parallel sorting of ints, the measurements behind
+ * StreamExample.parallelOperations().
+ *
+ *   streamSorted          IntStream.sorted()
+ *   parallelStreamSorted  IntStream.parallel().sorted()
+ *   arraysSort            Arrays.sort(int[])
+ *   arraysParallelSort    Arrays.parallelSort(int[])
+ *   radixSort             IntRadixSort.sort(int[])
+ *   radixParallelSort     IntRadixSort.parallelSort(int[])
+ *
+ * Every call sorts a fresh copy of the same random array. The copy is made in the untimed setup.
+ * The stream variants end in toArray() rather than count(), because count() on a SIZED stream
+ * skips the sort entirely.
+ *
+ * Usage: SortBenchmark [--json file] [sizes...]
+ * The default sizes are 1,000 to 10,000,000 in powers of ten. 100,000,000 works too, given about
+ * 1GB of heap (-Xmx1g). Iteration counts and times come from the bench.* system properties, see
+ * MicroBenchmark.fromSystemProperties().
+ */
+public class SortBenchmark {
+
+    private static final int[] DEFAULT_SIZES = {1_000, 10_000, 100_000, 1_000_000, 10_000_000};
+
+    public static void main(String[] args) throws IOException {
+        String jsonFile = null;
+        List<Integer> sizes = new ArrayList<>();
+        for (int i = 0; i < args.length; i++) {
+            if ("--json".equals(args[i]) && i + 1 < args.length) {
+                jsonFile = args[++i];
+            } else {
+                sizes.add(Integer.parseInt(args[i].replace("_", "")));
+            }
+        }
+        int[] sizeArray = sizes.isEmpty() ? DEFAULT_SIZES
+            : sizes.stream().mapToInt(Integer::intValue).toArray();
+
+        MicroBenchmark benchmark = run(MicroBenchmark.fromSystemProperties(), sizeArray);
+        if (jsonFile != null) {
+            Files.write(Paths.get(jsonFile), benchmark.toJson().getBytes(StandardCharsets.UTF_8));
+        } else {
+            System.out.println(benchmark.toJson());
+        }
+    }
+
+    static MicroBenchmark run(MicroBenchmark benchmark, int... sizes) {
+        for (int size : sizes) {
+            int[] source = new Random(42).ints(size).toArray();
+            String n = String.valueOf(size);
+
+            benchmark.run("streamSorted", params("size", n),
+                () -> source, data -> Arrays.stream(data).sorted().toArray());
+            benchmark.run("parallelStreamSorted", params("size", n),
+                () -> source, data -> Arrays.stream(data).parallel().sorted().toArray());
+            benchmark.run("arraysSort", params("size", n),
+                () -> source.clone(), data -> {
+                    Arrays.sort(data);
+                    return data;
+                });
+            benchmark.run("arraysParallelSort", params("size", n),
+                () -> source.clone(), data -> {
+                    Arrays.parallelSort(data);
+                    return data;
+                });
+            benchmark.run("radixSort", params("size", n),
+                () -> source.clone(), data -> {
+                    IntRadixSort.sort(data);
+                    return data;
+                });
+            benchmark.run("radixParallelSort", params("size", n),
+                () -> source.clone(), data -> {
+                    IntRadixSort.parallelSort(data);
+                    return data;
+                });
+        }
+        return benchmark;
+    }
+}
@@ -0,0 +1,124 @@
+package com.melnick.java8;
+
+import com.melnick.java8.Functional.TransactionCollection;
+import com.melnick.java8.StreamExample.Transaction;
+
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.function.Predicate;
+
+/**
+ * A filterTransactions() that never has to be run again.
+ *
+ * Registered with {@link TransactionCollection#register(Predicate, Listener)}, it starts out with
+ * the transactions that match right now. From then on it hears about every add, remove and update
+ * made through the collection, and moves that one transaction in or out of its result, telling
+ * its Listener when it does. A change costs one predicate test and one hash lookup, no matter how
+ * many transactions there are.
+ *
+ * A collection may hold the same transaction more than once, so the query counts how many times
+ * each one is there (which takes an entry for every transaction, not just the matches). Removing
+ * one copy of a matching transaction leaves it in the result; removing the last copy is what tells
+ * the Listener it left.
+ *
+ * Only updates made through TransactionCollection.update() are seen. A transaction changed behind
+ * the collection's back stays wherever it was.
+ *
+ * Changes may come from several threads at once (a TransactionCollection.concurrent() say). They
+ * are applied one at a time, under the query's lock, and the Listener is called with that lock
+ * held, so it hears about them in the order they were applied. Keep it quick.
+ */
+public final class StandingQuery implements TransactionCollection.ChangeListener {
+
+    /**
+     * Hears about transactions moving in and out of the result.
+     */
+    public interface Listener {
+        void entered(Transaction transaction);
+
+        void left(Transaction transaction);
+    }
+
+    private final TransactionCollection source;
+    private final Predicate<Transaction> predicate;
+    private final Listener listener;
+    // How many times each transaction is in the collection, matching or not. Guarded by this.
+    private final Map<Transaction, Integer> copies = new IdentityHashMap<>();
+    // Guarded by this
+    private final Set<Transaction> results = Collections.newSetFromMap(new IdentityHashMap<>());
+
+    StandingQuery(TransactionCollection source, Predicate<Transaction> predicate, Listener listener) {
+        this.source = source;
+        this.predicate = predicate;
+        this.listener = listener;
+    }
+
+    synchronized void initial(Iterable<Transaction> transactions) {
+        for (Transaction transaction : transactions) {
+            copies.merge(transaction, 1, Integer::sum);
+            if (predicate.test(transaction)) {
+                results.add(transaction);
+            }
+        }
+    }
+
+    /**
+     * @return a copy of the current matches
+     */
+    public synchronized Set<Transaction> results() {
+        Set<Transaction> copy = Collections.newSetFromMap(new IdentityHashMap<>(results.size()));
+        copy.addAll(results);
+        return copy;
+    }
+
+    public synchronized int size() {
+        return results.size();
+    }
+
+    /**
+     * Stops following the collection. The result stays as it was.
+     */
+    public void close() {
+        source.removeListener(this);
+    }
+
+    @Override
+    public synchronized void added(Transaction transaction) {
+        copies.merge(transaction, 1, Integer::sum);
+        if (predicate.test(transaction) && results.add(transaction)) {
+            listener.entered(transaction);
+        }
+    }
+
+    @Override
+    public synchronized void removed(Transaction transaction) {
+        Integer count = copies.get(transaction);
+        if (count == null) {
+            return;
+        }
+        if (count > 1) {
+            copies.put(transaction, count - 1);
+            return;
+        }
+        copies.remove(transaction);
+        if (results.remove(transaction)) {
+            listener.left(transaction);
+        }
+    }
+
+    @Override
+    public synchronized void updated(Transaction transaction, Transaction before) {
+        if (!copies.containsKey(transaction)) {
+            return; //not one of ours
+        }
+        if (predicate.test(transaction)) {
+            if (results.add(transaction)) {
+                listener.entered(transaction);
+            }
+        } else if (results.remove(transaction)) {
+            listener.left(transaction);
+        }
+    }
+}
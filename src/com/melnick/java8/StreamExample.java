@@ -6,17 +6,41 @@ import java.util.stream.Stream;
 import org.junit.Assert;
 import org.junit.Test;
 
-import java.time.Duration;
-import java.time.LocalTime;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.BitSet;
 import java.util.Collection;
 import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
 import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
 import java.util.Objects;
 import java.util.Random;
 import java.util.Set;
+import java.util.Spliterator;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
+import java.util.function.Function;
+import java.util.function.Predicate;
 import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+import java.util.stream.StreamSupport;
 
 /**
  * Think of streams as creating a pipeline which is acted upon by any number of intermediate
@@ -82,6 +106,9 @@ public class StreamExample {
         TransactionStatus getStatus() {
             return status;
         }
+        void setStatus(TransactionStatus status) {
+            this.status = status;
+        }
     }
 
 
@@ -180,6 +207,43 @@ public class StreamExample {
         Assert.assertEquals(traditionalDoneList, streamedDoneList);
     }
 
+    /*
+    * The same report from a RecordGraph, over records that share transactions, from a source that
+    * names the same transaction more than once. Each record is expanded once, and duplicates are
+    * caught with a bitset of dense ids instead of a HashSet.
+    * */
+    @Test
+    public void recordGraphExpand() {
+        List<Transaction> transactions = randomTransactions(5_000);
+        List<Transaction> source = new ArrayList<>();
+        Random random = new Random(7);
+        for (int start = 0; start + 10 < transactions.size(); start += 8) {
+            //every record shares two transactions with the next one
+            List<Transaction> children = transactions.subList(start, start + 10);
+            Record record = () -> children;
+            for (Transaction child : children) {
+                child.setRecord(record);
+            }
+            source.add(children.get(random.nextInt(children.size())));
+        }
+        for (int i = 0; i < 1_000; i++) {
+            source.add(source.get(random.nextInt(source.size())));
+        }
+        Collections.shuffle(source, random);
+
+        RecordGraph graph = RecordGraph.of(source);
+        for (TransactionStatus status : TransactionStatus.values()) {
+            List<Transaction> streamed = source.stream()
+                    .flatMap(transaction -> transaction.getRecord().getTransactions().stream())
+                    .filter(transaction -> transaction.getStatus() == status)
+                    .distinct()
+                    .collect(Collectors.toList());
+            Assert.assertFalse(streamed.isEmpty());
+            Assert.assertEquals(streamed, graph.expand(status));
+            Assert.assertEquals(streamed, graph.parallelExpand(status));
+        }
+    }
+
 
 
 
@@ -250,6 +314,638 @@ public class StreamExample {
         System.out.println("Aggregate wait time is: " + waitTime);
     }
 
+    /*
+    * The same totals from a TransactionLedger. It is told about every change, so it never has to
+    * look at the collection again, and it still agrees with the pipeline above after each one.
+    * */
+    @Test
+    public void ledgerWaitTimes() {
+        List<Transaction> collection = new ArrayList<>(createCollection());
+        TransactionLedger ledger = TransactionLedger.of(collection);
+        assertLedgerMatches(collection, ledger);
+
+        ledger.changeStatus(collection.get(2), TransactionStatus.DONE);
+        assertLedgerMatches(collection, ledger);
+
+        Transaction removed = collection.remove(0);
+        ledger.remove(removed);
+        Transaction added = new Transaction(TransactionStatus.SENDING, TransactionType.IAFIS, 45);
+        collection.add(added);
+        ledger.add(added);
+        assertLedgerMatches(collection, ledger);
+
+        Transaction changed = collection.get(3);
+        TransactionStatus oldStatus = changed.getStatus();
+        changed.setStatus(TransactionStatus.DONE);
+        ledger.statusChanged(changed.getType(), changed.getTimeInSeconds(), oldStatus, TransactionStatus.DONE);
+        assertLedgerMatches(collection, ledger);
+    }
+
+    private static void assertLedgerMatches(Collection<Transaction> collection, TransactionLedger ledger) {
+        for (TransactionStatus status : TransactionStatus.values()) {
+            int aggregateWaitTime = collection.stream()
+                    .filter(e -> e.status == status)
+                    .mapToInt(Transaction::getTimeInSeconds)
+                    .sum();
+            Assert.assertEquals(aggregateWaitTime, ledger.waitTime(status));
+            Assert.assertEquals(collection.stream().filter(e -> e.status == status).count(),
+                    ledger.count(status));
+        }
+        for (TransactionType type : TransactionType.values()) {
+            Assert.assertEquals(collection.stream()
+                    .filter(e -> e.type == type)
+                    .mapToInt(Transaction::getTimeInSeconds)
+                    .sum(), ledger.waitTime(type));
+        }
+        Assert.assertEquals(collection.size(), ledger.totalCount());
+    }
+
+
+
+
+
+    /*
+    * The same two aggregates, but over a TransactionStore. The store keeps each field in its own
+    * primitive array, so the sums never touch a Transaction or an Integer.
+    * */
+    @Test
+    public void columnarWaitTimes() {
+        Collection<Transaction> collection = createCollection();
+        TransactionStore store = TransactionStore.of(collection);
+
+        long aggregateWaitTime = collection.stream()
+                .mapToLong(Transaction::getTimeInSeconds)
+                .sum();
+        Assert.assertEquals(aggregateWaitTime, store.sumWaitTime());
+
+        long doneWaitTime = collection.stream()
+                .filter(e -> e.status == TransactionStatus.DONE)
+                .mapToLong(Transaction::getTimeInSeconds)
+                .sum();
+        Assert.assertEquals(doneWaitTime, store.sumWaitTime(TransactionStatus.DONE));
+
+        //the view still works anywhere a Collection<Transaction> is expected
+        Assert.assertEquals(store.count(TransactionStatus.DONE),
+                new Functional().filterTransactions(store.asCollection(),
+                        transaction -> transaction.getStatus() == TransactionStatus.DONE).size());
+    }
+
+    /*
+    * "IN_PROGRESS and IDENT" or "DONE or ABIS" as bitmap ANDs and ORs. Rows appended later only
+    * show up once the index is refreshed.
+    * */
+    @Test
+    public void indexedQueries() {
+        List<Transaction> collection = new ArrayList<>(createCollection());
+        TransactionStore store = TransactionStore.of(collection);
+        TransactionIndex index = new TransactionIndex(store);
+        assertIndexMatches(collection, index);
+
+        store.add(TransactionStatus.IN_PROGRESS, TransactionType.IDENT, 70, null);
+        store.add(TransactionStatus.DONE, TransactionType.ABIS, 15, null);
+        Assert.assertEquals(collection.size(), index.indexedRows()); //not seen yet
+        collection.add(new Transaction(TransactionStatus.IN_PROGRESS, TransactionType.IDENT, 70));
+        collection.add(new Transaction(TransactionStatus.DONE, TransactionType.ABIS, 15));
+
+        index.refresh();
+        Assert.assertEquals(collection.size(), index.indexedRows());
+        assertIndexMatches(collection, index);
+    }
+
+    private static void assertIndexMatches(List<Transaction> collection, TransactionIndex index) {
+        for (TransactionStatus status : TransactionStatus.values()) {
+            for (TransactionType type : TransactionType.values()) {
+                BitSet and = index.rows(status, type);
+                BitSet or = index.rows(status);
+                or.or(index.rows(type));
+                for (int row = 0; row < collection.size(); row++) {
+                    Transaction transaction = collection.get(row);
+                    Assert.assertEquals(transaction.status == status && transaction.type == type, and.get(row));
+                    Assert.assertEquals(transaction.status == status || transaction.type == type, or.get(row));
+                }
+                Assert.assertEquals(collection.stream()
+                        .filter(e -> e.status == status || e.type == type)
+                        .mapToLong(Transaction::getTimeInSeconds)
+                        .sum(), index.sumWaitTime(or));
+            }
+        }
+    }
+
+    /*
+    * A ChunkedTransactionArray splits by index, so every split is an even, exactly sized half, and
+    * a parallel stream over it adds up to the same thing as a sequential one.
+    * */
+    @Test
+    public void chunkedParallelSums() {
+        List<Transaction> transactions = randomTransactions(10_001);
+        ChunkedTransactionArray chunked = new ChunkedTransactionArray(transactions);
+
+        Spliterator<Transaction> right = chunked.spliterator();
+        Spliterator<Transaction> left = right.trySplit();
+        Assert.assertEquals(5_000, left.estimateSize());
+        Assert.assertEquals(5_001, right.estimateSize());
+        Assert.assertTrue(right.hasCharacteristics(Spliterator.SIZED | Spliterator.SUBSIZED));
+        Spliterator<Transaction> leftQuarter = left.trySplit();
+        Assert.assertEquals(2_500, leftQuarter.estimateSize());
+        Assert.assertEquals(2_500, left.estimateSize());
+        long[] counted = new long[1];
+        leftQuarter.forEachRemaining(transaction -> counted[0]++);
+        Assert.assertEquals(2_500, counted[0]);
+
+        long sequential = transactions.stream()
+                .filter(e -> e.status == TransactionStatus.DONE)
+                .mapToLong(Transaction::getTimeInSeconds)
+                .sum();
+        long parallel = chunked.parallelStream()
+                .filter(e -> e.status == TransactionStatus.DONE)
+                .mapToLong(Transaction::getTimeInSeconds)
+                .sum();
+        Assert.assertEquals(sequential, parallel);
+        Assert.assertEquals(transactions, chunked.parallelStream().collect(Collectors.toList()));
+    }
+
+    /*
+    * A filter that throws leaves a ChunkedTransactionArray as it was, whether it is called through
+    * removeIf() directly or through a TransactionCollection around it.
+    * */
+    @Test
+    public void chunkedRemoveIfLeavesArrayWhenFilterThrows() {
+        List<Transaction> transactions = randomTransactions(10_000);
+        Transaction poison = transactions.get(7_500);
+        ChunkedTransactionArray chunked = new ChunkedTransactionArray(transactions);
+        Predicate<Transaction> filter = transaction -> {
+            if (transaction == poison) {
+                throw new IllegalStateException("poison");
+            }
+            return transaction.getStatus() == TransactionStatus.DONE;
+        };
+        try {
+            chunked.removeIf(filter);
+            Assert.fail("the filter threw, but removeIf() did not");
+        } catch (IllegalStateException expected) {
+        }
+        Assert.assertEquals(transactions, new ArrayList<>(chunked));
+
+        Functional.TransactionCollection wrapped = Functional.TransactionCollection.chunked(transactions);
+        try {
+            wrapped.removeIf(filter);
+            Assert.fail("the filter threw, but removeIf() did not");
+        } catch (IllegalStateException expected) {
+        }
+        Assert.assertEquals(transactions, new ArrayList<>(wrapped));
+
+        Assert.assertTrue(chunked.removeIf(transaction -> transaction.getStatus() == TransactionStatus.DONE));
+        Assert.assertEquals(transactions.stream()
+                .filter(transaction -> transaction.getStatus() != TransactionStatus.DONE)
+                .collect(Collectors.toList()), new ArrayList<>(chunked));
+    }
+
+    /*
+    * Threads adding at once, across several segments: nothing is lost or duplicated, every thread's
+    * transactions keep their order, and a read sees exactly the snapshot it started with.
+    * */
+    @Test
+    public void segmentedConcurrentAdds() throws InterruptedException {
+        SegmentedTransactionCollection segmented = new SegmentedTransactionCollection();
+        List<Transaction> transactions = randomTransactions(100_000);
+        List<Transaction> first = transactions.subList(0, 1_000);
+        first.forEach(segmented::add);
+        Iterator<Transaction> early = segmented.iterator();
+        Spliterator<Transaction> earlySplits = segmented.spliterator();
+
+        Thread[] adders = new Thread[4];
+        for (int i = 0; i < adders.length; i++) {
+            List<Transaction> share = transactions.subList(1_000 + i * 24_750, 1_000 + (i + 1) * 24_750);
+            adders[i] = new Thread(() -> share.forEach(segmented::add));
+            adders[i].start();
+        }
+        Spliterator<Transaction> midway = segmented.spliterator();
+        int during = (int) midway.estimateSize();
+        List<Transaction> midwaySnapshot = StreamSupport.stream(midway, true).collect(Collectors.toList());
+        for (Thread adder : adders) {
+            adder.join();
+        }
+        Assert.assertEquals(during, midwaySnapshot.size());
+        for (int i = 0; i < during; i++) {
+            Assert.assertSame(segmented.get(i), midwaySnapshot.get(i));
+        }
+
+        List<Transaction> snapshot = new ArrayList<>();
+        early.forEachRemaining(snapshot::add);
+        Assert.assertEquals(first, snapshot);
+        Assert.assertEquals(1_000, earlySplits.estimateSize());
+        Assert.assertEquals(first, StreamSupport.stream(earlySplits, true).collect(Collectors.toList()));
+
+        Assert.assertEquals(transactions.size(), segmented.size());
+        Map<Transaction, Integer> positions = new IdentityHashMap<>();
+        for (int i = 0; i < segmented.size(); i++) {
+            Assert.assertNull(positions.put(segmented.get(i), i));
+        }
+        Assert.assertEquals(transactions.size(), positions.size());
+        for (int i = 1; i < transactions.size(); i++) {
+            boolean sameShare = i < 1_000 || (i - 1_000) % 24_750 != 0;
+            if (sameShare) {
+                Assert.assertTrue(positions.get(transactions.get(i - 1)) < positions.get(transactions.get(i)));
+            }
+        }
+        Assert.assertEquals(segmented.parallelStream().mapToLong(Transaction::getTimeInSeconds).sum(),
+                transactions.stream().mapToLong(Transaction::getTimeInSeconds).sum());
+    }
+
+    /*
+    * The same aggregates from a file. The log is reopened, and then cut off in the middle of a
+    * record, the way a crash would leave it: the partial record is ignored and written over.
+    * */
+    @Test
+    public void transactionLog() throws IOException {
+        TransactionStore store = TransactionStore.of(randomTransactions(20_000));
+        Path path = Files.createTempFile("transactions", ".log");
+        try {
+            try (TransactionLog log = TransactionLog.open(path)) {
+                log.appendAll(store);
+                Assert.assertEquals(store.size(), log.size());
+                assertLogMatches(store, log);
+            }
+            Assert.assertEquals(TransactionLog.HEADER_SIZE + 20_000L * TransactionLog.RECORD_SIZE, Files.size(path));
+
+            try (TransactionLog log = TransactionLog.open(path)) {
+                Assert.assertEquals(store.size(), log.size());
+                assertLogMatches(store, log);
+                int[] rows = new int[1];
+                log.scan((status, type, timeInSeconds, recordId) -> {
+                    int row = rows[0]++;
+                    Assert.assertEquals(store.getStatus(row).ordinal(), status);
+                    Assert.assertEquals(store.getType(row).ordinal(), type);
+                    Assert.assertEquals(store.getTimeInSeconds(row), timeInSeconds);
+                    Assert.assertEquals(store.getRecordId(row), recordId);
+                });
+                Assert.assertEquals(store.size(), rows[0]);
+            }
+
+            Files.write(path, new byte[] {1, 2, 3, 4}, StandardOpenOption.APPEND);
+            try (TransactionLog log = TransactionLog.open(path)) {
+                Assert.assertEquals(store.size(), log.size());
+                assertLogMatches(store, log);
+                log.append(TransactionStatus.DONE, TransactionType.ABIS, 15, -1);
+                store.add(TransactionStatus.DONE, TransactionType.ABIS, 15, null);
+            }
+            Assert.assertEquals(TransactionLog.HEADER_SIZE + 20_001L * TransactionLog.RECORD_SIZE, Files.size(path));
+            try (TransactionLog log = TransactionLog.open(path)) {
+                Assert.assertEquals(store.size(), log.size());
+                assertLogMatches(store, log);
+            }
+        } finally {
+            Files.delete(path);
+        }
+    }
+
+    @Test
+    public void transactionLogRejectsOtherFiles() throws IOException {
+        Path path = Files.createTempFile("transactions", ".log");
+        try {
+            Files.write(path, "not a transaction log".getBytes(StandardCharsets.US_ASCII));
+            try {
+                TransactionLog.open(path).close();
+                Assert.fail("opened a file with a bad header");
+            } catch (IOException expected) {
+                Assert.assertTrue(expected.getMessage().startsWith("Not a transaction log"));
+            }
+
+            Files.write(path, new byte[] {0x47, 0x4C});  //too short for a header
+            try {
+                TransactionLog.open(path).close();
+                Assert.fail("opened a file with half a header");
+            } catch (IOException expected) {
+                Assert.assertTrue(expected.getMessage().startsWith("Not a transaction log"));
+            }
+        } finally {
+            Files.delete(path);
+        }
+    }
+
+    /*
+    * A write that fails partway loses nothing: the records that made it out whole count, the rest
+    * stay buffered, and the next flush writes them (over the half record) in the right place.
+    * */
+    @Test
+    public void transactionLogSurvivesFailedWrites() throws IOException {
+        Path path = Files.createTempFile("transactions", ".log");
+        try {
+            TransactionLog.open(path).close();
+            TransactionStore store = new TransactionStore();
+            FailingChannel channel = new FailingChannel(FileChannel.open(path,
+                    StandardOpenOption.READ, StandardOpenOption.WRITE));
+            try (TransactionLog log = new TransactionLog(channel, 0)) {
+                for (int i = 0; i < 5; i++) {
+                    log.append(TransactionStatus.DONE, TransactionType.IDENT, i, i);
+                    store.add(TransactionStatus.DONE, TransactionType.IDENT, i, null);
+                }
+                channel.allowed = 2 * TransactionLog.RECORD_SIZE + 5;
+                try {
+                    log.flush();
+                    Assert.fail("the write failed, but flush() did not");
+                } catch (IOException expected) {
+                }
+                Assert.assertEquals(5, log.size());
+
+                //a full buffer flushes itself, and the failure comes out of append()
+                channel.allowed = 0;
+                int appended = 5;
+                try {
+                    while (true) {
+                        log.append(TransactionStatus.SENDING, TransactionType.ABIS, appended, appended);
+                        store.add(TransactionStatus.SENDING, TransactionType.ABIS, appended, null);
+                        appended++;
+                    }
+                } catch (UncheckedIOException expected) {
+                }
+                Assert.assertEquals(appended, log.size());
+
+                channel.allowed = Long.MAX_VALUE;
+                log.append(TransactionStatus.IN_PROGRESS, TransactionType.IAFIS, 15, -1);
+                store.add(TransactionStatus.IN_PROGRESS, TransactionType.IAFIS, 15, null);
+                Assert.assertEquals(store.size(), log.size());
+                assertLogMatches(store, log);
+            }
+            Assert.assertEquals(TransactionLog.HEADER_SIZE + (long) store.size() * TransactionLog.RECORD_SIZE,
+                    Files.size(path));
+            try (TransactionLog log = TransactionLog.open(path)) {
+                Assert.assertEquals(store.size(), log.size());
+                assertLogMatches(store, log);
+            }
+        } finally {
+            Files.delete(path);
+        }
+    }
+
+    /**
+     * Writes up to allowed more bytes, then throws.
+     */
+    private static final class FailingChannel extends FileChannel {
+        private final FileChannel channel;
+        long allowed = Long.MAX_VALUE;
+
+        FailingChannel(FileChannel channel) {
+            this.channel = channel;
+        }
+
+        @Override
+        public int write(ByteBuffer src, long position) throws IOException {
+            if (allowed <= 0) {
+                throw new IOException("No space left on device");
+            }
+            ByteBuffer part = src.duplicate();
+            part.limit(part.position() + (int) Math.min(part.remaining(), allowed));
+            int written = channel.write(part, position);
+            src.position(src.position() + written);
+            allowed -= written;
+            return written;
+        }
+
+        @Override
+        public int read(ByteBuffer dst) throws IOException {
+            return channel.read(dst);
+        }
+
+        @Override
+        public long read(ByteBuffer[] dsts, int offset, int length) throws IOException {
+            return channel.read(dsts, offset, length);
+        }
+
+        @Override
+        public int write(ByteBuffer src) throws IOException {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public long write(ByteBuffer[] srcs, int offset, int length) throws IOException {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public long position() throws IOException {
+            return channel.position();
+        }
+
+        @Override
+        public FileChannel position(long newPosition) throws IOException {
+            channel.position(newPosition);
+            return this;
+        }
+
+        @Override
+        public long size() throws IOException {
+            return channel.size();
+        }
+
+        @Override
+        public FileChannel truncate(long size) throws IOException {
+            channel.truncate(size);
+            return this;
+        }
+
+        @Override
+        public void force(boolean metaData) throws IOException {
+            channel.force(metaData);
+        }
+
+        @Override
+        public long transferTo(long position, long count, WritableByteChannel target) throws IOException {
+            return channel.transferTo(position, count, target);
+        }
+
+        @Override
+        public long transferFrom(ReadableByteChannel src, long position, long count) throws IOException {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public int read(ByteBuffer dst, long position) throws IOException {
+            return channel.read(dst, position);
+        }
+
+        @Override
+        public MappedByteBuffer map(MapMode mode, long position, long size) throws IOException {
+            return channel.map(mode, position, size);
+        }
+
+        @Override
+        public FileLock lock(long position, long size, boolean shared) throws IOException {
+            return channel.lock(position, size, shared);
+        }
+
+        @Override
+        public FileLock tryLock(long position, long size, boolean shared) throws IOException {
+            return channel.tryLock(position, size, shared);
+        }
+
+        @Override
+        protected void implCloseChannel() throws IOException {
+            channel.close();
+        }
+    }
+
+    private static void assertLogMatches(TransactionStore store, TransactionLog log) throws IOException {
+        Assert.assertEquals(store.sumWaitTime(), log.sumWaitTime());
+        for (TransactionStatus status : TransactionStatus.values()) {
+            Assert.assertEquals(store.sumWaitTime(status), log.sumWaitTime(status));
+            Assert.assertEquals(store.count(status), log.count(status));
+        }
+        for (TransactionType type : TransactionType.values()) {
+            Assert.assertEquals(store.sumWaitTime(type), log.sumWaitTime(type));
+            Assert.assertEquals(store.count(type), log.count(type));
+        }
+    }
+
+
+
+
+    /*
+    * Percentiles without sorting. The histograms are filled once, and every question after that
+    * is a walk over their buckets. Wait times under 128 seconds are counted exactly.
+    * */
+    @Test
+    public void waitTimePercentiles() {
+        Collection<Transaction> collection = createCollection();
+        WaitTimeHistograms histograms = WaitTimeHistograms.of(collection);
+
+        //the sorting way
+        int[] sorted = collection.stream()
+                .mapToInt(Transaction::getTimeInSeconds)
+                .sorted()
+                .toArray();
+        int median = sorted[(sorted.length + 1) / 2 - 1];
+        Assert.assertEquals(median, histograms.total().p50());
+        Assert.assertEquals(sorted[sorted.length - 1], histograms.total().p999());
+
+        long doneOverHalfAMinute = collection.stream()
+                .filter(e -> e.status == TransactionStatus.DONE)
+                .filter(e -> e.getTimeInSeconds() > 30)
+                .count();
+        Assert.assertEquals(doneOverHalfAMinute,
+                histograms.histogram(TransactionStatus.DONE).countAbove(30));
+    }
+
+    /*
+    * Histograms that start listening while other threads add and update end up with exactly what
+    * the collection holds, whether its adds take the lock or not.
+    * */
+    @Test
+    public void histogramsListenWhileChanging() throws InterruptedException {
+        for (boolean concurrent : new boolean[] {false, true}) {
+            List<Transaction> all = randomTransactions(40_000);
+            List<Transaction> first = all.subList(0, 10_000);
+            Functional.TransactionCollection transactions = concurrent
+                    ? Functional.TransactionCollection.concurrent(first)
+                    : new Functional.TransactionCollection(Collections.synchronizedList(new ArrayList<>(first)));
+            List<Throwable> failures = Collections.synchronizedList(new ArrayList<>());
+            Thread adder = new Thread(() -> all.subList(10_000, all.size()).forEach(transactions::add));
+            Thread updater = new Thread(() -> first.forEach(transaction ->
+                    transactions.update(transaction, t -> t.setStatus(TransactionStatus.DONE))));
+            adder.setUncaughtExceptionHandler((thread, e) -> failures.add(e));
+            updater.setUncaughtExceptionHandler((thread, e) -> failures.add(e));
+            adder.start();
+            updater.start();
+            WaitTimeHistograms histograms = WaitTimeHistograms.listenTo(transactions);
+            adder.join();
+            updater.join();
+
+            Assert.assertEquals(Collections.emptyList(), failures);
+            WaitTimeHistograms expected = WaitTimeHistograms.of(all);
+            Assert.assertEquals(all.size(), histograms.total().count());
+            for (TransactionStatus status : TransactionStatus.values()) {
+                for (TransactionType type : TransactionType.values()) {
+                    Assert.assertEquals(expected.histogram(status, type).count(),
+                            histograms.histogram(status, type).count());
+                }
+            }
+        }
+    }
+
+    /*
+    * Merging adds up, and two sets of histograms merging into each other from two threads at once
+    * both finish. (Empty ones, so the counts don't double every round.)
+    * */
+    @Test
+    public void crossMergedHistograms() throws InterruptedException {
+        Collection<Transaction> collection = createCollection();
+        WaitTimeHistograms twice = WaitTimeHistograms.of(collection);
+        twice.merge(WaitTimeHistograms.of(collection));
+        Assert.assertEquals(2L * collection.size(), twice.total().count());
+        Assert.assertEquals(WaitTimeHistograms.of(collection).total().p50(), twice.total().p50());
+
+        WaitTimeHistograms a = new WaitTimeHistograms();
+        WaitTimeHistograms b = new WaitTimeHistograms();
+        Thread aIntoB = new Thread(() -> {
+            for (int i = 0; i < 50_000; i++) {
+                b.merge(a);
+            }
+        });
+        Thread bIntoA = new Thread(() -> {
+            for (int i = 0; i < 50_000; i++) {
+                a.merge(b);
+            }
+        });
+        aIntoB.setDaemon(true);
+        bIntoA.setDaemon(true);
+        aIntoB.start();
+        bIntoA.start();
+        aIntoB.join(30_000);
+        bIntoA.join(30_000);
+        Assert.assertFalse("deadlocked", aIntoB.isAlive() || bIntoA.isAlive());
+    }
+
+    /*
+    * Whatever the consumers do while they wait, each one sees every event, once, in order.
+    * */
+    @Test
+    public void ringBufferDelivery() throws InterruptedException {
+        int events = 10_000;
+        TransactionStatus[] statuses = TransactionStatus.values();
+        TransactionType[] types = TransactionType.values();
+        for (WaitStrategy waitStrategy : Arrays.asList(WaitStrategy.busySpin(), WaitStrategy.yielding(),
+                WaitStrategy.sleeping(), WaitStrategy.blocking())) {
+            TransactionRingBuffer ring = new TransactionRingBuffer(256, waitStrategy);
+            int[] seen = new int[events];
+            int[] sequences = new int[events];
+            int[] count = new int[1];
+            TransactionStore store = new TransactionStore();
+            List<TransactionRingBuffer.BatchConsumer> consumers = Arrays.asList(
+                    ring.newConsumer((event, sequence, endOfBatch) -> {
+                        sequences[count[0]] = (int) sequence;
+                        seen[count[0]++] = event.getTimeInSeconds();
+                    }),
+                    ring.newConsumer(TransactionRingBuffer.EventHandler.appendTo(store)));
+            List<Thread> threads = new ArrayList<>();
+            for (TransactionRingBuffer.BatchConsumer consumer : consumers) {
+                Thread thread = new Thread(consumer);
+                thread.setDaemon(true);
+                thread.start();
+                threads.add(thread);
+            }
+            for (int i = 0; i < events; i++) {
+                ring.publish(statuses[i % statuses.length], types[i % types.length], i, null);
+            }
+            for (int i = 0; i < consumers.size(); i++) {
+                consumers.get(i).halt();
+                threads.get(i).join(30_000);
+                Assert.assertFalse(threads.get(i).isAlive());
+                Assert.assertNull(consumers.get(i).getFailure());
+                Assert.assertEquals(events - 1, consumers.get(i).getSequence());
+            }
+
+            Assert.assertEquals(events, count[0]);
+            Assert.assertArrayEquals(IntStream.range(0, events).toArray(), sequences);
+            Assert.assertArrayEquals(IntStream.range(0, events).toArray(), seen);
+            Assert.assertEquals(events, store.size());
+            for (int row = 0; row < events; row++) {
+                Assert.assertEquals(row, store.getTimeInSeconds(row));
+                Assert.assertEquals(statuses[row % statuses.length], store.getStatus(row));
+                Assert.assertEquals(types[row % types.length], store.getType(row));
+            }
+        }
+    }
+
 
 
 
@@ -267,15 +963,222 @@ public class StreamExample {
 
         intList.sort(null); //This sorts the list!
 
+        IntRadixSort.sort(intList); //So does this, as ints, without comparing any Integers
+
     }
 
+    /*
+    * The radix sort has to agree with Arrays.sort() everywhere, including the sign bit, a range in
+    * the middle of an array, and input that is already the wrong way round.
+    * */
+    @Test
+    public void radixSortMatchesArraysSort() {
+        Random random = new Random(11);
+        for (int size : new int[] {0, 1, 2, 63, 64, 65, 1_000, 70_000, 300_000}) {
+            int[] descending = IntStream.range(0, size).map(i -> Integer.MAX_VALUE - 3 * i).toArray();
+            int[] mixed = random.ints(size).toArray();
+            if (size > 2) {
+                mixed[0] = Integer.MAX_VALUE;
+                mixed[size / 2] = Integer.MIN_VALUE;
+                mixed[size - 1] = -1;
+            }
+            for (int[] values : new int[][] {
+                    mixed,
+                    random.ints(size, -5, 5).toArray(),  //mostly duplicates
+                    descending,
+                    IntStream.range(0, size).map(i -> -i).toArray(),
+                    IntStream.range(0, size).map(i -> 42).toArray()}) {
+                int[] expected = values.clone();
+                Arrays.sort(expected);
+                int[] sorted = values.clone();
+                IntRadixSort.sort(sorted);
+                Assert.assertArrayEquals(expected, sorted);
+                sorted = values.clone();
+                IntRadixSort.parallelSort(sorted);
+                Assert.assertArrayEquals(expected, sorted);
+
+                int from = size / 4;
+                int to = size - size / 3;
+                expected = values.clone();
+                Arrays.sort(expected, from, to);
+                sorted = values.clone();
+                IntRadixSort.sort(sorted, from, to);
+                Assert.assertArrayEquals(expected, sorted);
+                sorted = values.clone();
+                IntRadixSort.parallelSort(sorted, from, to);
+                Assert.assertArrayEquals(expected, sorted);
+            }
+        }
 
+        //bad ranges throw what Arrays.sort() throws
+        int[] five = {5, 4, 3, 2, 1};
+        int[][] ranges = {{3, 1}, {-1, 2}, {0, 6}, {-1, 6}, {6, 2}};
+        Class<?>[] thrown = {IllegalArgumentException.class, ArrayIndexOutOfBoundsException.class,
+                ArrayIndexOutOfBoundsException.class, ArrayIndexOutOfBoundsException.class,
+                IllegalArgumentException.class};
+        for (int i = 0; i < ranges.length; i++) {
+            int from = ranges[i][0];
+            int to = ranges[i][1];
+            for (Consumer<int[]> sort : Arrays.<Consumer<int[]>>asList(
+                    values -> Arrays.sort(values, from, to),
+                    values -> IntRadixSort.sort(values, from, to),
+                    values -> IntRadixSort.parallelSort(values, from, to))) {
+                try {
+                    sort.accept(five);
+                    Assert.fail("sorted from " + from + " to " + to);
+                } catch (RuntimeException expected) {
+                    Assert.assertSame(thrown[i], expected.getClass());
+                }
+            }
+        }
+        Assert.assertArrayEquals(new int[] {5, 4, 3, 2, 1}, five);
+    }
 
+    /*
+    * A hit is one slot, so a miss must come out of that one slot too: wrong length, wrong case,
+    * nearly the key, or some other key that happens to land on a used slot. And a miss has to be
+    * handled the way the FailurePolicy says.
+    * */
+    @Test
+    public void enumValueIndexMisses() {
+        EnumValueIndex<MoreStreams> index = EnumValueIndex.of(MoreStreams.class, MoreStreams::getValue);
+        Assert.assertSame(MoreStreams.STREAM_A, index.get("Stream A"));
+        Assert.assertSame(MoreStreams.STREAM_B, index.get(new StringBuilder("Stream B")));
+        for (String missing : new String[] {"", "Stream", "Stream C", "stream a", "STREAM B", "Stream A ",
+                " Stream A", "Stream AB", "STREAM_A"}) {
+            Assert.assertNull(missing, index.get(missing));
+            Assert.assertNull(missing, index.get(new StringBuilder(missing)));
+            Assert.assertFalse(missing, index.containsKey(missing));
+        }
+        Assert.assertNull(index.get((CharSequence) null));
+        // the table has only a few slots, so most of these land on one that is taken
+        for (int i = 0; i < 10_000; i++) {
+            String missing = "Stream " + i;
+            Assert.assertNull(missing, index.get(missing));
+            Assert.assertNull(missing, index.get(new StringBuilder(missing)));
+        }
 
+        EnumValueIndex<TransactionType> byName = EnumValueIndex.of(TransactionType.class, TransactionType::name);
+        for (TransactionType type : TransactionType.values()) {
+            Assert.assertSame(type, byName.get(type.name()));
+            Assert.assertNull(byName.get(type.name().toLowerCase()));
+        }
+        Assert.assertTrue(byName.tableSize() >= 2 * TransactionType.values().length);
+
+        Set<RuntimeException> thrown = Collections.newSetFromMap(new IdentityHashMap<>());
+        for (int i = 0; i < 2; i++) {
+            try {
+                index.getOrThrow("Stream C");
+                Assert.fail("found Stream C");
+            } catch (NoSuchElementException expected) {
+                Assert.assertTrue(expected.getMessage().contains("Stream C"));
+                Assert.assertTrue(expected.getStackTrace().length > 0);
+                thrown.add(expected);
+            }
+            try {
+                MoreStreams.valueFrom("Stream C", FailurePolicy.PREALLOCATED_EXCEPTION);
+                Assert.fail("found Stream C");
+            } catch (FailurePolicy.PreallocatedException expected) {
+                Assert.assertEquals(0, expected.getStackTrace().length);
+                thrown.add(expected);
+            }
+        }
+        // two fresh ones and the one preallocated
+        Assert.assertEquals(3, thrown.size());
+        Assert.assertNull(index.get("Stream C", FailurePolicy.ERROR_CODE));
+        Assert.assertNull(MoreStreams.valueFrom(null, FailurePolicy.ERROR_CODE));
+        Assert.assertSame(MoreStreams.STREAM_A, MoreStreams.valueFrom("Stream A", FailurePolicy.PREALLOCATED_EXCEPTION));
+    }
 
+    /*
+    * Slices are looked up where they are: the neighbouring chars never count, a ByteBuffer keeps
+    * its position, and getIgnoreCase() folds ASCII letters only.
+    * */
+    @Test
+    public void enumValueIndexSlices() {
+        EnumValueIndex<MoreStreams> index = EnumValueIndex.of(MoreStreams.class, MoreStreams::getValue);
+        String line = "IDENT,Stream A,stream b,Stream C,Stream \u00C0";
+        for (CharSequence text : new CharSequence[] {line, new StringBuilder(line)}) {
+            Assert.assertSame(MoreStreams.STREAM_A, index.get(text, 6, 14));
+            Assert.assertNull(index.get(text, 6, 13));
+            Assert.assertNull(index.get(text, 5, 14));
+            Assert.assertNull(index.get(text, 15, 23));
+            Assert.assertNull(index.get(text, 24, 32));
+            Assert.assertSame(MoreStreams.STREAM_A, index.getIgnoreCase(text, 6, 14));
+            Assert.assertSame(MoreStreams.STREAM_B, index.getIgnoreCase(text, 15, 23));
+            Assert.assertNull(index.getIgnoreCase(text, 24, 32));
+            Assert.assertNull(index.getIgnoreCase(text, 33, 41));
+            Assert.assertSame(MoreStreams.STREAM_B, MoreStreams.valueFrom(text, 15, 23, true, FailurePolicy.FRESH_EXCEPTION));
+            Assert.assertNull(MoreStreams.valueFrom(text, 15, 23, false, FailurePolicy.ERROR_CODE));
+            try {
+                MoreStreams.valueFrom(text, 24, 32, true, FailurePolicy.FRESH_EXCEPTION);
+                Assert.fail("found Stream C");
+            } catch (NoSuchElementException expected) {
+                Assert.assertTrue(expected.getMessage().endsWith(": Stream C"));
+            }
+            try {
+                index.get(text, 40, 42);
+                Assert.fail("read past the end");
+            } catch (IndexOutOfBoundsException expected) {
+            }
+            try {
+                index.getIgnoreCase(text, 14, 6);
+                Assert.fail("read a slice that ends before it starts");
+            } catch (IndexOutOfBoundsException expected) {
+            }
+        }
+        Assert.assertSame(MoreStreams.STREAM_A, index.getIgnoreCase("STREAM A", 0, 8));
+
+        byte[] bytes = line.getBytes(StandardCharsets.ISO_8859_1);
+        ByteBuffer direct = ByteBuffer.allocateDirect(bytes.length);
+        direct.put(bytes).flip();
+        for (ByteBuffer buffer : new ByteBuffer[] {ByteBuffer.wrap(bytes), direct}) {
+            buffer.position(3);
+            Assert.assertSame(MoreStreams.STREAM_A, index.get(buffer, 6, 8));
+            Assert.assertNull(index.get(buffer, 6, 7));
+            Assert.assertNull(index.get(buffer, 15, 8));
+            Assert.assertSame(MoreStreams.STREAM_B, index.getIgnoreCase(buffer, 15, 8));
+            Assert.assertNull(index.getIgnoreCase(buffer, 24, 8));
+            Assert.assertNull(index.getIgnoreCase(buffer, 33, 8));
+            Assert.assertSame(MoreStreams.STREAM_B, MoreStreams.valueFrom(buffer, 15, 8, true, FailurePolicy.ERROR_CODE));
+            try {
+                MoreStreams.valueFrom(buffer, 24, 8, false, FailurePolicy.FRESH_EXCEPTION);
+                Assert.fail("found Stream C");
+            } catch (NoSuchElementException expected) {
+                Assert.assertTrue(expected.getMessage().endsWith(": Stream C"));
+            }
+            try {
+                index.get(buffer, 36, 8);
+                Assert.fail("read past the limit");
+            } catch (IndexOutOfBoundsException expected) {
+            }
+            Assert.assertEquals(3, buffer.position());
+            Assert.assertEquals(bytes.length, buffer.limit());
+        }
 
+        EnumValueIndex<Casing> casing = EnumValueIndex.of(Casing.class, Casing::key);
+        Assert.assertSame(Casing.LOWER, casing.get("key"));
+        Assert.assertSame(Casing.UPPER, casing.get("KEY"));
+        Assert.assertSame(Casing.UPPER, casing.get(ByteBuffer.wrap("KEY".getBytes(StandardCharsets.ISO_8859_1)), 0, 3));
+        try {
+            casing.getIgnoreCase("Key", 0, 3);
+            Assert.fail("picked one of two keys that differ only in case");
+        } catch (IllegalStateException expected) {
+        }
+        try {
+            casing.getIgnoreCase(ByteBuffer.wrap("Key".getBytes(StandardCharsets.ISO_8859_1)), 0, 3);
+            Assert.fail("picked one of two keys that differ only in case");
+        } catch (IllegalStateException expected) {
+        }
+    }
 
+    private enum Casing {
+        LOWER, UPPER;
 
+        String key() {
+            return this == LOWER ? "key" : "KEY";
+        }
+    }
 
 
 
@@ -287,22 +1190,41 @@ public class StreamExample {
 
 
 
-    public static void parallelOperations() {
-        LocalTime before = LocalTime.now();
-        System.out.println(new Random().ints(5_000_000).parallel().sorted().count());
-        LocalTime after = LocalTime.now();
-        System.out.println("Duration was: " + Duration.between(before, after).toString());
 
-        before = LocalTime.now();
-        System.out.println(new Random().ints(10_000_000).sorted().count());
-        after = LocalTime.now();
-        System.out.println("Duration was: " + Duration.between(before, after).toString());
 
-        LocalTime before1 = LocalTime.now();
 
-        System.out.println(new Random().ints(10_000_000).parallel().sorted().count());
-        LocalTime after1 = LocalTime.now();
-        System.out.println("Duration was: " + Duration.between(before1, after1).toString());
+
+
+
+
+
+    /*
+    * Timing a single call with LocalTime.now() mostly measures the JIT warming up, can be skipped
+    * by the JIT if the result is unused, and has millisecond resolution at best. (Worse, count() on
+    * a SIZED stream never runs sorted() at all since Java 9.) SortBenchmark measures the same
+    * sequential and parallel sorts properly, with warmup, repeated iterations and error bars.
+    * */
+    public static void parallelOperations() {
+        SortBenchmark.run(new MicroBenchmark(3, 5, 500), 5_000_000, 10_000_000);
+    }
+
+    /*
+    * With a handful of iterations the error bars come from Student's t, not the normal
+    * distribution: 8.61 standard errors either side for five samples, where 3.29 would be far too
+    * narrow.
+    * */
+    @Test
+    public void benchmarkErrorUsesStudentT() {
+        MicroBenchmark.Result result = new MicroBenchmark.Result("t", Collections.emptyMap(),
+                new double[] {1, 2, 3, 4, 5});
+        Assert.assertEquals(3, result.getMean(), 1e-9);
+        Assert.assertEquals(8.610 * Math.sqrt(2.5) / Math.sqrt(5), result.getError(), 1e-9);
+        Assert.assertEquals(636.619, MicroBenchmark.tQuantile999(1), 1e-9);
+        Assert.assertEquals(3.646, MicroBenchmark.tQuantile999(30), 1e-9);
+        Assert.assertEquals(3.551, MicroBenchmark.tQuantile999(40), 1e-3);
+        Assert.assertEquals(3.373, MicroBenchmark.tQuantile999(120), 1e-3);
+        Assert.assertEquals(0, new MicroBenchmark.Result("one", Collections.emptyMap(),
+                new double[] {7}).getError(), 0);
     }
 
 
@@ -482,6 +1404,175 @@ public class StreamExample {
 
 
 
+    /*
+    * The same work in batches. The DAO fetch for the next batch runs while the workflow updates for
+    * the current one are still going, and at most maxInFlightBatches are fetched ahead.
+    * Updates still happen one at a time, in the same order as above.
+    * */
+    long completeCasePaymentTasksBatched(Collection<BenefitRequest> benefitRequests,
+        int batchSize, int maxInFlightBatches) throws InterruptedException {
+        TaskEventKeyHolder taskEvent = new TaskEventKeyHolder(TaskType.CASE_PAYMENT_VALIDATION, TaskStatus.COMPLETED);
+        CasePaymentPipeline pipeline = new CasePaymentPipeline(
+            caseDAO::findCasesByReceiptList,
+            cisCase -> {
+                if (shouldUpdateCasePaymentTask(cisCase)) {
+                    workflowEventService.updateTaskAfterEvent(
+                        taskEvent, cisCase.getCaseIdentifier(), null);
+                }
+            },
+            batchSize, maxInFlightBatches);
+        return pipeline.run(getReceiptNumbers(benefitRequests));
+    }
+
+    /*
+    * Fetches that finish out of order still update in order, and no more than maxInFlightBatches
+    * are ever fetched ahead. The first failure, of either stage, comes out of run() and nothing
+    * after the failed batch is updated.
+    * */
+    @Test
+    public void casePaymentPipeline() throws InterruptedException {
+        List<String> receiptNumbers = IntStream.range(0, 200)
+                .mapToObj(i -> "IOE" + i)
+                .collect(Collectors.toList());
+        List<String> updated = Collections.synchronizedList(new ArrayList<>());
+        AtomicInteger ahead = new AtomicInteger();
+        AtomicInteger mostAhead = new AtomicInteger();
+        Function<List<String>, List<Case>> fetch = batch -> {
+            mostAhead.accumulateAndGet(ahead.incrementAndGet(), Math::max);
+            pause(ThreadLocalRandom.current().nextInt(3));
+            return batch.stream()
+                    .map(receipt -> (Case) () -> "CASE-" + receipt)
+                    .collect(Collectors.toList());
+        };
+        Consumer<Case> update = cisCase -> {
+            updated.add(cisCase.getCaseIdentifier());
+            if (cisCase.getCaseIdentifier().endsWith("9")) {
+                ahead.decrementAndGet();  //the last case of a batch of 10
+            }
+        };
+
+        long count = new CasePaymentPipeline(fetch, update, 10, 3).run(receiptNumbers);
+        Assert.assertEquals(200, count);
+        Assert.assertEquals(receiptNumbers.stream().map(receipt -> "CASE-" + receipt)
+                .collect(Collectors.toList()), updated);
+        Assert.assertTrue("fetched " + mostAhead + " ahead", mostAhead.get() <= 3);
+
+        RuntimeException daoDown = new IllegalStateException("DAO down");
+        updated.clear();
+        try {
+            new CasePaymentPipeline(batch -> {
+                if (batch.contains("IOE50")) {
+                    throw daoDown;
+                }
+                return fetch.apply(batch);
+            }, update, 10, 3).run(receiptNumbers);
+            Assert.fail("the fetch failure was lost");
+        } catch (CompletionException e) {
+            Assert.assertSame(daoDown, e.getCause());
+        }
+        Assert.assertEquals(receiptNumbers.subList(0, 50).stream().map(receipt -> "CASE-" + receipt)
+                .collect(Collectors.toList()), updated);
+
+        RuntimeException workflowDown = new IllegalStateException("workflow down");
+        updated.clear();
+        try {
+            new CasePaymentPipeline(fetch, cisCase -> {
+                if (cisCase.getCaseIdentifier().equals("CASE-IOE125")) {
+                    throw workflowDown;
+                }
+                update.accept(cisCase);
+            }, 10, 3).run(receiptNumbers);
+            Assert.fail("the update failure was lost");
+        } catch (CompletionException e) {
+            Assert.assertSame(workflowDown, e.getCause());
+        }
+        Assert.assertEquals(125, updated.size());
+    }
+
+    private static void pause(long millis) {
+        try {
+            Thread.sleep(millis);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+
+
+
+
+
+
+    /*
+    * Each workflow update is a blocking remote call, and forEach makes them one at a time. This
+    * version runs up to maxConcurrency of them at once (on virtual threads, when the JVM has them).
+    * A case that fails does not stop the rest. Failures come back in the result, by case id.
+    * */
+    BoundedFanOut.Result<String> completeCasePaymentTasksConcurrently(
+        Collection<BenefitRequest> benefitRequests, int maxConcurrency) throws InterruptedException {
+        List<String> receiptNumbers = getReceiptNumbers(benefitRequests);
+        TaskEventKeyHolder taskEvent = new TaskEventKeyHolder(TaskType.CASE_PAYMENT_VALIDATION, TaskStatus.COMPLETED);
+        List<String> cisCaseIds = caseDAO
+            .findCasesByReceiptList(receiptNumbers)
+            .stream()
+            .filter(this::shouldUpdateCasePaymentTask)
+            .map(Case::getCaseIdentifier)
+            .collect(Collectors.toList());
+        try (BoundedFanOut fanOut = BoundedFanOut.virtualThreads(maxConcurrency)) {
+            return fanOut.run(cisCaseIds, cisCaseId ->
+                workflowEventService.updateTaskAfterEvent(
+                    taskEvent, cisCaseId, null));
+        }
+    }
+
+    /*
+    * Never more than maxConcurrency calls at once, every item run exactly once, and the items that
+    * failed come back with their exceptions.
+    * */
+    @Test
+    public void boundedFanOut() throws InterruptedException {
+        List<String> cisCaseIds = IntStream.range(0, 60)
+                .mapToObj(i -> "CASE-" + i)
+                .collect(Collectors.toList());
+        Set<String> ran = Collections.synchronizedSet(new HashSet<>());
+        AtomicInteger running = new AtomicInteger();
+        AtomicInteger mostRunning = new AtomicInteger();
+
+        BoundedFanOut.Result<String> result;
+        try (BoundedFanOut fanOut = BoundedFanOut.virtualThreads(4)) {
+            result = fanOut.run(cisCaseIds, cisCaseId -> {
+                mostRunning.accumulateAndGet(running.incrementAndGet(), Math::max);
+                try {
+                    Assert.assertTrue(ran.add(cisCaseId));
+                    pause(2);
+                    if (cisCaseId.endsWith("7")) {
+                        throw new IllegalStateException(cisCaseId);
+                    }
+                } finally {
+                    running.decrementAndGet();
+                }
+            });
+        }
+
+        Assert.assertEquals(new HashSet<>(cisCaseIds), ran);
+        Assert.assertTrue("ran " + mostRunning + " at once", mostRunning.get() <= 4);
+        Assert.assertEquals(54, result.getSucceeded());
+        Assert.assertFalse(result.isSuccess());
+        Set<String> failed = new HashSet<>();
+        for (BoundedFanOut.Failure<String> failure : result.getFailures()) {
+            Assert.assertTrue(failure.getError() instanceof IllegalStateException);
+            Assert.assertEquals(failure.getItem(), failure.getError().getMessage());
+            failed.add(failure.getItem());
+        }
+        Assert.assertEquals(cisCaseIds.stream().filter(id -> id.endsWith("7")).collect(Collectors.toSet()),
+                failed);
+    }
+
+
+
+
+
+
     public static Collection<Transaction>  createCollection() {
         List<Transaction> collection = new ArrayList<>();
         collection.add(new Transaction(TransactionStatus.DONE, TransactionType.IAFIS, 30));
@@ -494,6 +1585,22 @@ public class StreamExample {
         return collection;
     }
 
+    /**
+     * The same transactions every time, for tests and measurements that need more than
+     * createCollection().
+     */
+    static List<Transaction> randomTransactions(int size) {
+        Random random = new Random(42);
+        TransactionStatus[] statuses = TransactionStatus.values();
+        TransactionType[] types = TransactionType.values();
+        List<Transaction> transactions = new ArrayList<>(size);
+        for (int i = 0; i < size; i++) {
+            transactions.add(new Transaction(statuses[random.nextInt(statuses.length)],
+                    types[random.nextInt(types.length)], random.nextInt(3600)));
+        }
+        return transactions;
+    }
+
     public static void main(String[] args) {
         //basicStream();
         //aggregateWaitTime();
@@ -542,25 +1649,34 @@ public class StreamExample {
     interface BenefitRequest { String getUscisReceiptNumber();}
     interface Case{String getCaseIdentifier();}
 
-    class TaskEventKeyHolder{
+    static class TaskEventKeyHolder{
 
         public TaskEventKeyHolder(TaskType type, TaskStatus status) {
 
         }
     }
 
-    class SomeDAO{
+    static class SomeDAO{
 
         List<Case> findCasesByReceiptList(Object whatever) {
             return null;
         }
     }
 
-    class SomeWorkflow{
+    static class SomeWorkflow{
         void updateTaskAfterEvent(TaskEventKeyHolder event, String foo, Object bar) {}
     }
-    private SomeDAO caseDAO = new SomeDAO();
-    private SomeWorkflow workflowEventService = new SomeWorkflow();
+    private final SomeDAO caseDAO;
+    private final SomeWorkflow workflowEventService;
+
+    public StreamExample() {
+        this(new SomeDAO(), new SomeWorkflow());
+    }
+
+    StreamExample(SomeDAO caseDAO, SomeWorkflow workflowEventService) {
+        this.caseDAO = caseDAO;
+        this.workflowEventService = workflowEventService;
+    }
     enum TaskType{CASE_PAYMENT_VALIDATION}
     enum TaskStatus{COMPLETED}
     boolean shouldUpdateCasePaymentTask(Case theCase) {
@@ -0,0 +1,409 @@
+package com.melnick.java8;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.Charset;
+import java.nio.charset.CharsetEncoder;
+import java.nio.charset.CoderResult;
+import java.nio.charset.CodingErrorAction;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Objects;
+import java.util.RandomAccess;
+import java.util.function.Function;
+import java.util.stream.Collector;
+
+/**
+ * A StringJoiner that writes as it goes, to a WritableByteChannel or an OutputStream, instead of
+ * building a String.
+ *
+ * StringJoiner and Collectors.joining() keep the whole result in a StringBuilder that grows (and
+ * copies itself) as it goes, and toString() copies it once more at the end. For millions of names
+ * that is a lot of heap for something that is only going to be written out. Here every element
+ * goes through one CharsetEncoder and two small buffers, a CharBuffer and a ByteBuffer, that are
+ * reused for everything. Bytes are written out whenever the ByteBuffer fills, so the memory used
+ * is the same however big the output gets.
+ *
+ * The output is exactly what a StringJoiner with the same delimiter, prefix and suffix would
+ * give, encoded in the charset: prefix, the elements with delimiters between them, suffix. With
+ * no elements it is prefix and suffix. A null element is written as "null". Characters the
+ * charset cannot encode are replaced, as String.getBytes() would.
+ *
+ * There are two parallel ways in:
+ *
+ *   {@link #addAllParallel(List, Function)} works through a list a window at a time. Each chunk
+ *   of the window is encoded by its own worker into its own buffer, and then the buffers are
+ *   written out in order. Memory is bounded by the window, not by the list. (A list without
+ *   random access, a LinkedList say, is first copied into an ArrayList, references only.)
+ *
+ *   {@link #collector()} is a Collector for parallel (or sequential) streams. Each piece of the
+ *   stream is encoded into its own buffer and the pieces are joined in encounter order. A stream
+ *   gives no way of writing its first piece before it has finished the rest, so this one keeps
+ *   the encoded bytes until the end. That is still less than Collectors.joining() holds: for
+ *   ASCII one byte a character against a StringBuilder's two, and no toString() copy.
+ *
+ * finish() writes the suffix and flushes. close() also closes the channel. Not thread safe
+ * (except that the parallel methods use their own workers).
+ */
+public final class StreamingJoiner implements Closeable {
+
+    private static final int CHAR_BUFFER_SIZE = 4096;
+    private static final int ELEMENTS_PER_CHUNK = 1 << 12;
+    private static final int PARALLEL_THRESHOLD = 1 << 14;
+
+    private final WritableByteChannel channel;
+    private final String delimiter;
+    private final String prefix;
+    private final String suffix;
+    private final Charset charset;
+    private final Encoder encoder;
+    private long count;
+    private boolean finished;
+
+    public StreamingJoiner(WritableByteChannel channel, CharSequence delimiter, CharSequence prefix,
+        CharSequence suffix, Charset charset) {
+        this.channel = Objects.requireNonNull(channel, "channel");
+        this.delimiter = delimiter.toString();
+        this.prefix = prefix.toString();
+        this.suffix = suffix.toString();
+        this.charset = charset;
+        this.encoder = new Encoder(charset, channel);
+    }
+
+    /**
+     * Writes through the stream with no buffering of its own beyond the encode buffer, so there is
+     * no need to wrap it in a BufferedOutputStream.
+     */
+    public StreamingJoiner(OutputStream out, CharSequence delimiter, CharSequence prefix,
+        CharSequence suffix, Charset charset) {
+        this(Channels.newChannel(out), delimiter, prefix, suffix, charset);
+    }
+
+    /**
+     * UTF-8, no prefix and no suffix.
+     */
+    public StreamingJoiner(OutputStream out, CharSequence delimiter) {
+        this(out, delimiter, "", "", StandardCharsets.UTF_8);
+    }
+
+    public StreamingJoiner add(CharSequence element) throws IOException {
+        startElement();
+        encoder.write(element == null ? "null" : element);
+        count++;
+        return this;
+    }
+
+    public StreamingJoiner addAll(Iterable<? extends CharSequence> elements) throws IOException {
+        for (CharSequence element : elements) {
+            add(element);
+        }
+        return this;
+    }
+
+    /**
+     * Adds toText of every element, in order, encoding them on every core a window at a time.
+     * toText is called from several threads at once, and the list must not change meanwhile.
+     * Small lists are just added one by one. Large lists without random access are copied first,
+     * since every worker reads by index.
+     */
+    public <T> StreamingJoiner addAllParallel(List<? extends T> elements,
+        Function<? super T, ? extends CharSequence> toText) throws IOException {
+        int size = elements.size();
+        if (size < PARALLEL_THRESHOLD) {
+            for (T element : elements) {
+                add(toText.apply(element));
+            }
+            return this;
+        }
+        checkNotFinished();
+        List<? extends T> input = elements instanceof RandomAccess ? elements : new ArrayList<>(elements);
+        int chunks = ForkJoinRanges.chunks(size, ELEMENTS_PER_CHUNK);
+        int window = chunks * ELEMENTS_PER_CHUNK;
+        Chunk[] workers = new Chunk[chunks];
+        for (int chunk = 0; chunk < chunks; chunk++) {
+            workers[chunk] = new Chunk(charset);
+        }
+        for (int start = 0; start < size; start += Math.min(window, size - start)) {
+            int windowStart = start;
+            int windowLength = Math.min(window, size - start);
+            ForkJoinRanges.forEach(chunks, chunk -> {
+                Chunk worker = workers[chunk];
+                worker.reset();
+                int from = windowStart + ForkJoinRanges.chunkStart(windowLength, chunk, chunks);
+                int to = windowStart + ForkJoinRanges.chunkStart(windowLength, chunk + 1, chunks);
+                for (int i = from; i < to; i++) {
+                    worker.add(toText.apply(input.get(i)), delimiter);
+                }
+                worker.finish();
+            });
+            for (Chunk worker : workers) {
+                append(worker);
+            }
+        }
+        return this;
+    }
+
+    /**
+     * A Collector that adds every element of a stream, in encounter order, and then returns this
+     * joiner, still to be finished. Works for parallel streams: see the class comment for what it
+     * keeps in memory. An IOException comes out as an UncheckedIOException.
+     */
+    public Collector<CharSequence, ?, StreamingJoiner> collector() {
+        return Collector.of(() -> new Chunk(charset),
+            (chunk, element) -> chunk.add(element, delimiter),
+            (left, right) -> left.join(right, delimiter),
+            chunk -> {
+                try {
+                    chunk.finish();
+                    append(chunk);
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+                return this;
+            });
+    }
+
+    /**
+     * @return how many elements have been added
+     */
+    public long count() {
+        return count;
+    }
+
+    /**
+     * @return how many bytes have gone to the channel so far. Up to a buffer's worth more may be
+     * waiting until the next flush.
+     */
+    public long bytesWritten() {
+        return encoder.written;
+    }
+
+    /**
+     * Writes the suffix (and the prefix, if nothing was added) and flushes everything to the
+     * channel, which is left open. Nothing can be added after this. Calling it again does nothing.
+     */
+    public void finish() throws IOException {
+        if (finished) {
+            return;
+        }
+        if (count == 0) {
+            encoder.write(prefix);
+        }
+        encoder.write(suffix);
+        encoder.finish();
+        finished = true;
+    }
+
+    /**
+     * Finishes, then closes the channel.
+     */
+    @Override
+    public void close() throws IOException {
+        try {
+            finish();
+        } finally {
+            channel.close();
+        }
+    }
+
+    private void startElement() throws IOException {
+        checkNotFinished();
+        encoder.write(count == 0 ? prefix : delimiter);
+    }
+
+    private void append(Chunk chunk) throws IOException {
+        if (chunk.count == 0) {
+            return;
+        }
+        startElement();
+        encoder.writeEncoded(chunk.sink.bytes, chunk.sink.size);
+        count += chunk.count;
+    }
+
+    private void checkNotFinished() {
+        if (finished) {
+            throw new IllegalStateException("StreamingJoiner is finished");
+        }
+    }
+
+    /**
+     * One parallel worker's part of the output: its elements, already joined and encoded.
+     */
+    private static final class Chunk {
+        private final ByteSink sink = new ByteSink();
+        private final Encoder encoder;
+        private long count;
+
+        Chunk(Charset charset) {
+            this.encoder = new Encoder(charset, sink);
+        }
+
+        void add(CharSequence element, String delimiter) {
+            try {
+                if (count > 0) {
+                    encoder.write(delimiter);
+                }
+                encoder.write(element == null ? "null" : element);
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+            count++;
+        }
+
+        Chunk join(Chunk right, String delimiter) {
+            if (right.count == 0) {
+                return this;
+            }
+            if (count == 0) {
+                return right;
+            }
+            try {
+                encoder.write(delimiter);
+                finish();
+                right.finish();
+                encoder.writeEncoded(right.sink.bytes, right.sink.size);
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+            count += right.count;
+            return this;
+        }
+
+        void finish() {
+            try {
+                encoder.finish();
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+
+        void reset() {
+            sink.size = 0;
+            count = 0;
+        }
+    }
+
+    /**
+     * Text in, bytes out to a channel, through two reusable buffers.
+     */
+    private static final class Encoder {
+        private final CharsetEncoder encoder;
+        private final CharBuffer chars = CharBuffer.allocate(CHAR_BUFFER_SIZE);
+        private final ByteBuffer bytes;
+        private final WritableByteChannel out;
+        private long written;
+
+        Encoder(Charset charset, WritableByteChannel out) {
+            this.encoder = charset.newEncoder()
+                .onMalformedInput(CodingErrorAction.REPLACE)
+                .onUnmappableCharacter(CodingErrorAction.REPLACE);
+            this.bytes = ByteBuffer.allocate((int) Math.ceil(CHAR_BUFFER_SIZE * encoder.maxBytesPerChar()));
+            this.out = out;
+        }
+
+        void write(CharSequence text) throws IOException {
+            for (int start = 0, length = text.length(); start < length; ) {
+                if (!chars.hasRemaining()) {
+                    encode(false);
+                }
+                int n = Math.min(chars.remaining(), length - start);
+                int position = chars.position();
+                if (text instanceof String) {
+                    ((String) text).getChars(start, start + n, chars.array(), position);
+                } else if (text instanceof StringBuilder) {
+                    ((StringBuilder) text).getChars(start, start + n, chars.array(), position);
+                } else {
+                    for (int i = 0; i < n; i++) {
+                        chars.array()[position + i] = text.charAt(start + i);
+                    }
+                }
+                chars.position(position + n);
+                start += n;
+            }
+        }
+
+        /**
+         * Encodes and writes out everything buffered. The encoder is then ready to start over.
+         */
+        void finish() throws IOException {
+            encode(true);
+            while (encoder.flush(bytes).isOverflow()) {
+                drain();
+            }
+            drain();
+            encoder.reset();
+        }
+
+        /**
+         * Writes bytes that are already encoded, after anything still buffered.
+         */
+        void writeEncoded(byte[] encoded, int length) throws IOException {
+            finish();
+            ByteBuffer buffer = ByteBuffer.wrap(encoded, 0, length);
+            while (buffer.hasRemaining()) {
+                written += out.write(buffer);
+            }
+        }
+
+        private void encode(boolean endOfInput) throws IOException {
+            chars.flip();
+            while (true) {
+                CoderResult result = encoder.encode(chars, bytes, endOfInput);
+                if (result.isUnderflow()) {
+                    break;
+                }
+                if (result.isOverflow()) {
+                    drain();
+                } else {
+                    result.throwException();
+                }
+            }
+            // a high surrogate waiting for its pair stays for the next round
+            chars.compact();
+        }
+
+        private void drain() throws IOException {
+            bytes.flip();
+            while (bytes.hasRemaining()) {
+                written += out.write(bytes);
+            }
+            bytes.clear();
+        }
+    }
+
+    /**
+     * A growable byte[] to encode a chunk into. It keeps its capacity between uses.
+     */
+    private static final class ByteSink implements WritableByteChannel {
+        private byte[] bytes = new byte[CHAR_BUFFER_SIZE];
+        private int size;
+
+        @Override
+        public int write(ByteBuffer source) {
+            int n = source.remaining();
+            if (size + n > bytes.length) {
+                bytes = Arrays.copyOf(bytes, Math.max(bytes.length * 2, size + n));
+            }
+            source.get(bytes, size, n);
+            size += n;
+            return n;
+        }
+
+        @Override
+        public boolean isOpen() {
+            return true;
+        }
+
+        @Override
+        public void close() {
+        }
+    }
+}
@@ -0,0 +1,46 @@
+package com.melnick.java8;
+
+import com.melnick.java8.StreamExample.Record;
+import com.melnick.java8.StreamExample.TransactionStatus;
+import com.melnick.java8.StreamExample.TransactionType;
+
+/**
+ * One slot of a {@link TransactionRingBuffer}.
+ *
+ * The ring buffer creates all of its events up front and reuses them forever: the producer
+ * overwrites a slot's fields and publishes it, the consumers read them. So an event must never be
+ * kept after the handler it was passed to returns. Copy out what is needed.
+ */
+public final class TransactionEvent {
+
+    private TransactionStatus status;
+    private TransactionType type;
+    private int timeInSeconds;
+    private Record record;
+
+    TransactionEvent() {
+    }
+
+    public void set(TransactionStatus status, TransactionType type, int timeInSeconds, Record record) {
+        this.status = status;
+        this.type = type;
+        this.timeInSeconds = timeInSeconds;
+        this.record = record;
+    }
+
+    public TransactionStatus getStatus() {
+        return status;
+    }
+
+    public TransactionType getType() {
+        return type;
+    }
+
+    public int getTimeInSeconds() {
+        return timeInSeconds;
+    }
+
+    public Record getRecord() {
+        return record;
+    }
+}
@@ -0,0 +1,123 @@
+package com.melnick.java8;
+
+import com.melnick.java8.StreamExample.TransactionStatus;
+import com.melnick.java8.StreamExample.TransactionType;
+
+import java.util.BitSet;
+import java.util.function.IntConsumer;
+
+/**
+ * Bitmap indexes over the rows of a {@link TransactionStore}.
+ *
+ * There is one bitmap per TransactionStatus and one per TransactionType. Bit n is set when row n
+ * has that status (or type). Questions like "IN_PROGRESS and IDENT" become an AND of two bitmaps,
+ * 64 rows at a time, and rows that do not match are never looked at.
+ *
+ * The bitmaps are plain java.util.BitSets. With only three values per enum every bitmap holds
+ * roughly a third of the rows, which is far too dense for run length or sparse compression to
+ * pay off. A BitSet already costs one bit per row.
+ *
+ * Every query returns a new BitSet that belongs to the caller. Combine them with and(), or(),
+ * andNot(), then hand them back to {@link #count(BitSet)}, {@link #sumWaitTime(BitSet)} or
+ * {@link #forEach(BitSet, IntConsumer)}.
+ *
+ * The store is append only, so the index just remembers how many rows it has seen.
+ * {@link #refresh()} adds any rows appended since.
+ */
+public class TransactionIndex {
+
+    private final TransactionStore store;
+    private final BitSet[] byStatus = new BitSet[TransactionStatus.values().length];
+    private final BitSet[] byType = new BitSet[TransactionType.values().length];
+    private int indexedRows;
+
+    public TransactionIndex(TransactionStore store) {
+        this.store = store;
+        for (int i = 0; i < byStatus.length; i++) {
+            byStatus[i] = new BitSet(store.size());
+        }
+        for (int i = 0; i < byType.length; i++) {
+            byType[i] = new BitSet(store.size());
+        }
+        refresh();
+    }
+
+    /**
+     * Indexes any rows appended to the store since the last refresh.
+     */
+    public TransactionIndex refresh() {
+        int size = store.size();
+        for (int row = indexedRows; row < size; row++) {
+            byStatus[store.getStatus(row).ordinal()].set(row);
+            byType[store.getType(row).ordinal()].set(row);
+        }
+        indexedRows = size;
+        return this;
+    }
+
+    public int indexedRows() {
+        return indexedRows;
+    }
+
+    public BitSet all() {
+        BitSet rows = new BitSet(indexedRows);
+        rows.set(0, indexedRows);
+        return rows;
+    }
+
+    public BitSet rows(TransactionStatus status) {
+        return (BitSet) byStatus[status.ordinal()].clone();
+    }
+
+    public BitSet rows(TransactionType type) {
+        return (BitSet) byType[type.ordinal()].clone();
+    }
+
+    public BitSet rows(TransactionStatus status, TransactionType type) {
+        BitSet rows = rows(status);
+        rows.and(byType[type.ordinal()]);
+        return rows;
+    }
+
+    /**
+     * @return the rows matching the predicate. Its null fields match everything.
+     */
+    public BitSet select(TransactionPredicate predicate) {
+        TransactionStatus status = predicate.getStatus();
+        TransactionType type = predicate.getType();
+        if (status != null && type != null) {
+            return rows(status, type);
+        } else if (status != null) {
+            return rows(status);
+        } else if (type != null) {
+            return rows(type);
+        }
+        return all();
+    }
+
+    public int count(BitSet rows) {
+        return rows.cardinality();
+    }
+
+    public int count(TransactionStatus status) {
+        return byStatus[status.ordinal()].cardinality();
+    }
+
+    public int count(TransactionType type) {
+        return byType[type.ordinal()].cardinality();
+    }
+
+    public long sumWaitTime(BitSet rows) {
+        long sum = 0;
+        for (int row = rows.nextSetBit(0); row >= 0; row = rows.nextSetBit(row + 1)) {
+            sum += store.getTimeInSeconds(row);
+        }
+        return sum;
+    }
+
+    public void forEach(BitSet rows, IntConsumer action) {
+        for (int row = rows.nextSetBit(0); row >= 0; row = rows.nextSetBit(row + 1)) {
+            action.accept(row);
+        }
+    }
+}
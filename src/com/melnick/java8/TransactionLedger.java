@@ -0,0 +1,156 @@
+package com.melnick.java8;
+
+import com.melnick.java8.StreamExample.Transaction;
+import com.melnick.java8.StreamExample.TransactionStatus;
+import com.melnick.java8.StreamExample.TransactionType;
+
+import java.util.Collection;
+import java.util.Objects;
+
+/**
+ * Running wait time totals, kept per (TransactionStatus, TransactionType) cell.
+ *
+ * StreamExample.filteredWaitTimes() and Functional.filterTransactionsAndSum() look at every
+ * Transaction each time they are asked. The ledger is told about each change instead, and keeps a
+ * sum and a count for every combination of status and type. Any question about a status, a type,
+ * or both is then answered from at most a handful of cells, no matter how many Transactions there
+ * are.
+ *
+ * The ledger only sees what it is told. Transactions must go through {@link #add(Transaction)},
+ * {@link #remove(Transaction)} and {@link #changeStatus(Transaction, TransactionStatus)}, or the
+ * totals will drift from the real collection.
+ *
+ * All methods are synchronized, so a dashboard may poll from one thread while another updates.
+ */
+public class TransactionLedger {
+
+    private static final int STATUS_COUNT = TransactionStatus.values().length;
+    private static final int TYPE_COUNT = TransactionType.values().length;
+
+    // Row major, indexed by status ordinal * TYPE_COUNT + type ordinal
+    private final long[] waitTimes = new long[STATUS_COUNT * TYPE_COUNT];
+    private final long[] counts = new long[STATUS_COUNT * TYPE_COUNT];
+
+    public static TransactionLedger of(Collection<Transaction> transactions) {
+        TransactionLedger ledger = new TransactionLedger();
+        transactions.forEach(ledger::add);
+        return ledger;
+    }
+
+    public synchronized void add(Transaction transaction) {
+        apply(transaction.getStatus(), transaction.getType(), secondsOf(transaction), 1);
+    }
+
+    /**
+     * Takes a Transaction back out of the totals. It must have been added, and it must still have
+     * the status it had when it was added or last changed through the ledger.
+     */
+    public synchronized void remove(Transaction transaction) {
+        apply(transaction.getStatus(), transaction.getType(), secondsOf(transaction), -1);
+    }
+
+    /**
+     * Moves a Transaction to a new status, and moves its wait time to the matching cell.
+     */
+    public synchronized void changeStatus(Transaction transaction, TransactionStatus newStatus) {
+        Objects.requireNonNull(newStatus, "newStatus");
+        int seconds = secondsOf(transaction);
+        apply(transaction.getStatus(), transaction.getType(), seconds, -1);
+        transaction.setStatus(newStatus);
+        apply(newStatus, transaction.getType(), seconds, 1);
+    }
+
+    /**
+     * The same bookkeeping as {@link #changeStatus(Transaction, TransactionStatus)}, for callers
+     * that have already changed the Transaction themselves.
+     */
+    public synchronized void statusChanged(TransactionType type, int timeInSeconds,
+        TransactionStatus oldStatus, TransactionStatus newStatus) {
+        apply(oldStatus, type, timeInSeconds, -1);
+        apply(newStatus, type, timeInSeconds, 1);
+    }
+
+    synchronized void apply(TransactionStatus status, TransactionType type, int timeInSeconds,
+        int direction) {
+        int cell = cell(status, type);
+        waitTimes[cell] += direction * (long) timeInSeconds;
+        counts[cell] += direction;
+    }
+
+    /**
+     * Adds whole blocks of totals at once, laid out cell by cell like the ledger's own arrays
+     * (status ordinal * number of types + type ordinal). For callers that save up many adds and
+     * hand them over together.
+     */
+    synchronized void applyAll(long[] waitTimeDeltas, long[] countDeltas) {
+        for (int cell = 0; cell < waitTimes.length; cell++) {
+            waitTimes[cell] += waitTimeDeltas[cell];
+            counts[cell] += countDeltas[cell];
+        }
+    }
+
+    public synchronized long totalWaitTime() {
+        long sum = 0;
+        for (long waitTime : waitTimes) {
+            sum += waitTime;
+        }
+        return sum;
+    }
+
+    public synchronized long totalCount() {
+        long sum = 0;
+        for (long count : counts) {
+            sum += count;
+        }
+        return sum;
+    }
+
+    public synchronized long waitTime(TransactionStatus status, TransactionType type) {
+        return waitTimes[cell(status, type)];
+    }
+
+    public synchronized long count(TransactionStatus status, TransactionType type) {
+        return counts[cell(status, type)];
+    }
+
+    public synchronized long waitTime(TransactionStatus status) {
+        return sumRow(waitTimes, status);
+    }
+
+    public synchronized long count(TransactionStatus status) {
+        return sumRow(counts, status);
+    }
+
+    public synchronized long waitTime(TransactionType type) {
+        return sumColumn(waitTimes, type);
+    }
+
+    public synchronized long count(TransactionType type) {
+        return sumColumn(counts, type);
+    }
+
+    private static long sumRow(long[] cells, TransactionStatus status) {
+        int start = status.ordinal() * TYPE_COUNT;
+        long sum = 0;
+        for (int cell = start; cell < start + TYPE_COUNT; cell++) {
+            sum += cells[cell];
+        }
+        return sum;
+    }
+
+    private static long sumColumn(long[] cells, TransactionType type) {
+        long sum = 0;
+        for (int cell = type.ordinal(); cell < cells.length; cell += TYPE_COUNT) {
+            sum += cells[cell];
+        }
+        return sum;
+    }
+
+    private static int cell(TransactionStatus status, TransactionType type) {
+        return status.ordinal() * TYPE_COUNT + type.ordinal();
+    }
+
+    private static int secondsOf(Transaction transaction) {
+        return Objects.requireNonNull(transaction.getTimeInSeconds(), "timeInSeconds");
+    }
+}
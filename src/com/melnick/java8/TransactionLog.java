@@ -0,0 +1,277 @@
+package com.melnick.java8;
+
+import com.melnick.java8.StreamExample.Transaction;
+import com.melnick.java8.StreamExample.TransactionStatus;
+import com.melnick.java8.StreamExample.TransactionType;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Objects;
+
+/**
+ * An append only file of Transactions, for when they no longer fit on the heap.
+ *
+ * Every record is the same 10 bytes, little endian:
+ *
+ *   offset 0  byte  status ordinal
+ *   offset 1  byte  type ordinal
+ *   offset 2  int   seconds
+ *   offset 6  int   record id (whatever the caller uses to name a Record, -1 for none)
+ *
+ * after a 16 byte header holding a magic number, a version and the record size.
+ *
+ * Writes go through a FileChannel and a reusable buffer. Reads map the file with
+ * MappedByteBuffers and read fields straight out of the mapping, so a scan copies nothing onto
+ * the heap and allocates nothing per record. The operating system pages the file in and out as
+ * needed, which means a file much bigger than the heap (or than RAM) can still be scanned.
+ *
+ * A mapping is limited to 2GB, so the file is mapped in regions. Regions are kept between scans
+ * and only the last, still growing, region is ever mapped again.
+ *
+ * A record cut short by a crash is ignored, and overwritten by the next append.
+ *
+ * Not thread safe.
+ */
+public class TransactionLog implements Closeable {
+
+    static final int RECORD_SIZE = 10;
+    static final int HEADER_SIZE = 16;
+
+    private static final int MAGIC = 0x54584C47; // "TXLG"
+    private static final int VERSION = 1;
+    private static final long REGION_RECORDS = 1 << 26;
+    private static final long REGION_BYTES = REGION_RECORDS * RECORD_SIZE;
+    private static final int WRITE_BUFFER_RECORDS = 8192;
+
+    /**
+     * Called once for every record by {@link #scan(RecordVisitor)}. Fields are handed over as
+     * primitives, nothing is boxed or built.
+     */
+    @FunctionalInterface
+    public interface RecordVisitor {
+        void visit(int statusOrdinal, int typeOrdinal, int timeInSeconds, int recordId);
+    }
+
+    private final FileChannel channel;
+    private final ByteBuffer writeBuffer =
+        ByteBuffer.allocateDirect(WRITE_BUFFER_RECORDS * RECORD_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+    private final List<MappedByteBuffer> regions = new ArrayList<>();
+    private long writtenRecords;
+
+    TransactionLog(FileChannel channel, long writtenRecords) {
+        this.channel = channel;
+        this.writtenRecords = writtenRecords;
+    }
+
+    /**
+     * Opens the log at the path, creating it if it does not exist.
+     */
+    public static TransactionLog open(Path path) throws IOException {
+        FileChannel channel = FileChannel.open(path, StandardOpenOption.CREATE,
+            StandardOpenOption.READ, StandardOpenOption.WRITE);
+        try {
+            ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+            if (channel.size() == 0) {
+                header.putInt(MAGIC).putInt(VERSION).putInt(RECORD_SIZE).putInt(0).flip();
+                while (header.hasRemaining()) {
+                    channel.write(header, header.position());
+                }
+                return new TransactionLog(channel, 0);
+            }
+            while (header.hasRemaining() && channel.read(header, header.position()) >= 0) {
+                // keep reading until the header is full or the file ends
+            }
+            header.flip();
+            if (header.remaining() < HEADER_SIZE || header.getInt() != MAGIC
+                || header.getInt() != VERSION || header.getInt() != RECORD_SIZE) {
+                throw new IOException("Not a transaction log: " + path);
+            }
+            return new TransactionLog(channel, (channel.size() - HEADER_SIZE) / RECORD_SIZE);
+        } catch (IOException | RuntimeException e) {
+            channel.close();
+            throw e;
+        }
+    }
+
+    public void append(TransactionStatus status, TransactionType type, int timeInSeconds,
+        int recordId) {
+        append(status.ordinal(), type.ordinal(), timeInSeconds, recordId);
+    }
+
+    public void append(Transaction transaction, int recordId) {
+        append(transaction.getStatus(), transaction.getType(),
+            Objects.requireNonNull(transaction.getTimeInSeconds(), "timeInSeconds"), recordId);
+    }
+
+    /**
+     * Appends every row of the store, using the store's record ids.
+     */
+    public void appendAll(TransactionStore store) {
+        for (int row = 0; row < store.size(); row++) {
+            append(store.getStatus(row), store.getType(row), store.getTimeInSeconds(row),
+                store.getRecordId(row));
+        }
+    }
+
+    private void append(int statusOrdinal, int typeOrdinal, int timeInSeconds, int recordId) {
+        if (!writeBuffer.hasRemaining()) {
+            flushUnchecked();
+        }
+        writeBuffer.put((byte) statusOrdinal)
+            .put((byte) typeOrdinal)
+            .putInt(timeInSeconds)
+            .putInt(recordId);
+    }
+
+    /**
+     * Writes any buffered records to the file.
+     *
+     * If a write fails, the records that made it out whole are counted as written, and the rest
+     * stay buffered for the next flush. Part of a record that made it out is written over.
+     */
+    public void flush() throws IOException {
+        writeBuffer.flip();
+        long start = HEADER_SIZE + writtenRecords * RECORD_SIZE;
+        try {
+            while (writeBuffer.hasRemaining()) {
+                channel.write(writeBuffer, start + writeBuffer.position());
+            }
+        } finally {
+            int records = writeBuffer.position() / RECORD_SIZE;
+            writtenRecords += records;
+            writeBuffer.position(records * RECORD_SIZE);
+            writeBuffer.compact();
+        }
+    }
+
+    private void flushUnchecked() {
+        try {
+            flush();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /**
+     * @return the number of records, counting ones still waiting to be flushed
+     */
+    public long size() {
+        return writtenRecords + writeBuffer.position() / RECORD_SIZE;
+    }
+
+    /**
+     * Visits every record in order. Buffered records are flushed first.
+     */
+    public void scan(RecordVisitor visitor) throws IOException {
+        flush();
+        long remaining = writtenRecords;
+        for (int region = 0; remaining > 0; region++) {
+            int records = (int) Math.min(remaining, REGION_RECORDS);
+            MappedByteBuffer buffer = region(region, records);
+            for (int offset = 0, end = records * RECORD_SIZE; offset < end; offset += RECORD_SIZE) {
+                visitor.visit(buffer.get(offset), buffer.get(offset + 1),
+                    buffer.getInt(offset + 2), buffer.getInt(offset + 6));
+            }
+            remaining -= records;
+        }
+    }
+
+    /*
+     * The aggregates of StreamExample.aggregateWaitTime() and filteredWaitTimes(), run over the
+     * file. Each one is a single scan.
+     */
+
+    public long sumWaitTime() throws IOException {
+        WaitTimeSum sum = new WaitTimeSum(-1, -1);
+        scan(sum);
+        return sum.waitTime;
+    }
+
+    public long sumWaitTime(TransactionStatus status) throws IOException {
+        WaitTimeSum sum = new WaitTimeSum(status.ordinal(), -1);
+        scan(sum);
+        return sum.waitTime;
+    }
+
+    public long sumWaitTime(TransactionType type) throws IOException {
+        WaitTimeSum sum = new WaitTimeSum(-1, type.ordinal());
+        scan(sum);
+        return sum.waitTime;
+    }
+
+    public long count(TransactionStatus status) throws IOException {
+        WaitTimeSum sum = new WaitTimeSum(status.ordinal(), -1);
+        scan(sum);
+        return sum.count;
+    }
+
+    public long count(TransactionType type) throws IOException {
+        WaitTimeSum sum = new WaitTimeSum(-1, type.ordinal());
+        scan(sum);
+        return sum.count;
+    }
+
+    /**
+     * Flushes, then closes the file. Mappings already handed out stay readable until they are
+     * garbage collected.
+     */
+    @Override
+    public void close() throws IOException {
+        try {
+            flush();
+        } finally {
+            regions.clear();
+            channel.close();
+        }
+    }
+
+    private MappedByteBuffer region(int region, int records) throws IOException {
+        long bytes = (long) records * RECORD_SIZE;
+        MappedByteBuffer buffer = region < regions.size() ? regions.get(region) : null;
+        if (buffer == null || buffer.capacity() < bytes) {
+            // a full region never changes, so only the last region is ever mapped again
+            buffer = channel.map(FileChannel.MapMode.READ_ONLY,
+                HEADER_SIZE + region * REGION_BYTES, bytes);
+            buffer.order(ByteOrder.LITTLE_ENDIAN);
+            if (region < regions.size()) {
+                regions.set(region, buffer);
+            } else {
+                regions.add(buffer);
+            }
+        }
+        return buffer;
+    }
+
+    /**
+     * Matches on status, type or both (-1 matches everything), and sums as it goes.
+     */
+    private static final class WaitTimeSum implements RecordVisitor {
+        private final int statusOrdinal;
+        private final int typeOrdinal;
+        private long waitTime;
+        private long count;
+
+        WaitTimeSum(int statusOrdinal, int typeOrdinal) {
+            this.statusOrdinal = statusOrdinal;
+            this.typeOrdinal = typeOrdinal;
+        }
+
+        @Override
+        public void visit(int status, int type, int timeInSeconds, int recordId) {
+            if ((statusOrdinal < 0 || status == statusOrdinal)
+                && (typeOrdinal < 0 || type == typeOrdinal)) {
+                waitTime += timeInSeconds;
+                count++;
+            }
+        }
+    }
+}
@@ -0,0 +1,100 @@
+package com.melnick.java8;
+
+import com.melnick.java8.StreamExample.Transaction;
+import com.melnick.java8.StreamExample.TransactionStatus;
+import com.melnick.java8.StreamExample.TransactionType;
+
+import java.util.Objects;
+import java.util.function.Predicate;
+
+/**
+ * A Predicate that is only an equality check on status, type, or both.
+ *
+ * A lambda is a black box, the only thing anyone can do with it is call test(). This Predicate
+ * says what it is checking, so code that has an index (see {@link TransactionIndex}) can look the
+ * answer up instead of testing every Transaction.
+ *
+ * It is still an ordinary Predicate, and works anywhere one is expected.
+ */
+public final class TransactionPredicate implements Predicate<Transaction> {
+
+    private final TransactionStatus status;
+    private final TransactionType type;
+
+    private TransactionPredicate(TransactionStatus status, TransactionType type) {
+        this.status = status;
+        this.type = type;
+    }
+
+    public static TransactionPredicate statusIs(TransactionStatus status) {
+        return new TransactionPredicate(Objects.requireNonNull(status, "status"), null);
+    }
+
+    public static TransactionPredicate typeIs(TransactionType type) {
+        return new TransactionPredicate(null, Objects.requireNonNull(type, "type"));
+    }
+
+    public static TransactionPredicate is(TransactionStatus status, TransactionType type) {
+        return new TransactionPredicate(Objects.requireNonNull(status, "status"),
+            Objects.requireNonNull(type, "type"));
+    }
+
+    /**
+     * @return the status to match, or null when any status will do
+     */
+    public TransactionStatus getStatus() {
+        return status;
+    }
+
+    /**
+     * @return the type to match, or null when any type will do
+     */
+    public TransactionType getType() {
+        return type;
+    }
+
+    @Override
+    public boolean test(Transaction transaction) {
+        return (status == null || transaction.getStatus() == status)
+            && (type == null || transaction.getType() == type);
+    }
+
+    /**
+     * Combining a status check with a type check gives back a TransactionPredicate, so the result
+     * can still be looked up in an index. Anything else is combined the usual way.
+     */
+    @Override
+    public Predicate<Transaction> and(Predicate<? super Transaction> other) {
+        if (other instanceof TransactionPredicate) {
+            TransactionPredicate that = (TransactionPredicate) other;
+            if ((status == null || that.status == null || status == that.status)
+                && (type == null || that.type == null || type == that.type)) {
+                return new TransactionPredicate(status != null ? status : that.status,
+                    type != null ? type : that.type);
+            }
+        }
+        return Predicate.super.and(other);
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) {
+            return true;
+        }
+        if (!(o instanceof TransactionPredicate)) {
+            return false;
+        }
+        TransactionPredicate that = (TransactionPredicate) o;
+        return status == that.status && type == that.type;
+    }
+
+    @Override
+    public int hashCode() {
+        return Objects.hash(status, type);
+    }
+
+    @Override
+    public String toString() {
+        return "TransactionPredicate{status=" + status + ", type=" + type + '}';
+    }
+}
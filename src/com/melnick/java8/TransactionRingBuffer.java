@@ -0,0 +1,322 @@
+package com.melnick.java8;
+
+import com.melnick.java8.Functional.TransactionCollection;
+import com.melnick.java8.StreamExample.Record;
+import com.melnick.java8.StreamExample.Transaction;
+import com.melnick.java8.StreamExample.TransactionStatus;
+import com.melnick.java8.StreamExample.TransactionType;
+
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicLongFieldUpdater;
+import java.util.concurrent.locks.LockSupport;
+import java.util.function.BooleanSupplier;
+
+/**
+ * A fixed ring of preallocated {@link TransactionEvent}s, for getting transactions from one
+ * producer thread to one or more consumer threads without locks and without garbage.
+ *
+ * Adding to an ArrayList from several threads is unsafe, and putting a lock around it makes every
+ * add fight over the lock. Here the producer and every consumer each own a single counter, a
+ * {@link Sequence}, and nothing else is shared:
+ *
+ *   The producer claims the next slot with {@link #next()}, fills in its event, and
+ *   {@link #publish(long) publishes} it by moving the cursor. It only waits when the ring is full,
+ *   that is when it is a whole lap ahead of the slowest consumer.
+ *
+ *   Every consumer sees every event, in order. When it wakes up it takes everything published
+ *   since it last looked as one batch, and only then moves its own sequence. Under load the
+ *   batches get bigger, and the per event cost goes down.
+ *
+ * No event is ever allocated after the ring is built, so neither side makes garbage. The handlers
+ * in {@link EventHandler} write into a TransactionStore, a TransactionLedger and a
+ * WaitTimeHistograms, none of which allocate per event either. (Except the TransactionCollection
+ * one, which has to make a Transaction.)
+ *
+ * Only one thread may publish. The consumers are started by the caller, usually on threads of
+ * their own: a {@link BatchConsumer} is a Runnable.
+ *
+ * See IngestThroughput for a measurement.
+ */
+public final class TransactionRingBuffer {
+
+    /**
+     * Handles one event at a time, on a consumer's thread.
+     */
+    @FunctionalInterface
+    public interface EventHandler {
+
+        /**
+         * @param endOfBatch true for the last event of the batch, a good time to flush anything
+         *                   that was saved up
+         */
+        void onEvent(TransactionEvent event, long sequence, boolean endOfBatch);
+
+        /**
+         * Appends every event as a row. The store is not thread safe, so nothing else may touch
+         * it until this handler's consumer has been halted.
+         */
+        static EventHandler appendTo(TransactionStore store) {
+            return (event, sequence, endOfBatch) -> store.add(event.getStatus(), event.getType(),
+                event.getTimeInSeconds(), event.getRecord());
+        }
+
+        /**
+         * Adds every event to the ledger. The totals are saved up and handed over once a batch,
+         * so the ledger's lock is taken once per batch rather than once per event.
+         */
+        static EventHandler addTo(TransactionLedger ledger) {
+            int types = TransactionType.values().length;
+            long[] waitTimes = new long[TransactionStatus.values().length * types];
+            long[] counts = new long[waitTimes.length];
+            return (event, sequence, endOfBatch) -> {
+                int cell = event.getStatus().ordinal() * types + event.getType().ordinal();
+                waitTimes[cell] += event.getTimeInSeconds();
+                counts[cell]++;
+                if (endOfBatch) {
+                    ledger.applyAll(waitTimes, counts);
+                    Arrays.fill(waitTimes, 0);
+                    Arrays.fill(counts, 0);
+                }
+            };
+        }
+
+        static EventHandler recordIn(WaitTimeHistograms histograms) {
+            return (event, sequence, endOfBatch) ->
+                histograms.record(event.getStatus(), event.getType(), event.getTimeInSeconds());
+        }
+
+        /**
+         * Adds a new Transaction per event, so this one does allocate. Its listeners are called
+         * on the consumer's thread.
+         */
+        static EventHandler addTo(TransactionCollection transactions) {
+            return (event, sequence, endOfBatch) -> {
+                Transaction transaction = new Transaction(event.getStatus(), event.getType(),
+                    event.getTimeInSeconds());
+                transaction.setRecord(event.getRecord());
+                transactions.add(transaction);
+            };
+        }
+    }
+
+    /*
+     * A sequence sits alone on its cache line(s), so that the producer writing the cursor and a
+     * consumer writing its own sequence never slow each other down by sharing one.
+     */
+
+    private static class LeftPadding {
+        protected long p1, p2, p3, p4, p5, p6, p7;
+    }
+
+    private static class Value extends LeftPadding {
+        protected volatile long value;
+    }
+
+    private static class RightPadding extends Value {
+        protected long p9, p10, p11, p12, p13, p14, p15;
+    }
+
+    /**
+     * A counter owned by a single writer and read by anyone.
+     */
+    public static final class Sequence extends RightPadding {
+        private static final AtomicLongFieldUpdater<Value> VALUE =
+            AtomicLongFieldUpdater.newUpdater(Value.class, "value");
+
+        Sequence(long initialValue) {
+            VALUE.lazySet(this, initialValue);
+        }
+
+        public long get() {
+            return value;
+        }
+
+        /**
+         * An ordered write. Cheaper than a volatile write, and enough for a single writer.
+         */
+        void set(long value) {
+            VALUE.lazySet(this, value);
+        }
+    }
+
+    /**
+     * Runs an EventHandler over everything published, batch by batch, until halted.
+     */
+    public final class BatchConsumer implements Runnable {
+        private final Sequence sequence = new Sequence(-1);
+        private final EventHandler handler;
+        private volatile boolean halted;
+        private volatile RuntimeException failure;
+        private volatile long failures;
+        private final BooleanSupplier haltedCheck = this::isHalted;
+
+        private BatchConsumer(EventHandler handler) {
+            this.handler = handler;
+        }
+
+        @Override
+        public void run() {
+            long next = sequence.get() + 1;
+            while (true) {
+                long available = waitStrategy.waitFor(next, cursor, haltedCheck);
+                if (available < next) {
+                    if (!isHalted()) {
+                        continue;
+                    }
+                    // drain whatever was published before the halt, then stop
+                    available = cursor.get();
+                    if (available < next) {
+                        return;
+                    }
+                }
+                for (; next <= available; next++) {
+                    try {
+                        handler.onEvent(get(next), next, next == available);
+                    } catch (RuntimeException e) {
+                        // one bad event must not stop the ring, or the producer would wait forever
+                        if (failure == null) {
+                            failure = e;
+                        }
+                        failures++;
+                    }
+                }
+                sequence.set(available);
+            }
+        }
+
+        /**
+         * Asks the consumer to stop. It finishes whatever has already been published first.
+         */
+        public void halt() {
+            halted = true;
+            waitStrategy.signalAll();
+        }
+
+        /**
+         * @return the last sequence this consumer has finished with
+         */
+        public long getSequence() {
+            return sequence.get();
+        }
+
+        /**
+         * @return the first exception a handler threw, or null
+         */
+        public RuntimeException getFailure() {
+            return failure;
+        }
+
+        public long getFailureCount() {
+            return failures;
+        }
+
+        private boolean isHalted() {
+            return halted || Thread.currentThread().isInterrupted();
+        }
+    }
+
+    private final TransactionEvent[] events;
+    private final int mask;
+    private final WaitStrategy waitStrategy;
+    private final Sequence cursor = new Sequence(-1);
+    private volatile Sequence[] gatingSequences = new Sequence[0];
+
+    // Only the producer thread touches these
+    private long nextSequence = -1;
+    private long cachedGatingSequence = -1;
+
+    /**
+     * @param size how many events the ring holds, a power of two
+     */
+    public TransactionRingBuffer(int size, WaitStrategy waitStrategy) {
+        if (size < 1 || Integer.bitCount(size) != 1) {
+            throw new IllegalArgumentException("Size must be a power of two: " + size);
+        }
+        this.events = new TransactionEvent[size];
+        for (int i = 0; i < size; i++) {
+            events[i] = new TransactionEvent();
+        }
+        this.mask = size - 1;
+        this.waitStrategy = waitStrategy;
+    }
+
+    public int size() {
+        return events.length;
+    }
+
+    /**
+     * Adds a consumer. The producer will never lap it. Consumers must all be added before the
+     * first event is published, or they will miss the ones before them.
+     */
+    public synchronized BatchConsumer newConsumer(EventHandler handler) {
+        BatchConsumer consumer = new BatchConsumer(handler);
+        consumer.sequence.set(cursor.get());
+        Sequence[] sequences = Arrays.copyOf(gatingSequences, gatingSequences.length + 1);
+        sequences[sequences.length - 1] = consumer.sequence;
+        gatingSequences = sequences;
+        return consumer;
+    }
+
+    /**
+     * Claims the next slot, waiting if the ring is full. Producer thread only.
+     */
+    public long next() {
+        return next(1);
+    }
+
+    /**
+     * Claims the next n slots, and returns the last of them. Producer thread only.
+     */
+    public long next(int n) {
+        if (n < 1 || n > events.length) {
+            throw new IllegalArgumentException("n must be between 1 and " + events.length + ": " + n);
+        }
+        long next = nextSequence + n;
+        long wrapPoint = next - events.length;
+        if (wrapPoint > cachedGatingSequence) {
+            long minimum;
+            while (wrapPoint > (minimum = minimumGatingSequence(nextSequence))) {
+                LockSupport.parkNanos(1);
+            }
+            cachedGatingSequence = minimum;
+        }
+        nextSequence = next;
+        return next;
+    }
+
+    public TransactionEvent get(long sequence) {
+        return events[(int) sequence & mask];
+    }
+
+    /**
+     * Makes everything up to and including sequence visible to the consumers.
+     */
+    public void publish(long sequence) {
+        cursor.set(sequence);
+        waitStrategy.signalAll();
+    }
+
+    /**
+     * Claims, fills and publishes one event.
+     */
+    public void publish(TransactionStatus status, TransactionType type, int timeInSeconds, Record record) {
+        long sequence = next();
+        get(sequence).set(status, type, timeInSeconds, record);
+        publish(sequence);
+    }
+
+    /**
+     * @return the last published sequence
+     */
+    public long getCursor() {
+        return cursor.get();
+    }
+
+    private long minimumGatingSequence(long defaultValue) {
+        long minimum = defaultValue;
+        for (Sequence sequence : gatingSequences) {
+            minimum = Math.min(minimum, sequence.get());
+        }
+        return minimum;
+    }
+}
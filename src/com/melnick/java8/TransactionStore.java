@@ -0,0 +1,445 @@
+package com.melnick.java8;
+
+import com.melnick.java8.StreamExample.Record;
+import com.melnick.java8.StreamExample.Transaction;
+import com.melnick.java8.StreamExample.TransactionStatus;
+import com.melnick.java8.StreamExample.TransactionType;
+
+import java.util.AbstractCollection;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Collection;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Objects;
+import java.util.function.IntConsumer;
+import java.util.function.IntPredicate;
+
+/**
+ * A column oriented ("struct of arrays") home for Transactions.
+ *
+ * A Transaction on the heap is an object header, a boxed Integer, and three references. Summing
+ * the wait times of an ArrayList of them means following a pointer to every Transaction, and then
+ * another pointer to every Integer. Here each field gets its own primitive array instead:
+ *
+ *   status   byte  (the TransactionStatus ordinal)
+ *   type     byte  (the TransactionType ordinal)
+ *   seconds  int
+ *   record   int   (a dense id handed out per distinct Record, -1 when there is none)
+ *
+ * That is 10 bytes a row, and a sum is a straight walk over a single int[]. Nothing is boxed.
+ *
+ * A row is identified by its position, its "row id". Rows are only ever appended.
+ *
+ * Code that still wants Transactions can use {@link #asCollection()}. The view builds a new
+ * Transaction for each row it hands out, so it should not be used where identity matters.
+ */
+public class TransactionStore {
+
+    private static final TransactionStatus[] STATUSES = TransactionStatus.values();
+    private static final TransactionType[] TYPES = TransactionType.values();
+    private static final int DEFAULT_CAPACITY = 16;
+
+    private byte[] statuses;
+    private byte[] types;
+    private int[] seconds;
+    private int[] recordIds;
+    private int size;
+
+    private final Map<Record, Integer> recordIdsByRecord = new IdentityHashMap<>();
+    private Record[] records = new Record[DEFAULT_CAPACITY];
+
+    private TransactionIndex index;
+
+    public TransactionStore() {
+        this(DEFAULT_CAPACITY);
+    }
+
+    public TransactionStore(int initialCapacity) {
+        if (initialCapacity < 0) {
+            throw new IllegalArgumentException("Illegal capacity: " + initialCapacity);
+        }
+        statuses = new byte[initialCapacity];
+        types = new byte[initialCapacity];
+        seconds = new int[initialCapacity];
+        recordIds = new int[initialCapacity];
+    }
+
+    public static TransactionStore of(Collection<Transaction> transactions) {
+        TransactionStore store = new TransactionStore(transactions.size());
+        transactions.forEach(store::add);
+        return store;
+    }
+
+    /**
+     * Appends a Transaction. Only its fields are kept, not the object itself.
+     * @return the row id of the new row
+     */
+    public int add(Transaction transaction) {
+        return add(transaction.getStatus(), transaction.getType(),
+            Objects.requireNonNull(transaction.getTimeInSeconds(), "timeInSeconds"),
+            transaction.getRecord());
+    }
+
+    public int add(TransactionStatus status, TransactionType type, int timeInSeconds, Record record) {
+        return addRow(status.ordinal(), type.ordinal(), timeInSeconds, recordIdOf(record));
+    }
+
+    /**
+     * Appends a row that has already been broken into columns. The record id must be -1 or one
+     * that was handed out by this store.
+     */
+    int addRow(int statusOrdinal, int typeOrdinal, int timeInSeconds, int recordId) {
+        if (size == seconds.length) {
+            grow();
+        }
+        statuses[size] = (byte) statusOrdinal;
+        types[size] = (byte) typeOrdinal;
+        seconds[size] = timeInSeconds;
+        recordIds[size] = recordId;
+        return size++;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    public TransactionStatus getStatus(int row) {
+        return STATUSES[statuses[checkRow(row)]];
+    }
+
+    public TransactionType getType(int row) {
+        return TYPES[types[checkRow(row)]];
+    }
+
+    public int getTimeInSeconds(int row) {
+        return seconds[checkRow(row)];
+    }
+
+    public int getRecordId(int row) {
+        return recordIds[checkRow(row)];
+    }
+
+    public Record getRecord(int row) {
+        int recordId = recordIds[checkRow(row)];
+        return recordId < 0 ? null : records[recordId];
+    }
+
+    /**
+     * @return the number of distinct Records seen so far. Record ids run from 0 to this value.
+     */
+    public int recordCount() {
+        return recordIdsByRecord.size();
+    }
+
+    public Record recordFor(int recordId) {
+        if (recordId < 0 || recordId >= recordIdsByRecord.size()) {
+            throw new IndexOutOfBoundsException("Record id: " + recordId);
+        }
+        return records[recordId];
+    }
+
+    /**
+     * Builds a Transaction from a row. Each call returns a brand new object.
+     */
+    public Transaction toTransaction(int row) {
+        Transaction transaction = new Transaction(getStatus(row), getType(row), seconds[row]);
+        transaction.setRecord(getRecord(row));
+        return transaction;
+    }
+
+    /*
+     * The aggregates. These are the columnar versions of StreamExample.aggregateWaitTime() and
+     * StreamExample.filteredWaitTimes(). Sums are returned as a long, millions of rows of seconds
+     * overflow an int quickly.
+     */
+
+    public long sumWaitTime() {
+        long sum = 0;
+        for (int row = 0; row < size; row++) {
+            sum += seconds[row];
+        }
+        return sum;
+    }
+
+    public long sumWaitTime(TransactionStatus status) {
+        byte ordinal = (byte) status.ordinal();
+        long sum = 0;
+        for (int row = 0; row < size; row++) {
+            if (statuses[row] == ordinal) {
+                sum += seconds[row];
+            }
+        }
+        return sum;
+    }
+
+    public long sumWaitTime(TransactionType type) {
+        byte ordinal = (byte) type.ordinal();
+        long sum = 0;
+        for (int row = 0; row < size; row++) {
+            if (types[row] == ordinal) {
+                sum += seconds[row];
+            }
+        }
+        return sum;
+    }
+
+    /**
+     * @param rowFilter tested against row ids, use the getters to look at the row
+     */
+    public long sumWaitTime(IntPredicate rowFilter) {
+        long sum = 0;
+        for (int row = 0; row < size; row++) {
+            if (rowFilter.test(row)) {
+                sum += seconds[row];
+            }
+        }
+        return sum;
+    }
+
+    public int count(TransactionStatus status) {
+        byte ordinal = (byte) status.ordinal();
+        int count = 0;
+        for (int row = 0; row < size; row++) {
+            if (statuses[row] == ordinal) {
+                count++;
+            }
+        }
+        return count;
+    }
+
+    public int count(TransactionType type) {
+        byte ordinal = (byte) type.ordinal();
+        int count = 0;
+        for (int row = 0; row < size; row++) {
+            if (types[row] == ordinal) {
+                count++;
+            }
+        }
+        return count;
+    }
+
+    public int count(IntPredicate rowFilter) {
+        int count = 0;
+        for (int row = 0; row < size; row++) {
+            if (rowFilter.test(row)) {
+                count++;
+            }
+        }
+        return count;
+    }
+
+    /**
+     * @return the ids of the matching rows, in ascending order
+     */
+    public int[] filter(TransactionStatus status) {
+        byte ordinal = (byte) status.ordinal();
+        return filter(row -> statuses[row] == ordinal);
+    }
+
+    public int[] filter(TransactionType type) {
+        byte ordinal = (byte) type.ordinal();
+        return filter(row -> types[row] == ordinal);
+    }
+
+    public int[] filter(IntPredicate rowFilter) {
+        int[] matches = new int[Math.min(size, DEFAULT_CAPACITY)];
+        int count = 0;
+        for (int row = 0; row < size; row++) {
+            if (rowFilter.test(row)) {
+                if (count == matches.length) {
+                    matches = Arrays.copyOf(matches, Math.min(size, count + (count >> 1) + 1));
+                }
+                matches[count++] = row;
+            }
+        }
+        return matches.length == count ? matches : Arrays.copyOf(matches, count);
+    }
+
+    /**
+     * The bitmap index over this store. It is built on first use, and brought up to date with any
+     * newly appended rows on every call after that.
+     */
+    public TransactionIndex index() {
+        if (index == null) {
+            index = new TransactionIndex(this);
+        } else {
+            index.refresh();
+        }
+        return index;
+    }
+
+    /**
+     * A Collection of Transactions over this store. Adding to the view appends a row. Removing is
+     * not supported, the store is append only.
+     */
+    public Collection<Transaction> asCollection() {
+        return new View();
+    }
+
+    /**
+     * The given rows as a Collection of Transactions, usually a query result from
+     * {@link #index()}. The BitSet is not copied and belongs to the RowSet from then on. size() is
+     * a bit count worked out once, and a Transaction is only built when the iterator gets to it.
+     */
+    public RowSet rowSet(BitSet rows) {
+        return new RowSet(rows);
+    }
+
+    /**
+     * Rows of this store, one bit each. Read only.
+     */
+    public class RowSet extends AbstractCollection<Transaction> {
+
+        private final BitSet rows;
+        private final int size;
+
+        RowSet(BitSet rows) {
+            if (rows.length() > TransactionStore.this.size) {
+                throw new IndexOutOfBoundsException(
+                    "Row: " + (rows.length() - 1) + ", Size: " + TransactionStore.this.size);
+            }
+            this.rows = rows;
+            this.size = rows.cardinality();
+        }
+
+        public TransactionStore store() {
+            return TransactionStore.this;
+        }
+
+        /**
+         * @return a copy of the row ids
+         */
+        public BitSet rows() {
+            return (BitSet) rows.clone();
+        }
+
+        public boolean containsRow(int row) {
+            return rows.get(row);
+        }
+
+        public long sumWaitTime() {
+            long sum = 0;
+            for (int row = rows.nextSetBit(0); row >= 0; row = rows.nextSetBit(row + 1)) {
+                sum += seconds[row];
+            }
+            return sum;
+        }
+
+        public void forEachRow(IntConsumer action) {
+            for (int row = rows.nextSetBit(0); row >= 0; row = rows.nextSetBit(row + 1)) {
+                action.accept(row);
+            }
+        }
+
+        @Override
+        public Iterator<Transaction> iterator() {
+            return new Iterator<Transaction>() {
+                private int row = rows.nextSetBit(0);
+
+                @Override
+                public boolean hasNext() {
+                    return row >= 0;
+                }
+
+                @Override
+                public Transaction next() {
+                    if (row < 0) {
+                        throw new NoSuchElementException();
+                    }
+                    Transaction transaction = toTransaction(row);
+                    row = rows.nextSetBit(row + 1);
+                    return transaction;
+                }
+            };
+        }
+
+        @Override
+        public int size() {
+            return size;
+        }
+    }
+
+    class View extends AbstractCollection<Transaction> {
+
+        TransactionStore store() {
+            return TransactionStore.this;
+        }
+
+        @Override
+        public Iterator<Transaction> iterator() {
+            return new Iterator<Transaction>() {
+                private final int end = size;
+                private int row;
+
+                @Override
+                public boolean hasNext() {
+                    return row < end;
+                }
+
+                @Override
+                public Transaction next() {
+                    if (row >= end) {
+                        throw new NoSuchElementException();
+                    }
+                    return toTransaction(row++);
+                }
+            };
+        }
+
+        @Override
+        public int size() {
+            return size;
+        }
+
+        @Override
+        public boolean add(Transaction transaction) {
+            TransactionStore.this.add(transaction);
+            return true;
+        }
+    }
+
+    private int recordIdOf(Record record) {
+        if (record == null) {
+            return -1;
+        }
+        Integer recordId = recordIdsByRecord.get(record);
+        if (recordId == null) {
+            recordId = recordIdsByRecord.size();
+            if (recordId == records.length) {
+                records = Arrays.copyOf(records, recordId + (recordId >> 1));
+            }
+            records[recordId] = record;
+            recordIdsByRecord.put(record, recordId);
+        }
+        return recordId;
+    }
+
+    private int checkRow(int row) {
+        if (row < 0 || row >= size) {
+            throw new IndexOutOfBoundsException("Row: " + row + ", Size: " + size);
+        }
+        return row;
+    }
+
+    private void grow() {
+        int capacity = seconds.length;
+        int newCapacity = capacity + Math.max(capacity >> 1, DEFAULT_CAPACITY);
+        if (newCapacity < 0) {
+            newCapacity = Integer.MAX_VALUE - 8;
+            if (capacity >= newCapacity) {
+                throw new OutOfMemoryError("TransactionStore is full");
+            }
+        }
+        statuses = Arrays.copyOf(statuses, newCapacity);
+        types = Arrays.copyOf(types, newCapacity);
+        seconds = Arrays.copyOf(seconds, newCapacity);
+        recordIds = Arrays.copyOf(recordIds, newCapacity);
+    }
+}
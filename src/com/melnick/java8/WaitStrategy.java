@@ -0,0 +1,150 @@
+package com.melnick.java8;
+
+import com.melnick.java8.TransactionRingBuffer.Sequence;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.LockSupport;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.BooleanSupplier;
+
+/**
+ * How a {@link TransactionRingBuffer} consumer waits for the producer when it has caught up.
+ *
+ * From fastest and hungriest to slowest and most polite:
+ *
+ *   busySpin()   never lets go of its core. The lowest latency, if there is a core to spare for
+ *                every consumer. Otherwise the worst choice there is.
+ *   yielding()   spins a little, then Thread.yield()s. Still burns a core while idle, but lets
+ *                other threads in.
+ *   sleeping()   spins, yields, then parks for a short while. Next to nothing while idle, at
+ *                the cost of up to the park time in latency.
+ *   blocking()   waits on a Condition, and the producer signals it. The kindest to the rest of
+ *                the machine, and the slowest under load.
+ */
+public interface WaitStrategy {
+
+    /**
+     * Waits until the cursor reaches sequence, or halted says to stop.
+     *
+     * @return the highest published sequence, which may be well past the one asked for. Less than
+     * sequence only when halted. Once halted is seen the cursor is read again, so that nothing
+     * published before the halt is left out.
+     */
+    long waitFor(long sequence, Sequence cursor, BooleanSupplier halted);
+
+    /**
+     * Called by the producer after every publish, and on halt.
+     */
+    default void signalAll() {
+    }
+
+    static WaitStrategy busySpin() {
+        return (sequence, cursor, halted) -> {
+            long available;
+            while ((available = cursor.get()) < sequence) {
+                if (halted.getAsBoolean()) {
+                    return cursor.get();
+                }
+            }
+            return available;
+        };
+    }
+
+    static WaitStrategy yielding() {
+        return (sequence, cursor, halted) -> {
+            int spins = 100;
+            long available;
+            while ((available = cursor.get()) < sequence) {
+                if (halted.getAsBoolean()) {
+                    return cursor.get();
+                }
+                if (spins > 0) {
+                    spins--;
+                } else {
+                    Thread.yield();
+                }
+            }
+            return available;
+        };
+    }
+
+    static WaitStrategy sleeping() {
+        return sleeping(TimeUnit.MICROSECONDS.toNanos(50));
+    }
+
+    static WaitStrategy sleeping(long parkNanos) {
+        return (sequence, cursor, halted) -> {
+            int retries = 200;
+            long available;
+            while ((available = cursor.get()) < sequence) {
+                if (halted.getAsBoolean()) {
+                    return cursor.get();
+                }
+                if (retries > 100) {
+                    retries--;
+                } else if (retries > 0) {
+                    retries--;
+                    Thread.yield();
+                } else {
+                    LockSupport.parkNanos(parkNanos);
+                }
+            }
+            return available;
+        };
+    }
+
+    static WaitStrategy blocking() {
+        return new Blocking();
+    }
+
+    /**
+     * The producer only takes the lock when some consumer has said it is about to wait.
+     */
+    final class Blocking implements WaitStrategy {
+        private final Lock lock = new ReentrantLock();
+        private final Condition published = lock.newCondition();
+        private final AtomicBoolean signalNeeded = new AtomicBoolean();
+
+        private Blocking() {
+        }
+
+        @Override
+        public long waitFor(long sequence, Sequence cursor, BooleanSupplier halted) {
+            long available = cursor.get();
+            if (available >= sequence) {
+                return available;
+            }
+            lock.lock();
+            try {
+                while ((available = cursor.get()) < sequence && !halted.getAsBoolean()) {
+                    signalNeeded.set(true);
+                    if (cursor.get() >= sequence) {
+                        continue;
+                    }
+                    // the timeout only matters if a signal is somehow missed
+                    published.await(1, TimeUnit.MILLISECONDS);
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            } finally {
+                lock.unlock();
+            }
+            return cursor.get();
+        }
+
+        @Override
+        public void signalAll() {
+            if (signalNeeded.getAndSet(false)) {
+                lock.lock();
+                try {
+                    published.signalAll();
+                } finally {
+                    lock.unlock();
+                }
+            }
+        }
+    }
+}
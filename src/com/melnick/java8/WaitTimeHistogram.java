@@ -0,0 +1,163 @@
+package com.melnick.java8;
+
+import java.util.Arrays;
+
+/**
+ * A log-linear histogram of wait times in seconds.
+ *
+ * Percentiles of a collection normally mean sorting it. Here every wait time is counted into a
+ * bucket as it arrives instead, and a percentile is found by walking the buckets, a fixed 1664 of
+ * them however many values were recorded.
+ *
+ * Buckets are one second wide up to 128 seconds, so small values are exact. Above that, every
+ * power of two is cut into 64 equal buckets: 128-129, ..., 254-255, then 256-259, and so on. A
+ * bucket is never wider than 1/64th of the values in it, so any answer is within about 1.6% of
+ * the truth. An hour lands in a 64 second wide bucket, a day in a 1024 second wide one.
+ *
+ * A histogram is not thread safe. To record from several threads, give each its own histogram and
+ * {@link #merge(WaitTimeHistogram)} them when it is time to ask.
+ */
+public class WaitTimeHistogram {
+
+    private static final int SUB_BUCKET_BITS = 6;
+    private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+
+    // Everything below this is exact
+    private static final int LINEAR_LIMIT = SUB_BUCKETS << 1;
+    private static final int LINEAR_EXPONENT = SUB_BUCKET_BITS + 1;
+
+    static final int BUCKETS = LINEAR_LIMIT + (Integer.SIZE - 1 - LINEAR_EXPONENT) * SUB_BUCKETS;
+
+    private final long[] counts = new long[BUCKETS];
+    private long totalCount;
+
+    public WaitTimeHistogram() {
+    }
+
+    public WaitTimeHistogram(WaitTimeHistogram other) {
+        merge(other);
+    }
+
+    public void record(int seconds) {
+        counts[bucketOf(seconds)]++;
+        totalCount++;
+    }
+
+    /**
+     * Takes a value back out. It must have been recorded.
+     */
+    public void remove(int seconds) {
+        int bucket = bucketOf(seconds);
+        if (counts[bucket] == 0) {
+            throw new IllegalStateException("No value recorded like " + seconds);
+        }
+        counts[bucket]--;
+        totalCount--;
+    }
+
+    /**
+     * Adds everything recorded in the other histogram to this one.
+     */
+    public void merge(WaitTimeHistogram other) {
+        for (int bucket = 0; bucket < BUCKETS; bucket++) {
+            counts[bucket] += other.counts[bucket];
+        }
+        totalCount += other.totalCount;
+    }
+
+    public void clear() {
+        Arrays.fill(counts, 0);
+        totalCount = 0;
+    }
+
+    public long count() {
+        return totalCount;
+    }
+
+    /**
+     * @param percentile from 0 to 100
+     * @return the wait time that percentile percent of the values are at or below. The answer is
+     * the top of the bucket it falls into, so it errs on the slow side. 0 when nothing is recorded.
+     */
+    public int valueAtPercentile(double percentile) {
+        if (!(percentile >= 0 && percentile <= 100)) {
+            throw new IllegalArgumentException("Percentile must be between 0 and 100: " + percentile);
+        }
+        if (totalCount == 0) {
+            return 0;
+        }
+        long rank = Math.max(1, (long) Math.ceil(percentile / 100 * totalCount));
+        long seen = 0;
+        for (int bucket = 0; bucket < BUCKETS; bucket++) {
+            seen += counts[bucket];
+            if (seen >= rank) {
+                return highestValueIn(bucket);
+            }
+        }
+        throw new AssertionError("Counts do not add up to " + totalCount);
+    }
+
+    public int p50() {
+        return valueAtPercentile(50);
+    }
+
+    public int p99() {
+        return valueAtPercentile(99);
+    }
+
+    public int p999() {
+        return valueAtPercentile(99.9);
+    }
+
+    /**
+     * @return how many values are more than the given number of seconds. Exact up to 127
+     * seconds. Above that, the values that share the threshold's bucket are all taken to be equal
+     * to the threshold, so they are not counted.
+     */
+    public long countAbove(int seconds) {
+        if (seconds < 0) {
+            return totalCount;
+        }
+        long count = 0;
+        for (int bucket = bucketOf(seconds) + 1; bucket < BUCKETS; bucket++) {
+            count += counts[bucket];
+        }
+        return count;
+    }
+
+    static int bucketOf(int seconds) {
+        if (seconds < 0) {
+            throw new IllegalArgumentException("Wait time can not be negative: " + seconds);
+        }
+        if (seconds < LINEAR_LIMIT) {
+            return seconds;
+        }
+        int exponent = Integer.SIZE - 1 - Integer.numberOfLeadingZeros(seconds);
+        int subBucket = (seconds >>> (exponent - SUB_BUCKET_BITS)) - SUB_BUCKETS;
+        return LINEAR_LIMIT + (exponent - LINEAR_EXPONENT) * SUB_BUCKETS + subBucket;
+    }
+
+    static int lowestValueIn(int bucket) {
+        if (bucket < LINEAR_LIMIT) {
+            return bucket;
+        }
+        int offset = bucket - LINEAR_LIMIT;
+        int exponent = offset / SUB_BUCKETS + LINEAR_EXPONENT;
+        int subBucket = offset % SUB_BUCKETS + SUB_BUCKETS;
+        return subBucket << (exponent - SUB_BUCKET_BITS);
+    }
+
+    static int highestValueIn(int bucket) {
+        if (bucket < LINEAR_LIMIT) {
+            return bucket;
+        }
+        int width = 1 << ((bucket - LINEAR_LIMIT) / SUB_BUCKETS + LINEAR_EXPONENT - SUB_BUCKET_BITS);
+        return lowestValueIn(bucket) + (width - 1);
+    }
+
+    @Override
+    public String toString() {
+        return "WaitTimeHistogram{count=" + totalCount + ", p50=" + p50() + ", p99=" + p99()
+            + ", p999=" + p999() + '}';
+    }
+}
@@ -0,0 +1,144 @@
+package com.melnick.java8;
+
+import com.melnick.java8.Functional.TransactionCollection;
+import com.melnick.java8.StreamExample.Transaction;
+import com.melnick.java8.StreamExample.TransactionStatus;
+import com.melnick.java8.StreamExample.TransactionType;
+
+import java.util.Collection;
+import java.util.Objects;
+
+/**
+ * A {@link WaitTimeHistogram} for every (TransactionStatus, TransactionType) cell, the way
+ * TransactionLedger keeps sums.
+ *
+ * Questions about a status or a type merge the cells they cover into a new histogram, so "the p99
+ * of IDENT transactions" or "how many IN_PROGRESS have waited more than ten minutes" cost a few
+ * thousand additions, not a sort of the collection.
+ *
+ * It can be fed directly, or registered as a listener on a TransactionCollection with
+ * {@link #listenTo(TransactionCollection)}, in which case it follows every add, remove and update
+ * made through the collection.
+ *
+ * All methods are synchronized. merge() never holds more than one lock at a time.
+ */
+public class WaitTimeHistograms implements TransactionCollection.ChangeListener {
+
+    private static final TransactionStatus[] STATUSES = TransactionStatus.values();
+    private static final TransactionType[] TYPES = TransactionType.values();
+
+    // Row major, indexed by status ordinal * TYPES.length + type ordinal
+    private final WaitTimeHistogram[] cells = new WaitTimeHistogram[STATUSES.length * TYPES.length];
+
+    public WaitTimeHistograms() {
+        for (int cell = 0; cell < cells.length; cell++) {
+            cells[cell] = new WaitTimeHistogram();
+        }
+    }
+
+    public static WaitTimeHistograms of(Collection<Transaction> transactions) {
+        WaitTimeHistograms histograms = new WaitTimeHistograms();
+        transactions.forEach(histograms::add);
+        return histograms;
+    }
+
+    /**
+     * Starts with what is in the collection now, and follows it from then on. The two happen
+     * together, so no change is missed or counted twice.
+     */
+    public static WaitTimeHistograms listenTo(TransactionCollection transactions) {
+        WaitTimeHistograms histograms = new WaitTimeHistograms();
+        transactions.addListener(histograms, initial -> initial.forEach(histograms::add));
+        return histograms;
+    }
+
+    public synchronized void add(Transaction transaction) {
+        cell(transaction.getStatus(), transaction.getType()).record(secondsOf(transaction));
+    }
+
+    public synchronized void remove(Transaction transaction) {
+        cell(transaction.getStatus(), transaction.getType()).remove(secondsOf(transaction));
+    }
+
+    public synchronized void record(TransactionStatus status, TransactionType type, int timeInSeconds) {
+        cell(status, type).record(timeInSeconds);
+    }
+
+    @Override
+    public void added(Transaction transaction) {
+        add(transaction);
+    }
+
+    @Override
+    public void removed(Transaction transaction) {
+        remove(transaction);
+    }
+
+    @Override
+    public synchronized void updated(Transaction transaction, Transaction before) {
+        remove(before);
+        add(transaction);
+    }
+
+    /**
+     * Adds everything in the other histograms to these, cell by cell. The other ones are copied
+     * first, under their own lock only, so a.merge(b) and b.merge(a) at the same time can not
+     * deadlock.
+     */
+    public void merge(WaitTimeHistograms other) {
+        WaitTimeHistogram[] copies = other.copyCells();
+        synchronized (this) {
+            for (int cell = 0; cell < cells.length; cell++) {
+                cells[cell].merge(copies[cell]);
+            }
+        }
+    }
+
+    private synchronized WaitTimeHistogram[] copyCells() {
+        WaitTimeHistogram[] copies = new WaitTimeHistogram[cells.length];
+        for (int cell = 0; cell < copies.length; cell++) {
+            copies[cell] = new WaitTimeHistogram(cells[cell]);
+        }
+        return copies;
+    }
+
+    /*
+     * Every query returns a new histogram that belongs to the caller.
+     */
+
+    public synchronized WaitTimeHistogram histogram(TransactionStatus status, TransactionType type) {
+        return new WaitTimeHistogram(cell(status, type));
+    }
+
+    public synchronized WaitTimeHistogram histogram(TransactionStatus status) {
+        WaitTimeHistogram histogram = new WaitTimeHistogram();
+        for (TransactionType type : TYPES) {
+            histogram.merge(cell(status, type));
+        }
+        return histogram;
+    }
+
+    public synchronized WaitTimeHistogram histogram(TransactionType type) {
+        WaitTimeHistogram histogram = new WaitTimeHistogram();
+        for (TransactionStatus status : STATUSES) {
+            histogram.merge(cell(status, type));
+        }
+        return histogram;
+    }
+
+    public synchronized WaitTimeHistogram total() {
+        WaitTimeHistogram histogram = new WaitTimeHistogram();
+        for (WaitTimeHistogram cell : cells) {
+            histogram.merge(cell);
+        }
+        return histogram;
+    }
+
+    private WaitTimeHistogram cell(TransactionStatus status, TransactionType type) {
+        return cells[status.ordinal() * TYPES.length + type.ordinal()];
+    }
+
+    private static int secondsOf(Transaction transaction) {
+        return Objects.requireNonNull(transaction.getTimeInSeconds(), "timeInSeconds");
+    }
+}